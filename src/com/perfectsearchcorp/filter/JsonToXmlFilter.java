@@ -16,10 +16,14 @@
  */
 package com.perfectsearchcorp.filter;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Scanner;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -30,14 +34,21 @@ import org.apache.logging.log4j.core.config.LoggerConfig;
 
 import com.perfectsearchcorp.generator.XmlGenerator;
 import com.perfectsearchcorp.parser.Element;
+import com.perfectsearchcorp.parser.IncrementalJsonParser;
+import com.perfectsearchcorp.parser.JsonHandler;
 import com.perfectsearchcorp.parser.JsonParser;
+import com.perfectsearchcorp.parser.Key;
 import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.parser.PathProjection;
+import com.perfectsearchcorp.parser.Value;
+import com.perfectsearchcorp.scanner.Utf8JsonScanner;
 
 public class JsonToXmlFilter
 {
   private static final Logger log = LogManager.getLogger( JsonToXmlFilter.class );
 
-  private static final int EIO = 5;  // (from errno.h)
+  private static final int EIO    = 5;   // (from errno.h)
+  private static final int EINVAL = 22;
 
   private static final String APPLICATION = "JSON-to-XML filter (json-to-xml)";
   private static final String COPYRIGHT = "You are free to use this utility as a binary or its sources in any way you please.";
@@ -52,9 +63,12 @@ public class JsonToXmlFilter
                                 "--doctype <Document type>",
                                 "--pretty",
                                 "--tabwidth",
+                                "--select <path>, e.g. glossary.GlossDiv.GlossList (repeatable)",
+                                "--exclude <path> (repeatable)",
                                 "--version",
                                 "--logging",
                                 "--passive",
+                                "--validate (only check that the JSON is well-formed)",
                                 "--help"
                               };
   private static String  ROOTNAME = null;
@@ -63,10 +77,12 @@ public class JsonToXmlFilter
   private static String  DOCTYPE = null;
   private static String  TABWIDTH = null;
   private static String  INPUTFILE = null;
+  private static PathProjection PROJECTION = null;
 
   private static boolean PASSIVE = false;
   private static boolean LOGGING = false;
   private static boolean PRETTY = false;
+  private static boolean VALIDATE = false;
 
   private static void badCommandLine() throws EarlyExitException
   {
@@ -77,6 +93,9 @@ public class JsonToXmlFilter
 
   private static void parseOptionsFromCommandLine( String[] args ) throws EarlyExitException
   {
+    PROJECTION = null;
+    VALIDATE   = false;
+
     if( args == null )    // shouldn't happen, but treat as if args.length == 1...
       return;
 
@@ -103,6 +122,8 @@ public class JsonToXmlFilter
             case "dtd" :      DTD      = arg; lookingFor = null; break;
             case "doctype" :  DOCTYPE  = arg; lookingFor = null; break;
             case "tabwidth" : TABWIDTH = arg; lookingFor = null; break;
+            case "select" :   projection().select( arg );  lookingFor = null; break;
+            case "exclude" :  projection().exclude( arg ); lookingFor = null; break;
           }
           break;
 
@@ -111,10 +132,13 @@ public class JsonToXmlFilter
         case "--dtd" :      lookingFor = "dtd";      break;
         case "--doctype" :  lookingFor = "doctype";  break;
         case "--tabwidth" : lookingFor = "tabwidth"; break;
+        case "--select" :   lookingFor = "select";   break;
+        case "--exclude" :  lookingFor = "exclude";  break;
 
         case "--passive" : PASSIVE = true; break;
         case "--logging" : LOGGING = true; break;
         case "--pretty" :  PRETTY  = true; break;
+        case "--validate" : VALIDATE = true; break;
 
         case "--version" :
           doApplicationHeader();
@@ -130,87 +154,197 @@ public class JsonToXmlFilter
 
   public static void main( String[] args )
   {
-    String content = null;
-
     try
     {
       parseOptionsFromCommandLine( args );
 
+      if( PASSIVE )
+      {
+        outputOptionsAsIfToRun();
+        throw new EarlyExitException();
+      }
+
+      if( VALIDATE )
+      {
+        validate();
+        throw new EarlyExitException();
+      }
+
+      XmlGenerator generator = createAndConfigureGenerator();
+      OutputStream out       = System.out;   // (the generator encodes and buffers)
+
       try
       {
-        content = ( INPUTFILE != null )
-                    ? readContentFromFile( INPUTFILE )
-                    : readContentFromStdIn();
+        try
+        {
+          if( INPUTFILE != null )
+            transcodeFile( INPUTFILE, generator, out );
+          else
+            transcodeStdIn( generator, out );
+        }
+        catch( ParserBrokenException e )
+        {
+          e.printStackTrace();
+        }
+
+        out.write( '\n' );
+        out.flush();
       }
       catch( IOException e )
       {
-        System.err.println( "Failed to open input" );
+        System.err.println( "Failed to read input or write output" );
         e.printStackTrace();
         System.exit( EIO );
       }
+    }
+    catch( EarlyExitException e )
+    {
+      ;
+    }
+  }
 
-      JsonParser parser = new JsonParser( content );
+  private static final boolean isEmpty( String string ) { return( string == null || string.length() < 1 ); }
 
-      if( LOGGING )
-        parser.setLogLevel( Level.INFO );
+  private static PathProjection projection()
+  {
+    if( PROJECTION == null )
+      PROJECTION = new PathProjection();
 
-      Element element = null;
+    return PROJECTION;
+  }
 
-      try
+  /**
+   * Say only whether the input is well-formed JSON: "OK" or what's wrong
+   * with it and where, in which case the exit status is <tt>EINVAL</tt>.
+   * Standard input is read whole first.
+   */
+  private static void validate()
+  {
+    try
+    {
+      ByteBuffer content;
+
+      if( INPUTFILE != null )
       {
-        if( PASSIVE )
+        try( RandomAccessFile file = new RandomAccessFile( INPUTFILE, "r" ) )
         {
-          outputOptionsAsIfToRun();
-          throw new EarlyExitException();
+          FileChannel channel = file.getChannel();
+          content = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
         }
-
-        element = parser.parse();
       }
-      catch( ParserBrokenException e )
+      else
       {
-        e.printStackTrace();
-      }
+        ByteArrayOutputStream in     = new ByteArrayOutputStream();
+        byte[]                buffer = new byte[ 64 * 1024 ];
+        int                   count;
 
-      XmlGenerator generator = createAndConfigureGenerator();
+        while( ( count = System.in.read( buffer ) ) >= 0 )
+          in.write( buffer, 0, count );
 
-      String xml = generator.generate( element );
+        content = ByteBuffer.wrap( in.toByteArray() );
+      }
 
-      System.out.println( xml );
+      new JsonParser( new Utf8JsonScanner( content ) ).validate();
+      System.out.println( "OK" );
     }
-    catch( EarlyExitException e )
+    catch( ParserBrokenException e )
     {
-      ;
+      System.out.println( e.getMessage() );
+      System.exit( EINVAL );
+    }
+    catch( IOException e )
+    {
+      System.err.println( "Failed to read input" );
+      e.printStackTrace();
+      System.exit( EIO );
     }
   }
 
-  private static final boolean isEmpty( String string ) { return( string == null || string.length() < 1 ); }
-
-  private static String readContentFromFile( String filename ) throws IOException
+  /**
+   * The file is mapped rather than read: its bytes are scanned where they
+   * lie, outside the heap, and never decoded as a whole. The XML is written
+   * as the document is parsed, without building an <tt>Element</tt>. What
+   * isn't selected is skipped over without even being tokenized.
+   */
+  private static void transcodeFile( String filename, XmlGenerator generator, OutputStream out )
+      throws IOException, ParserBrokenException
   {
     log.info( "Reading from file " + filename );
-    File f = new File( filename );
-    FileInputStream fis = new FileInputStream( f );
-    byte[] contents = new byte[ ( int ) f.length() ];
 
-    fis.read(  contents );
-    fis.close();
+    try( RandomAccessFile file = new RandomAccessFile( filename, "r" ) )
+    {
+      FileChannel channel = file.getChannel();
+      ByteBuffer  content = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+      JsonParser  parser  = new JsonParser( new Utf8JsonScanner( content ) );
+
+      if( LOGGING )
+        parser.setLogLevel( Level.INFO );
 
-    return new String( contents, "UTF-8" );
+      if( PROJECTION != null )
+        generator.transcode( PROJECTION.project( parser ), out );
+      else
+        generator.transcode( parser, out );
+    }
   }
 
-  private static String readContentFromStdIn() throws IOException
+  /**
+   * Standard input is parsed as it's read rather than first read whole, and
+   * the XML for each of the document's outermost pairs written as soon as
+   * it's complete, after which it's forgotten. Each of those pairs is
+   * projected, if selecting, once built.
+   */
+  private static void transcodeStdIn( final XmlGenerator generator, OutputStream out )
+      throws IOException, ParserBrokenException
   {
     log.info( "Reading from stdin" );
-    StringBuilder sb = new StringBuilder();
+    IncrementalJsonParser parser = new IncrementalJsonParser( new JsonHandler()
+    {
+      @Override
+      public boolean pair( int depth, Key key, Value value )
+      {
+        if( depth > 1 )
+          return true;
+
+        if( PROJECTION != null && ( value = PROJECTION.project( key, value ) ) == null )
+          return false;
+
+        try
+        {
+          generator.generatePair( key, value );
+        }
+        catch( IOException e )
+        {
+          throw new UncheckedIOException( e );
+        }
+
+        return false;
+      }
+
+      @Override
+      public void document( Element root ) { }
+    } );
+    byte[]      buffer = new byte[ 64 * 1024 ];
+    InputStream in     = System.in;
+    int         count;
 
-    Scanner sc = new Scanner( System.in );
+    generator.begin( out );
+
+    try
+    {
+      while( ( count = in.read( buffer ) ) >= 0 )
+        parser.feed( buffer, 0, count );
+    }
+    catch( UncheckedIOException e )
+    {
+      throw e.getCause();
+    }
 
-    while( sc.hasNextLine() )
-      sb.append( sc.nextLine() );
+    parser.finish();
 
-    sc.close();
+    if( parser.getDocument() == null )
+      throw new ParserBrokenException( "Ill-formed JSON construct" );
 
-    return sb.toString();
+    generator.end();
   }
 
   private static final void doApplicationHeader()
@@ -240,9 +374,11 @@ public class JsonToXmlFilter
     System.out.println( "  DOCTYPE = " + DOCTYPE );
     System.out.println( " TABWIDTH = " + TABWIDTH );
     System.out.println( "INPUTFILE = " + INPUTFILE );
+    System.out.println( "  PROJECT = " + ( PROJECTION != null ) );
     System.out.println( "  PASSIVE = " + PASSIVE );
     System.out.println( "  LOGGING = " + LOGGING );
     System.out.println( "   PRETTY = " + PRETTY );
+    System.out.println( " VALIDATE = " + VALIDATE );
   }
 
   private static XmlGenerator createAndConfigureGenerator()
@@ -0,0 +1,272 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.generator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.perfectsearchcorp.parser.Element;
+import com.perfectsearchcorp.parser.Value;
+
+/**
+ * The XML of a record shape, compiled: what goes between its values, tags
+ * and indentation, made once as text and as UTF-8 bytes. Putting out a
+ * record of that shape is then a matter of copying those segments,
+ * escaping each value in between.
+ * <p />
+ * A shape is the keys of an object, in order, and whether each value is a
+ * simple one or itself an object of such a shape. Only objects whose
+ * innermost values are all simple ones, at most <tt>MAX_DEPTH</tt> deep,
+ * have a shape: an array can have any number of members and an empty
+ * object puts out nothing, so neither can be compiled.
+ * <p />
+ * A shape is walked without calling itself: <tt>entries</tt> holds the
+ * keys of the shape as they come in the document and, for each, how many
+ * pairs its object has or <tt>SIMPLE</tt>.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+final class RecordTemplate
+{
+  static final int MAX_DEPTH   = 4;    // objects within the record a shape goes
+  static final int MAX_ENTRIES = 256;  // keys in a shape, counting those within
+
+  private static final int SIMPLE = -1;
+
+  private final String[] keys;
+  private final int[]    pairs;    // how many pairs the object of each key has, or SIMPLE
+  private final Value[]  values;   // gathered from the last record matched
+
+  // what it was compiled for...
+  private boolean  compiled;
+  private boolean  pretty;
+  private String   tab;
+  private int      tabLevel;
+  private String[] segments;       // one more than the values
+  private byte[][] segmentBytes;
+
+  // (walking a record, the objects in the middle of and where in each)
+  private final Element[] within = new Element[ MAX_DEPTH+1 ];
+  private final int[]     next   = new int[ MAX_DEPTH+1 ];
+
+  private RecordTemplate( String[] keys, int[] pairs, int simple )
+  {
+    this.keys   = keys;
+    this.pairs  = pairs;
+    this.values = new Value[ simple ];
+  }
+
+  /**
+   * @return the (as yet uncompiled) template of <tt>record</tt>'s shape or
+   *          <tt>null</tt> if it hasn't one.
+   */
+  static RecordTemplate shapeOf( Element record )
+  {
+    if( record == null || record.size() == 0 )
+      return null;
+
+    List< String >  keys   = new ArrayList<>();
+    List< Integer > pairs  = new ArrayList<>();
+    Element[]       within = new Element[ MAX_DEPTH+1 ];
+    int[]           next   = new int[ MAX_DEPTH+1 ];
+    int             depth  = 0;
+    int             simple = 0;
+
+    within[ 0 ] = record;
+
+    while( depth >= 0 )
+    {
+      Element element = within[ depth ];
+
+      if( next[ depth ] == element.size() )
+      {
+        depth--;
+        continue;
+      }
+
+      if( keys.size() == MAX_ENTRIES )
+        return null;
+
+      int   pair  = next[ depth ]++;
+      Value value = element.getValue( pair );
+
+      if( value == null || value.isArray() )
+        return null;
+
+      keys.add( element.getKey( pair ).getKey() );
+
+      if( value.getValue() != null )
+      {
+        pairs.add( SIMPLE );
+        simple++;
+        continue;
+      }
+
+      Element object = value.getElement();
+
+      if( object == null || object.size() == 0 || depth == MAX_DEPTH )
+        return null;
+
+      pairs.add( object.size() );
+      within[ ++depth ] = object;
+      next[ depth ]     = 0;
+    }
+
+    int[] counts = new int[ pairs.size() ];
+    for( int entry = 0; entry < counts.length; entry++ )
+      counts[ entry ] = pairs.get( entry );
+
+    return new RecordTemplate( keys.toArray( new String[ keys.size() ] ), counts, simple );
+  }
+
+  /**
+   * Make the segments between the values, the record's pairs indented
+   * <tt>tabLevel</tt> deep if pretty-printing, as <tt>XmlGenerator</tt>
+   * would put them out.
+   */
+  void compile( TagCache tags, boolean pretty, String tab, int tabLevel )
+  {
+    List< String > made    = new ArrayList<>( values.length+1 );
+    StringBuilder  segment = new StringBuilder();
+    String[]       open    = new String[ MAX_DEPTH+1 ];   // keys of the objects in the middle of
+    int[]          left    = new int[ MAX_DEPTH+1 ];      // and how many of their pairs are left
+    int            depth   = 0;
+
+    left[ 0 ] = Integer.MAX_VALUE;   // (the record's own pairs are all the entries)
+
+    for( int entry = 0; entry < keys.length; entry++ )
+    {
+      TagCache.Tag tag = tags.get( keys[ entry ] );
+
+      left[ depth ]--;
+      indent( segment, pretty, tab, tabLevel + depth );
+      segment.append( tag.opening );
+
+      if( pairs[ entry ] == SIMPLE )
+      {
+        made.add( segment.toString() );
+        segment.setLength( 0 );
+        segment.append( tag.closing );
+      }
+      else
+      {
+        open[ ++depth ] = keys[ entry ];
+        left[ depth ]   = pairs[ entry ];
+      }
+
+      while( depth > 0 && left[ depth ] == 0 )
+      {
+        indent( segment, pretty, tab, tabLevel + depth - 1 );
+        segment.append( tags.get( open[ depth-- ] ).closing );
+      }
+    }
+
+    made.add( segment.toString() );
+
+    this.segments     = made.toArray( new String[ made.size() ] );
+    this.segmentBytes = new byte[ segments.length ][];
+    for( int which = 0; which < segments.length; which++ )
+      segmentBytes[ which ] = segments[ which ].getBytes( StandardCharsets.UTF_8 );
+
+    this.compiled = true;
+    this.pretty   = pretty;
+    this.tab      = tab;
+    this.tabLevel = tabLevel;
+  }
+
+  private static void indent( StringBuilder segment, boolean pretty, String tab, int tabLevel )
+  {
+    if( !pretty )
+      return;
+
+    segment.append( '\n' );
+    for( int indent = 0; indent < tabLevel; indent++ )
+      segment.append( tab );
+  }
+
+  boolean isCompiledFor( boolean pretty, String tab, int tabLevel )
+  {
+    return compiled && this.pretty == pretty && this.tabLevel == tabLevel && this.tab.equals( tab );
+  }
+
+  /**
+   * Walk <tt>record</tt> alongside the shape, gathering its values.
+   *
+   * @return whether it has this shape; if not, the values gathered are
+   *          of no use.
+   */
+  boolean gather( Element record )
+  {
+    int depth = 0, entry = 0, simple = 0;
+
+    within[ 0 ] = record;
+    next[ 0 ]   = 0;
+
+    while( depth >= 0 )
+    {
+      Element element = within[ depth ];
+
+      if( next[ depth ] == element.size() )
+      {
+        within[ depth-- ] = null;
+        continue;
+      }
+
+      if( entry == keys.length )
+        return clear( depth );
+
+      int   pair  = next[ depth ]++;
+      Value value = element.getValue( pair );
+
+      if( value == null || value.isArray() || !keys[ entry ].equals( element.getKey( pair ).getKey() ) )
+        return clear( depth );
+
+      if( pairs[ entry++ ] == SIMPLE )
+      {
+        if( value.getValue() == null )
+          return clear( depth );
+        values[ simple++ ] = value;
+        continue;
+      }
+
+      Element object = value.getElement();
+
+      if( value.getValue() != null || object == null || object.size() != pairs[ entry-1 ] )
+        return clear( depth );
+
+      within[ ++depth ] = object;
+      next[ depth ]     = 0;
+    }
+
+    return( entry == keys.length );
+  }
+
+  private boolean clear( int depth )
+  {
+    while( depth >= 0 )
+      within[ depth-- ] = null;
+
+    return false;
+  }
+
+  int valueCount() { return values.length; }
+  Value value( int which ) { return values[ which ]; }
+  String segment( int which ) { return segments[ which ]; }
+  byte[] segmentBytes( int which ) { return segmentBytes[ which ]; }
+}
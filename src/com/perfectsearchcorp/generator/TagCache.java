@@ -0,0 +1,165 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.generator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The opening and closing tags of keys, made once per distinct key, as
+ * text and as UTF-8 bytes, rather than each time one is put out: documents
+ * such as logs use the same few keys over and over.
+ * <p />
+ * A key is made into a legal XML name on the way: each character that
+ * can't be in a name becomes an underscore, as does an empty key, and one
+ * that can't begin a name gets one in front of it.
+ * <p />
+ * So that a document whose keys are all different can't make it grow
+ * without end, the cache holds only so many keys, forgetting the oldest
+ * first.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+class TagCache
+{
+  static final int DEFAULT_CAPACITY = 1024;
+
+  private final Map< String, Tag > tags;
+
+  TagCache() { this( DEFAULT_CAPACITY ); }
+
+  TagCache( final int capacity )
+  {
+    tags = new LinkedHashMap< String, Tag >( 64, 0.75f, false )
+    {
+      @Override
+      protected boolean removeEldestEntry( Map.Entry< String, Tag > eldest )
+      {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * @return the tags for <tt>key</tt>.
+   */
+  Tag get( String key )
+  {
+    Tag tag = tags.get( key );
+
+    if( tag == null )
+    {
+      tag = new Tag( toXmlName( key ) );
+      tags.put( key, tag );
+    }
+
+    return tag;
+  }
+
+  int size() { return tags.size(); }
+
+  /**
+   * @return <tt>key</tt> as is if it's a legal XML name, else made into one.
+   */
+  static String toXmlName( String key )
+  {
+    int length = key.length();
+    int pos    = 0;
+
+    if( length > 0 && isNameStartChar( key.codePointAt( 0 ) ) )
+    {
+      for( pos = Character.charCount( key.codePointAt( 0 ) ); pos < length; )
+      {
+        int character = key.codePointAt( pos );
+
+        if( !isNameChar( character ) )
+          break;
+
+        pos += Character.charCount( character );
+      }
+
+      if( pos == length )
+        return key;
+    }
+
+    StringBuilder name = new StringBuilder( length + 1 );
+
+    if( length == 0 || !isNameStartChar( key.codePointAt( 0 ) ) && isNameChar( key.codePointAt( 0 ) ) )
+      name.append( '_' );
+
+    for( pos = 0; pos < length; )
+    {
+      int character = key.codePointAt( pos );
+
+      if( isNameChar( character ) )
+        name.appendCodePoint( character );
+      else
+        name.append( '_' );
+
+      pos += Character.charCount( character );
+    }
+
+    return name.toString();
+  }
+
+  /**
+   * From production [4] of the XML 1.0 specification.
+   */
+  static boolean isNameStartChar( int c )
+  {
+    if( c < 0x80 )
+      return( c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_' || c == ':' );
+
+    return( c >= 0xC0 && c <= 0xD6 || c >= 0xD8 && c <= 0xF6 || c >= 0xF8 && c <= 0x2FF
+         || c >= 0x370 && c <= 0x37D || c >= 0x37F && c <= 0x1FFF || c >= 0x200C && c <= 0x200D
+         || c >= 0x2070 && c <= 0x218F || c >= 0x2C00 && c <= 0x2FEF || c >= 0x3001 && c <= 0xD7FF
+         || c >= 0xF900 && c <= 0xFDCF || c >= 0xFDF0 && c <= 0xFFFD || c >= 0x10000 && c <= 0xEFFFF );
+  }
+
+  /**
+   * From production [4a] of the XML 1.0 specification.
+   */
+  static boolean isNameChar( int c )
+  {
+    if( isNameStartChar( c ) )
+      return true;
+
+    return( c >= '0' && c <= '9' || c == '-' || c == '.' || c == 0xB7
+         || c >= 0x300 && c <= 0x36F || c >= 0x203F && c <= 0x2040 );
+  }
+
+  /**
+   * A key's opening and closing tags.
+   */
+  static final class Tag
+  {
+    final String opening;
+    final String closing;
+    final byte[] openingBytes;
+    final byte[] closingBytes;
+
+    Tag( String name )
+    {
+      opening      = "<" + name + ">";
+      closing      = "</" + name + ">";
+      openingBytes = opening.getBytes( StandardCharsets.UTF_8 );
+      closingBytes = closing.getBytes( StandardCharsets.UTF_8 );
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.generator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * A growing buffer of UTF-8 bytes, appended to as a <tt>StringBuilder</tt>
+ * is, so that the XML is encoded as it's generated rather than held as
+ * characters and encoded afterward. Text is encoded a character at a time,
+ * which for ASCII is a copy; a surrogate not paired becomes a question
+ * mark as the UTF-8 <tt>Charset</tt> makes it.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+class Utf8Buffer
+{
+  private byte[] bytes;
+  private int    length;
+
+  Utf8Buffer( int capacity ) { bytes = new byte[ capacity ]; }
+
+  int length() { return length; }
+
+  void setLength( int length ) { this.length = length; }
+
+  void append( byte[] encoded )
+  {
+    ensureRoom( encoded.length );
+    System.arraycopy( encoded, 0, bytes, length, encoded.length );
+    length += encoded.length;
+  }
+
+  void append( char character )
+  {
+    if( character < 0x80 )
+    {
+      ensureRoom( 1 );
+      bytes[ length++ ] = ( byte ) character;
+    }
+    else
+    {
+      append( String.valueOf( character ) );
+    }
+  }
+
+  void append( String text ) { append( text, 0, text.length() ); }
+
+  /**
+   * Append the characters of <tt>text</tt> from <tt>from</tt> up to (not
+   * including) <tt>to</tt>.
+   */
+  void append( String text, int from, int to )
+  {
+    ensureRoom( ( to - from ) * 3 );    // (the most a UTF-16 character can take)
+
+    byte[] bytes  = this.bytes;
+    int    length = this.length;
+
+    for( int pos = from; pos < to; pos++ )
+    {
+      char character = text.charAt( pos );
+
+      if( character < 0x80 )
+      {
+        bytes[ length++ ] = ( byte ) character;
+      }
+      else if( character < 0x800 )
+      {
+        bytes[ length++ ] = ( byte ) ( 0xC0 | character >> 6 );
+        bytes[ length++ ] = ( byte ) ( 0x80 | character & 0x3F );
+      }
+      else if( Character.isSurrogate( character ) )
+      {
+        int codePoint;
+
+        if( Character.isHighSurrogate( character ) && pos+1 < to
+                          && Character.isLowSurrogate( text.charAt( pos+1 ) ) )
+        {
+          codePoint = Character.toCodePoint( character, text.charAt( ++pos ) );
+          bytes[ length++ ] = ( byte ) ( 0xF0 | codePoint >> 18 );
+          bytes[ length++ ] = ( byte ) ( 0x80 | codePoint >> 12 & 0x3F );
+          bytes[ length++ ] = ( byte ) ( 0x80 | codePoint >> 6 & 0x3F );
+          bytes[ length++ ] = ( byte ) ( 0x80 | codePoint & 0x3F );
+        }
+        else
+        {
+          bytes[ length++ ] = '?';
+        }
+      }
+      else
+      {
+        bytes[ length++ ] = ( byte ) ( 0xE0 | character >> 12 );
+        bytes[ length++ ] = ( byte ) ( 0x80 | character >> 6 & 0x3F );
+        bytes[ length++ ] = ( byte ) ( 0x80 | character & 0x3F );
+      }
+    }
+
+    this.length = length;
+  }
+
+  void writeTo( OutputStream out ) throws IOException
+  {
+    out.write( bytes, 0, length );
+  }
+
+  void writeTo( WritableByteChannel out ) throws IOException
+  {
+    ByteBuffer buffer = ByteBuffer.wrap( bytes, 0, length );
+
+    while( buffer.hasRemaining() )
+      out.write( buffer );
+  }
+
+  private void ensureRoom( int needed )
+  {
+    if( length + needed > bytes.length )
+      bytes = Arrays.copyOf( bytes, Math.max( length + needed, bytes.length * 2 ) );
+  }
+}
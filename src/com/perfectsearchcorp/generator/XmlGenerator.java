@@ -16,11 +16,28 @@
  */
 package com.perfectsearchcorp.generator;
 
-import java.util.Map;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import com.perfectsearchcorp.parser.Element;
+import com.perfectsearchcorp.parser.JsonEvent;
+import com.perfectsearchcorp.parser.JsonEventReader;
 import com.perfectsearchcorp.parser.Key;
+import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.parser.Tape;
 import com.perfectsearchcorp.parser.Value;
+import com.perfectsearchcorp.scanner.Token;
 
 /**
  * From an existing <tt>Element</tt> representing a parsed JSON document,
@@ -58,18 +75,121 @@ import com.perfectsearchcorp.parser.Value;
  * itself since there's no way the previous closing tag can know with
  * complete accuracy how to preinsert a newline or indentation.
  *
+ * <h3> Transcoding </h3>
+ *
+ * Instead of generating from an <tt>Element</tt>, the XML can be written
+ * as a <tt>JsonParser</tt> (or a <tt>Tape</tt>'s reader) is pulled
+ * through the document, one tag or text at a time, so that no
+ * <tt>Element</tt> is ever built. The XML goes out to a <tt>Writer</tt>
+ * every few kilobytes, so memory is only needed for the keys of the
+ * objects open. It comes out the same. A value longer than a threshold
+ * is not even made into a <tt>String</tt>, but decoded and put out a
+ * piece at a time straight from where it lies in the content, so that
+ * memory stays the same however long it is. Alternatively, pairs built
+ * some other way can be handed over one at a time between
+ * <tt>begin()</tt> and <tt>end()</tt>.
+ *
+ * <h3> Streaming </h3>
+ *
+ * An <tt>Element</tt> can also be generated straight out to a
+ * <tt>Writer</tt>, an <tt>OutputStream</tt> or a channel, a few kilobytes
+ * at a time, instead of into a string, so that the XML is never held
+ * whole and whoever reads it can start right away. Bytes are generated
+ * as UTF-8 straight into a buffer kept from one document to the next,
+ * never as characters to be encoded afterward. How much XML is held before
+ * it's written out, and whether the destination is itself flushed each
+ * time, can be configured.
+ *
+ * <h3> Tags </h3>
+ *
+ * A key that isn't a legal XML name is made into one (see
+ * <tt>TagCache</tt>). That, and making its tags, as text and as bytes, is
+ * done once per distinct key rather than each time one is put out.
+ *
+ * <h3> Values </h3>
+ *
+ * <tt>&amp;</tt>, <tt>&lt;</tt> and <tt>&gt;</tt> in a value are put out
+ * as <tt>&amp;amp;</tt>, <tt>&amp;lt;</tt> and <tt>&amp;gt;</tt>. Optionally,
+ * a value dense with them is put out instead as a CDATA section, whenever
+ * that takes less room than escaping it would.
+ *
+ * <h3> Records </h3>
+ *
+ * Documents such as logs are mostly records of a few shapes: the same
+ * keys in the same order, with simple values. When an object that's an
+ * array member or a whole document has the same shape as the one before
+ * it, the shape is compiled (see <tt>RecordTemplate</tt>) and each object
+ * of that shape thereafter is put out by copying its tags and indentation
+ * whole around its escaped values. Any that isn't of a shape compiled is
+ * generated as usual. This can be turned off.
+ *
+ * <h3> Parallel generation </h3>
+ *
+ * Given a <tt>ForkJoinPool</tt>, <tt>generate()</tt> renders the large
+ * subtrees of a large document on their own, each into a buffer of its
+ * own, indented as deep as it lies, and joins the buffers in document
+ * order. Subtrees smaller than a threshold, which can be tuned, are
+ * rendered one after another in runs about that size, as a task for each
+ * would cost more than it saved. The XML comes out the same.
+ *
  * @author Russell Bateman
  * @since December 2014
  */
 public class XmlGenerator
 {
+  /**
+   * How many characters of XML are held before they're written out unless
+   * set otherwise.
+   */
+  public static final int DEFAULT_FLUSH_THRESHOLD = 8 * 1024;
+
+  /**
+   * How long a value must be, in the content, to be put out a piece at a
+   * time when transcoding unless set otherwise.
+   */
+  public static final int DEFAULT_LARGE_VALUE_THRESHOLD = 64 * 1024;
+
+  private static final int PIECE_SIZE = 8 * 1024;  // of a large value, put out at a time
+
+  private static final String REPLACEMENT = "\uFFFD";  // (for characters XML doesn't allow)
+
+  /**
+   * How many values a subtree must hold to be rendered on its own when
+   * generating in parallel unless set otherwise.
+   */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 4 * 1024;
+
+  private static final int MAX_TEMPLATES   = 4;   // (record shapes, such as a log's events, compiled at once)
+  private static final int TEMPLATE_MISSES = 16;  // (after that many, a record's shape is looked at only so often)
+
+  private static final int MAX_SPLIT_DEPTH = 64;  // (below which subtrees aren't split, to keep the stack short)
+
   private String  rootName;
   private String  xmlDeclaration = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
   private String  dtd;
   private String  docType;
   private StringBuilder xml;
+  private Writer  out;            // (when transcoding or streaming characters)
+  private OutputStream        stream;   // (when streaming bytes: either this...)
+  private WritableByteChannel channel;  // (...or this)
+  private int     flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+  private boolean flushDestination;     // (each time XML is written out to it)
+  private Utf8Buffer utf8;              // (when writing bytes, what's generated instead of xml)
+  private Utf8Buffer bytes;             // (kept from one document to the next)
+  private TagCache   tags = new TagCache();
+  private boolean    adaptiveCdata;     // (values that escaping would lengthen more as CDATA sections)
+  private int        largeValueThreshold = DEFAULT_LARGE_VALUE_THRESHOLD;
+  private StringBuilder piece;          // (of a large value being put out)
+  private boolean    templates = true;  // (records of a recurring shape compiled)
+  private RecordTemplate[] compiled = new RecordTemplate[ MAX_TEMPLATES ];  // (of the shapes of the records lately)
+  private int        oldest;            // (of those compiled, the next to go)
+  private RecordTemplate lastShape;     // (of the last record not of any of those)
+  private int        misses;            // (records since a template was last compiled not put out from one)
 
   private PrettyPrinter prettyPrinter = new PrettyPrinter();
+  private Level[]       levels        = new Level[ 16 ];  // what generateKeyValuePair() is in the middle of
+  private ForkJoinPool  pool;                             // (when generating in parallel)
+  private int           parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
 
   public XmlGenerator() { }
 
@@ -91,6 +211,66 @@ public class XmlGenerator
     prettyPrinter.indentWidth = indentWidth;
   }
 
+  /**
+   * Generate in parallel from now on.
+   *
+   * @param pool to generate in or null to generate on the calling thread,
+   *          which is the default.
+   * @param threshold how many values, counting those of objects and
+   *          arrays within, a subtree must hold to be rendered on its own.
+   */
+  public void configureParallelism( ForkJoinPool pool, int threshold )
+  {
+    this.pool              = pool;
+    this.parallelThreshold = threshold;
+  }
+
+  /**
+   * Say when XML generated straight out to a destination is written out.
+   *
+   * @param threshold how many characters (or bytes, if writing bytes) are
+   *          held before they're written out.
+   * @param flushDestination whether to flush the destination too each time,
+   *          so that whoever reads it gets the XML as soon as possible,
+   *          rather than only writing to it. It's not done by default.
+   */
+  public void configureFlushing( int threshold, boolean flushDestination )
+  {
+    this.flushThreshold   = threshold;
+    this.flushDestination = flushDestination;
+  }
+
+  /**
+   * Put out each value that escaping would lengthen more than making it a
+   * CDATA section would as a CDATA section. It's not done by default.
+   */
+  public void setAdaptiveCdata( boolean adaptiveCdata )
+  {
+    this.adaptiveCdata = adaptiveCdata;
+  }
+
+  /**
+   * @param threshold how long a value must be, in characters (or bytes, if
+   *          the content is UTF-8), to be put out a piece at a time when
+   *          transcoding.
+   */
+  public void setLargeValueThreshold( int threshold )
+  {
+    this.largeValueThreshold = threshold;
+  }
+
+  /**
+   * Put out records of a recurring shape from templates compiled for it.
+   * It's done by default; the XML is the same either way.
+   */
+  public void setRecordTemplates( boolean templates )
+  {
+    this.templates = templates;
+    Arrays.fill( compiled, null );
+    this.lastShape = null;
+    this.misses    = 0;
+  }
+
   /**
    * Generates the XML based on the parsed JSON document. We replace
    * whatever string buffer may have been used before as this is a
@@ -101,9 +281,14 @@ public class XmlGenerator
    */
   public String generate( Element root )
   {
-    xml = new StringBuilder();
+    xml     = new StringBuilder();
+    utf8    = null;
+    out     = null;   // (in case something written out broke off)
+    stream  = null;
+    channel = null;
 
     prettyPrinter.injectXmlStringBuilder( xml );
+    prettyPrinter.injectUtf8Buffer( null );
     prettyPrinter.reallocateTab();
 
     handleHeaders();
@@ -111,25 +296,74 @@ public class XmlGenerator
     if( !isEmpty( rootName ) )
     {
       newline();
-      xml.append( "<" + rootName + ">" );
+      issueOpeningTag( rootName );
       prettyPrinter.currentTabLevel++;
     }
 
     if( root != null && root.size() > 0 )
     {
-      generateElement( root );
+      if( pool != null )
+        xml.append( pool.invoke( new Render( new Items( root ), prettyPrinter.currentTabLevel, 0 ) ) );
+      else
+        generateElement( root );
     }
 
     if( !isEmpty( rootName ) )
     {
       newline();
-      xml.append( "</" + rootName + ">" );
+      issueClosingTag( rootName );
       prettyPrinter.currentTabLevel--;
     }
 
     return xml.toString();
   }
 
+  /**
+   * Generates the XML based on the parsed JSON document straight out, a few
+   * kilobytes at a time, rather than into a string. Generation is on the
+   * calling thread even if configured to be parallel.
+   *
+   * @param root as returned from <tt>JsonParser.parse()</tt>.
+   * @param out receives the XML; it's written to but neither flushed, unless
+   *          so configured, nor closed.
+   */
+  public void generate( Element root, Writer out ) throws IOException
+  {
+    begin( out );
+    generatePairs( root );
+  }
+
+  /**
+   * Like <tt>generate( Element, Writer )</tt>, but encoding the XML as
+   * UTF-8.
+   */
+  public void generate( Element root, OutputStream out ) throws IOException
+  {
+    begin( out );
+    generatePairs( root );
+  }
+
+  /**
+   * Like <tt>generate( Element, Writer )</tt>, but encoding the XML as
+   * UTF-8.
+   */
+  public void generate( Element root, WritableByteChannel out ) throws IOException
+  {
+    begin( out );
+    generatePairs( root );
+  }
+
+  private void generatePairs( Element root ) throws IOException
+  {
+    if( root != null && !generateFromTemplate( root ) )
+    {
+      for( int pair = 0; pair < root.size(); pair++ )
+        generatePair( root.getKey( pair ), root.getValue( pair ) );
+    }
+
+    end();
+  }
+
   /**
    * Generate XML from the intermediate <tt>Element</tt>s, <tt>Key</tt>s and
    * <tt>Value</tt>s.
@@ -138,51 +372,744 @@ public class XmlGenerator
    */
   public void generateElement( Element root )
   {
-    for( Map.Entry< Key, Value > element : root.getKeyValuePairs().entrySet() )
+    if( generateFromTemplate( root ) )
+      return;
+
+    for( int pair = 0; pair < root.size(); pair++ )
+      generateKeyValuePair( root.getKey( pair ), root.getValue( pair ) );
+  }
+
+  /**
+   * Rather than calling itself for each element or array within, which a
+   * deep enough document would run out of stack doing, this keeps its own
+   * stack of those it's in the middle of.
+   */
+  private void generateKeyValuePair( Key pairKey, Value value )
+  {
+    int depth = 0;    // levels in use
+
+    while( true )
     {
-      String key = element.getKey().getKey();
+      if( value != null )
+      {
+        /* An array's members each get the array's tag.
+         */
+        if( value.isArray() )
+        {
+          push( depth++ ).array( pairKey, value );
+        }
+        else
+        {
+          String key  = pairKey.getKey();
+          int    mark = length();
+
+          newlineAndIndent();
+          issueOpeningTag( key );
+
+          /* If the value is a simple one, just put out the closing tag.
+           */
+          if( value.getValue() != null )
+          {
+            issueElementContent( value.getValue(), value.mayHoldIllegalXml() );
+            issueClosingTag( key );
+
+            if( ( out != null || utf8 != null ) && length() >= flushThreshold )
+              flushWithin( depth );
+          }
+          else
+          {
+            /* If the value is a complex (hierarchical) entity, descend into
+             * it, bumping the indentation level, unless, being an array
+             * member, it's a record that can be put out from a template.
+             */
+            boolean member = depth > 0 && levels[ depth-1 ].array != null;
 
-      newlineAndIndent();
-      issueOpeningTag( key );
+            prettyPrinter.currentTabLevel++;
 
-      Value value = element.getValue();
+            if( member && generateFromTemplate( value.getElement() ) )
+            {
+              prettyPrinter.currentTabLevel--;
+              newlineAndIndent();
+              issueClosingTag( key );
 
-      /* If the value is a simple one, just put out the closing tag.
-       */
-      if( value.getValue() != null )
+              if( ( out != null || utf8 != null ) && length() >= flushThreshold )
+                flushWithin( depth );
+            }
+            else
+            {
+              push( depth++ ).element( pairKey, value.getElement(), mark, length() );
+            }
+          }
+        }
+
+        value = null;
+      }
+
+      if( depth == 0 )
+        return;
+
+      Level level = levels[ depth-1 ];
+
+      if( level.next < level.size )
       {
-        issueElementContent( value.getValue() );
+        if( level.array != null )
+        {
+          pairKey = level.key;
+          value   = level.array.getMember( level.next++ );
+        }
+        else
+        {
+          pairKey = level.element.getKey( level.next );
+          value   = level.element.getValue( level.next++ );
+        }
+        continue;
       }
-      else // if( value.getElement() != null && value.getElement().size() > 0 )
+
+      depth--;
+
+      if( level.element != null )
       {
-        /* If the value is a complex (hierarchical) entity, call ourselves
-         * recursively, bumping the indentation level.
+        prettyPrinter.currentTabLevel--;
+
+        /* One that put out nothing, which only a lazily parsed one can, is
+         * taken back out altogether, as parse() would have dropped it.
          */
-        Element descend = value.getElement();
+        if( length() == level.opened )
+        {
+          setLength( level.mark );
+        }
+        else
+        {
+          newlineAndIndent();
+          issueClosingTag( level.key.getKey() );
+        }
+      }
 
-        prettyPrinter.currentTabLevel++;
-        generateElement( descend );
-        prettyPrinter.currentTabLevel--;
-        newlineAndIndent();
+      level.clear();
+    }
+  }
+
+  /**
+   * Put out the pairs of <tt>record</tt> from the template of its shape, if
+   * it has one of the shapes of the records lately. A template is compiled
+   * the second time in a row a shape is seen, replacing the one compiled
+   * longest ago if there are already as many as are kept. After many
+   * records whose shapes don't recur, only one now and then is looked at,
+   * as working out each one's shape costs more than it would ever save.
+   *
+   * @return whether it was put out; if not, nothing was.
+   */
+  private boolean generateFromTemplate( Element record )
+  {
+    if( !templates )
+      return false;
+
+    boolean pretty   = prettyPrinter.enabled;
+    String  tab      = prettyPrinter.tab;
+    int     tabLevel = prettyPrinter.currentTabLevel;
+
+    RecordTemplate template = null;
+
+    for( int which = 0; which < MAX_TEMPLATES && template == null; which++ )
+    {
+      RecordTemplate candidate = compiled[ which ];
+
+      if( candidate != null && candidate.isCompiledFor( pretty, tab, tabLevel ) && candidate.gather( record ) )
+        template = candidate;
+    }
+
+    if( template == null )
+    {
+      if( lastShape == null || !lastShape.gather( record ) )
+      {
+        if( ++misses < TEMPLATE_MISSES || misses % TEMPLATE_MISSES == 0 )
+          lastShape = RecordTemplate.shapeOf( record );
+        return false;
+      }
+
+      lastShape.compile( tags, pretty, tab, tabLevel );
+      template  = compiled[ oldest ] = lastShape;
+      oldest    = ( oldest + 1 ) % MAX_TEMPLATES;
+      lastShape = null;
+      misses    = 0;
+    }
+
+    int count = template.valueCount();
+
+    for( int which = 0; which < count; which++ )
+    {
+      Value value = template.value( which );
+
+      putSegment( template, which );
+      issueElementContent( value.getValue(), value.mayHoldIllegalXml() );
+    }
+
+    putSegment( template, count );
+
+    return true;
+  }
+
+  private void putSegment( RecordTemplate template, int which )
+  {
+    if( utf8 != null )
+      utf8.append( template.segmentBytes( which ) );
+    else
+      xml.append( template.segment( which ) );
+  }
+
+  private Level push( int depth )
+  {
+    if( depth == levels.length )
+      levels = Arrays.copyOf( levels, depth * 2 );
+
+    if( levels[ depth ] == null )
+      levels[ depth ] = new Level();
+
+    return levels[ depth ];
+  }
+
+  /**
+   * Generates the XML from a document parsed onto a tape.
+   *
+   * @throws ParserBrokenException if the document has no XML equivalent
+   *          (isn't an object or has an array in an array).
+   */
+  public String generateFromTape( Tape tape ) throws ParserBrokenException
+  {
+    StringWriter out = new StringWriter();
+
+    try
+    {
+      transcode( tape.reader(), out );
+    }
+    catch( IOException e )
+    {
+      throw new UncheckedIOException( e );  // (can't happen writing to a string)
+    }
+
+    return out.toString();
+  }
+
+  /**
+   * Generates the XML while pulling the JSON document through the parser,
+   * never building an <tt>Element</tt>. An object gets its opening tag only
+   * once something is found in it, so that empty ones are left out as
+   * <tt>JsonParser.parse()</tt> leaves them out. As there, each member of
+   * an array is paired with the array's key.
+   *
+   * @param parser yet to be pulled, a <tt>JsonParser</tt> or the reader of a
+   *          <tt>Tape</tt>.
+   * @param out receives the XML; it's written to but neither flushed nor
+   *          closed.
+   * @throws ParserBrokenException if the document is ill-formed or has no
+   *          XML equivalent (isn't an object or has an array in an array).
+   */
+  public void transcode( JsonEventReader parser, Writer out ) throws ParserBrokenException, IOException
+  {
+    begin( out );
+    transcode( parser );
+  }
+
+  /**
+   * Like <tt>transcode( JsonEventReader, Writer )</tt>, but encoding the
+   * XML as UTF-8.
+   */
+  public void transcode( JsonEventReader parser, OutputStream out ) throws ParserBrokenException, IOException
+  {
+    begin( out );
+    transcode( parser );
+  }
+
+  private void transcode( JsonEventReader parser ) throws ParserBrokenException, IOException
+  {
+    String[]  tags    = new String[ 16 ];   // per object or array open: its key (null for the document)
+    boolean[] arrays  = new boolean[ 16 ];  // per object or array open: whether an array
+    int       depth   = 0;                  // how many open
+    int       opened  = 0;                  // how many of them have had their opening tag put out
+    String    key     = null;               // key awaiting its value
+    JsonEvent event;
+
+    while( ( event = parser.next() ) != null )
+    {
+      boolean array = depth > 0 && arrays[ depth-1 ];
+      String  tag;
+
+      switch( event )
+      {
+        case KEY :
+          key = parser.getText();
+          break;
+
+        case VALUE :
+          tag = ( array ) ? tags[ depth-1 ] : key;
+          key = null;
+
+          for( ; opened < depth; opened++ )
+            openTag( tags[ opened ], arrays[ opened ] );
+
+          newlineAndIndent();
+          issueOpeningTag( tag );
+
+          Token token = parser.getToken();
+
+          if( token != null && token.length() > largeValueThreshold )
+            issueLargeContent( token );
+          else
+            issueElementContent( parser.getText(), token == null || token.mayHoldIllegalXml() );
+
+          issueClosingTag( tag );
+          break;
+
+        case START_OBJECT :
+        case START_ARRAY :
+          if( event == JsonEvent.START_ARRAY && ( depth == 0 || array ) )
+            throw new ParserBrokenException( "Unexpected OPEN_BRACKET", parser.getOffset() );
+          if( depth > 0 && !array && key == null && event == JsonEvent.START_OBJECT )
+            throw new ParserBrokenException( "Syntax error (no key for element)", parser.getOffset() );
+
+          if( depth == tags.length )
+          {
+            tags   = Arrays.copyOf( tags, depth * 2 );
+            arrays = Arrays.copyOf( arrays, depth * 2 );
+          }
+
+          tags[ depth ]   = ( array ) ? tags[ depth-1 ] : key;
+          arrays[ depth ] = ( event == JsonEvent.START_ARRAY );
+          key = null;
+
+          // the document and arrays have no tag of their own to wait on...
+          if( opened == depth && ( depth == 0 || arrays[ depth ] ) )
+            opened++;
+          depth++;
+          break;
+
+        case END_OBJECT :
+        case END_ARRAY :
+          depth--;
+
+          if( opened > depth )
+          {
+            opened = depth;
+
+            if( depth > 0 && !arrays[ depth ] )
+            {
+              prettyPrinter.currentTabLevel--;
+              newlineAndIndent();
+              issueClosingTag( tags[ depth ] );
+            }
+          }
+          break;
       }
 
-      issueClosingTag( key );
+      if( length() >= flushThreshold )
+        flush();
+    }
+
+    end();
+  }
+
+  /**
+   * Begin generating XML to be written out as it's generated: put out the
+   * headers and root opening tag.
+   */
+  public void begin( Writer out )
+  {
+    this.out     = out;
+    this.stream  = null;
+    this.channel = null;
+    this.utf8    = null;
+    xml = new StringBuilder( flushThreshold + 1024 );
+    begin();
+  }
+
+  /**
+   * Like <tt>begin( Writer )</tt>, but encoding the XML as UTF-8.
+   */
+  public void begin( OutputStream out )
+  {
+    this.out     = null;
+    this.stream  = out;
+    this.channel = null;
+    prepareBytes();
+    begin();
+  }
+
+  /**
+   * Like <tt>begin( Writer )</tt>, but encoding the XML as UTF-8.
+   */
+  public void begin( WritableByteChannel out )
+  {
+    this.out     = null;
+    this.stream  = null;
+    this.channel = out;
+    prepareBytes();
+    begin();
+  }
+
+  private void begin()
+  {
+    prettyPrinter.injectXmlStringBuilder( xml );
+    prettyPrinter.injectUtf8Buffer( utf8 );
+    prettyPrinter.reallocateTab();
+
+    handleHeaders();
+
+    if( !isEmpty( rootName ) )
+    {
+      newline();
+      issueOpeningTag( rootName );
+      prettyPrinter.currentTabLevel++;
+    }
+  }
+
+  /**
+   * Generate the XML for one more key-value pair of the document begun.
+   */
+  public void generatePair( Key key, Value value ) throws IOException
+  {
+    try
+    {
+      generateKeyValuePair( key, value );
+    }
+    catch( UncheckedIOException e )
+    {
+      throw e.getCause();
+    }
+
+    if( length() >= flushThreshold )
+      flush();
+  }
+
+  /**
+   * Put out the root closing tag and write out what's left.
+   */
+  public void end() throws IOException
+  {
+    if( !isEmpty( rootName ) )
+    {
+      newline();
+      issueClosingTag( rootName );
+      prettyPrinter.currentTabLevel--;
+    }
+
+    flush();
+
+    out     = null;
+    stream  = null;
+    channel = null;
+  }
+
+  /**
+   * Put out a long value a piece at a time, each decoded from where it lies
+   * in the content, escaped and, if there's enough held, written out.
+   */
+  private void issueLargeContent( Token token ) throws IOException
+  {
+    boolean suspect = token.mayHoldIllegalXml();
+
+    if( piece == null )
+      piece = new StringBuilder( PIECE_SIZE + 16 );
+
+    for( int from = 0; from < token.length(); )
+    {
+      piece.setLength( 0 );
+      from = token.decodePiece( from, PIECE_SIZE, piece );
+      issueElementContent( piece.toString(), suspect );
+
+      if( length() >= flushThreshold )
+        flush();
+    }
+  }
+
+  private void openTag( String tag, boolean array )
+  {
+    if( array || tag == null )
+      return;
+
+    newlineAndIndent();
+    issueOpeningTag( tag );
+    prettyPrinter.currentTabLevel++;
+  }
+
+  private void flush() throws IOException
+  {
+    if( out != null )
+    {
+      out.append( xml );
+      xml.setLength( 0 );
+    }
+    else
+    {
+      if( stream != null )
+        utf8.writeTo( stream );
+      else
+        utf8.writeTo( channel );
+
+      utf8.setLength( 0 );
+    }
+
+    if( flushDestination )
+    {
+      if( out != null )
+        out.flush();
+      else if( stream != null )
+        stream.flush();
+    }
+  }
+
+  /**
+   * Write out what's been generated in the middle of a pair. It follows a
+   * value just put out, so none of the elements open can turn out empty and
+   * need taking back out: where they were opened is forgotten.
+   */
+  private void flushWithin( int depth )
+  {
+    for( int level = 0; level < depth; level++ )
+      levels[ level ].opened = -1;
+
+    try
+    {
+      flush();
+    }
+    catch( IOException e )
+    {
+      throw new UncheckedIOException( e );
     }
   }
 
+  private void prepareBytes()
+  {
+    if( bytes == null )
+      bytes = new Utf8Buffer( flushThreshold + 1024 );
+
+    xml  = null;
+    utf8 = bytes;
+    utf8.setLength( 0 );
+  }
+
+  /**
+   * How much has been generated: characters or, if writing bytes, bytes.
+   */
+  private int length() { return ( utf8 != null ) ? utf8.length() : xml.length(); }
+
+  private void setLength( int length )
+  {
+    if( utf8 != null )
+      utf8.setLength( length );
+    else
+      xml.setLength( length );
+  }
+
+  private void put( String text )
+  {
+    if( utf8 != null )
+      utf8.append( text );
+    else
+      xml.append( text );
+  }
+
+  private void put( String text, int from, int to )
+  {
+    if( utf8 != null )
+      utf8.append( text, from, to );
+    else
+      xml.append( text, from, to );
+  }
+
   public void issueOpeningTag( String tag )
   {
-    xml.append( "<" + tag + ">" );
+    TagCache.Tag cached = tags.get( tag );
+
+    if( utf8 != null )
+      utf8.append( cached.openingBytes );
+    else
+      xml.append( cached.opening );
   }
 
   public void issueClosingTag( String tag )
   {
-    xml.append( "</" + tag + ">" );
+    TagCache.Tag cached = tags.get( tag );
+
+    if( utf8 != null )
+      utf8.append( cached.closingBytes );
+    else
+      xml.append( cached.closing );
   }
 
+  /**
+   * Put out a value, escaped. The few characters to escape are looked for
+   * with <tt>String.indexOf()</tt>, which looks at many characters at once,
+   * rather than one character at a time, and what's between them is copied
+   * in one go; most values have none and are copied whole.
+   * <p />
+   * Characters XML doesn't allow at all, even escaped (control characters
+   * other than tab, line feed and carriage return, U+FFFE and U+FFFF), are
+   * put out as U+FFFD, the replacement character, CDATA or not.
+   */
   public void issueElementContent( String content )
   {
-    xml.append( content );
+    issueElementContent( content, true );
+  }
+
+  /**
+   * Same as <tt>issueElementContent( String )</tt>, but only looking for
+   * characters XML doesn't allow if <tt>suspect</tt>. That can only be done
+   * one character at a time, which costs several times what the rest does,
+   * so it's found out once, when the value is parsed, rather than each time
+   * it's generated (see <tt>Token.mayHoldIllegalXml()</tt>).
+   */
+  private void issueElementContent( String content, boolean suspect )
+  {
+    int amp     = content.indexOf( '&' );
+    int lt      = content.indexOf( '<' );
+    int gt      = content.indexOf( '>' );
+    int illegal = ( suspect ) ? indexOfIllegal( content, 0 ) : -1;
+
+    if( ( amp & lt & gt & illegal ) < 0 )   // (none of them)
+    {
+      put( content );
+      return;
+    }
+
+    if( adaptiveCdata && ( amp & lt & gt ) >= 0 && isShorterAsCdata( content, amp, lt, gt ) )
+    {
+      putCdata( content, illegal );
+      return;
+    }
+
+    int from = 0;
+    int next;
+
+    while( ( next = earliest( earliest( amp, illegal ), earliest( lt, gt ) ) ) >= 0 )
+    {
+      put( content, from, next );
+
+      switch( content.charAt( next ) )
+      {
+        case '&' : put( "&amp;" );     amp     = content.indexOf( '&', next+1 );   break;
+        case '<' : put( "&lt;" );      lt      = content.indexOf( '<', next+1 );   break;
+        case '>' : put( "&gt;" );      gt      = content.indexOf( '>', next+1 );   break;
+        default  : put( REPLACEMENT ); illegal = indexOfIllegal( content, next+1 ); break;
+      }
+
+      from = next+1;
+    }
+
+    put( content, from, content.length() );
+  }
+
+  /**
+   * @return the offset of the first character at or after <tt>from</tt>
+   *          that XML doesn't allow, or -1 if there's none. No library
+   *          method looks for a range of characters, so this looks at one at
+   *          a time.
+   */
+  private static int indexOfIllegal( String content, int from )
+  {
+    int length = content.length();
+
+    for( int pos = from; pos < length; pos++ )
+    {
+      char character = content.charAt( pos );
+
+      if( character < ' ' )
+      {
+        if( character != '\t' && character != '\n' && character != '\r' )
+          return pos;
+      }
+      else if( character >= '\uFFFE' )
+      {
+        return pos;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * @return the earlier of two offsets, -1 (not found) only if both are.
+   */
+  private static int earliest( int offset, int other )
+  {
+    return ( Integer.compareUnsigned( offset, other ) < 0 ) ? offset : other;
+  }
+
+  /**
+   * A CDATA section adds 12 characters, and 12 more for each <tt>]]&gt;</tt>
+   * within, which must be split across two sections. Escaping adds 4 for each
+   * <tt>&amp;</tt> and 3 for each <tt>&lt;</tt> or <tt>&gt;</tt>: they're
+   * counted only until that's more.
+   */
+  private static boolean isShorterAsCdata( String content, int amp, int lt, int gt )
+  {
+    int cdata    = 12;
+    int escaping = 0;
+
+    for( int at = content.indexOf( "]]>" ); at >= 0; at = content.indexOf( "]]>", at+3 ) )
+      cdata += 12;
+
+    for( ; amp >= 0; amp = content.indexOf( '&', amp+1 ) )
+    {
+      if( ( escaping += 4 ) > cdata )
+        return true;
+    }
+
+    for( ; lt >= 0; lt = content.indexOf( '<', lt+1 ) )
+    {
+      if( ( escaping += 3 ) > cdata )
+        return true;
+    }
+
+    for( ; gt >= 0; gt = content.indexOf( '>', gt+1 ) )
+    {
+      if( ( escaping += 3 ) > cdata )
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * @param illegal offset of the first character XML doesn't allow, or -1.
+   */
+  private void putCdata( String content, int illegal )
+  {
+    int from = 0;
+
+    put( "<![CDATA[" );
+
+    for( int at = content.indexOf( "]]>" ); at >= 0; at = content.indexOf( "]]>", at+3 ) )
+    {
+      illegal = putLegal( content, from, at+2, illegal );   // (the "]]" ends this section, the ">" begins the next)
+      put( "]]><![CDATA[" );
+      from = at+2;
+    }
+
+    putLegal( content, from, content.length(), illegal );
+    put( "]]>" );
+  }
+
+  /**
+   * Put out part of a value as it is, but for the characters XML doesn't
+   * allow.
+   *
+   * @param illegal offset of the first such character at or after
+   *          <tt>from</tt>, or -1.
+   * @return the offset of the first one at or after <tt>to</tt>, or -1.
+   */
+  private int putLegal( String content, int from, int to, int illegal )
+  {
+    while( illegal >= 0 && illegal < to )
+    {
+      put( content, from, illegal );
+      put( REPLACEMENT );
+      from    = illegal+1;
+      illegal = indexOfIllegal( content, from );
+    }
+
+    put( content, from, to );
+
+    return illegal;
   }
 
   private void handleHeaders()
@@ -192,7 +1119,7 @@ public class XmlGenerator
     if( !isEmpty( xmlDeclaration) )
     {
       newlineNeeded = true;
-      xml.append( xmlDeclaration );
+      put( xmlDeclaration );
     }
 
     if( !isEmpty( dtd ) )
@@ -201,7 +1128,7 @@ public class XmlGenerator
         newline();
 
       newlineNeeded = true;
-      xml.append( dtd );
+      put( dtd );
     }
 
     if( !isEmpty( docType ) )
@@ -210,7 +1137,7 @@ public class XmlGenerator
         newline();
 
       newlineNeeded = true;
-      xml.append( docType );
+      put( docType );
     }
   }
 
@@ -231,6 +1158,275 @@ public class XmlGenerator
   private boolean isEmpty( String string ) { return( string == null || string.length() < 1 ); }
 
   // =================================================================
+  /**
+   * @return a generator like this one, with a buffer of its own, to render
+   *          a part of the document as deep as <tt>tabLevel</tt>.
+   */
+  private XmlGenerator part( int tabLevel )
+  {
+    XmlGenerator part = new XmlGenerator();
+
+    part.xml = new StringBuilder();
+    part.adaptiveCdata = adaptiveCdata;
+    part.templates     = templates;
+    part.prettyPrinter.enabled         = prettyPrinter.enabled;
+    part.prettyPrinter.indentWidth     = prettyPrinter.indentWidth;
+    part.prettyPrinter.tab             = prettyPrinter.tab;
+    part.prettyPrinter.currentTabLevel = tabLevel;
+    part.prettyPrinter.injectXmlStringBuilder( part.xml );
+
+    return part;
+  }
+
+  /**
+   * @return how many values there are in <tt>value</tt>, counting it and
+   *          those of the objects and arrays within, up to <tt>cap</tt>:
+   *          counting stops there, so that weighing is never worth more
+   *          than rendering that many values.
+   */
+  private static int weigh( Value value, int cap )
+  {
+    Deque< Value > pending = new ArrayDeque<>();
+    int            weight  = 0;
+
+    pending.push( value );
+
+    while( !pending.isEmpty() )
+    {
+      Value next = pending.pop();
+
+      if( ++weight + pending.size() >= cap )
+        return cap;
+
+      if( next.isArray() )
+      {
+        for( int member = 0; member < next.size() && weight + pending.size() < cap; member++ )
+          pending.push( next.getMember( member ) );
+      }
+      else if( next.getValue() == null && next.getElement() != null )
+      {
+        Element element = next.getElement();
+
+        for( int pair = 0; pair < element.size() && weight + pending.size() < cap; pair++ )
+          pending.push( element.getValue( pair ) );
+      }
+    }
+
+    return weight;
+  }
+
+  /**
+   * The pairs of an element or the members of an array, each paired with
+   * the array's key, which is what they're rendered as.
+   */
+  private static class Items
+  {
+    final Element element;
+    final Value   array;
+    final Key     arrayKey;
+
+    Items( Element element )
+    {
+      this.element  = element;
+      this.array    = null;
+      this.arrayKey = null;
+    }
+
+    Items( Key key, Value array )
+    {
+      this.element  = null;
+      this.array    = array;
+      this.arrayKey = key;
+    }
+
+    int size() { return ( element != null ) ? element.size() : array.size(); }
+    Key key( int item ) { return ( element != null ) ? element.getKey( item ) : arrayKey; }
+    Value value( int item ) { return ( element != null ) ? element.getValue( item ) : array.getMember( item ); }
+  }
+
+  /**
+   * Render the items of an element or array, as deep as <tt>tabLevel</tt>:
+   * each large object or array in its own task, the rest in runs, in a
+   * task per run, and join what they render in order.
+   */
+  private class Render extends RecursiveTask< StringBuilder >
+  {
+    private final Items items;
+    private final int   tabLevel;
+    private final int   depth;    // how many subtrees this is within
+
+    Render( Items items, int tabLevel, int depth )
+    {
+      this.items    = items;
+      this.tabLevel = tabLevel;
+      this.depth    = depth;
+    }
+
+    @Override
+    protected StringBuilder compute()
+    {
+      List< RecursiveTask< StringBuilder > > parts = new ArrayList<>();
+      int run = 0, weight = 0;  // beginning of the run of small items and their weight
+
+      for( int item = 0; item < items.size(); item++ )
+      {
+        Value   value  = items.value( item );
+        boolean scalar = value.getValue() != null;
+        int     heft   = ( scalar ) ? 1 : weigh( value, parallelThreshold );
+
+        if( !scalar && heft >= parallelThreshold && depth < MAX_SPLIT_DEPTH )
+        {
+          if( run < item )
+            parts.add( new RenderRun( items, run, item, tabLevel ) );
+
+          parts.add( new RenderSubtree( items.key( item ), value, tabLevel, depth+1 ) );
+          run    = item+1;
+          weight = 0;
+        }
+        else if( ( weight += heft ) >= parallelThreshold )
+        {
+          parts.add( new RenderRun( items, run, item+1, tabLevel ) );
+          run    = item+1;
+          weight = 0;
+        }
+      }
+
+      if( run < items.size() )
+        parts.add( new RenderRun( items, run, items.size(), tabLevel ) );
+
+      if( parts.size() == 1 )
+        return parts.get( 0 ).invoke();
+
+      int length = 0;
+
+      for( RecursiveTask< StringBuilder > part : invokeAll( parts ) )
+        length += part.join().length();
+
+      // (sized once: the parts can add up to all of a huge document)
+      StringBuilder xml = new StringBuilder( length );
+
+      for( RecursiveTask< StringBuilder > part : parts )
+        xml.append( part.join() );
+
+      return xml;
+    }
+  }
+
+  /**
+   * Render a run of small items one after another.
+   */
+  private class RenderRun extends RecursiveTask< StringBuilder >
+  {
+    private final Items items;
+    private final int   from, to, tabLevel;
+
+    RenderRun( Items items, int from, int to, int tabLevel )
+    {
+      this.items    = items;
+      this.from     = from;
+      this.to       = to;
+      this.tabLevel = tabLevel;
+    }
+
+    @Override
+    protected StringBuilder compute()
+    {
+      XmlGenerator part = part( tabLevel );
+
+      for( int item = from; item < to; item++ )
+        part.generateKeyValuePair( items.key( item ), items.value( item ) );
+
+      return part.xml;
+    }
+  }
+
+  /**
+   * Render a large object or array: an array's members are items at this
+   * depth; an object's pairs are items one deeper, between its tags, which
+   * are left out should it render nothing.
+   */
+  private class RenderSubtree extends RecursiveTask< StringBuilder >
+  {
+    private final Key   key;
+    private final Value value;
+    private final int   tabLevel;
+    private final int   depth;
+
+    RenderSubtree( Key key, Value value, int tabLevel, int depth )
+    {
+      this.key      = key;
+      this.value    = value;
+      this.tabLevel = tabLevel;
+      this.depth    = depth;
+    }
+
+    @Override
+    protected StringBuilder compute()
+    {
+      if( value.isArray() )
+        return new Render( new Items( key, value ), tabLevel, depth ).invoke();
+
+      StringBuilder within = new Render( new Items( value.getElement() ), tabLevel+1, depth ).invoke();
+
+      if( within.length() == 0 )
+        return within;
+
+      XmlGenerator part = part( tabLevel );
+
+      part.newlineAndIndent();
+      part.issueOpeningTag( key.getKey() );
+      part.xml.append( within );
+      part.newlineAndIndent();
+      part.issueClosingTag( key.getKey() );
+
+      return part.xml;
+    }
+  }
+
+  /**
+   * An element or array being generated from and how far along it that's
+   * got. For an element, also where its opening tag and what's within it
+   * began in the XML, in case there turns out to be nothing within it.
+   */
+  private static class Level
+  {
+    Key     key;
+    Element element;
+    Value   array;
+    int     size;       // pairs or members
+    int     next;       // the next of them to generate
+    int     mark;
+    int     opened;
+
+    void element( Key key, Element element, int mark, int opened )
+    {
+      this.key     = key;
+      this.element = element;
+      this.size    = element.size();
+      this.next    = 0;
+      this.mark    = mark;
+      this.opened  = opened;
+    }
+
+    void array( Key key, Value array )
+    {
+      this.key   = key;
+      this.array = array;
+      this.size  = array.size();
+      this.next  = 0;
+    }
+
+    /**
+     * Let go of what's been generated from.
+     */
+    void clear()
+    {
+      key     = null;
+      element = null;
+      array   = null;
+    }
+  }
+
   /**
    * Manage pretty printing for XML generator output. By default,
    * the service is turned off. Allows for making the leftmost margin
@@ -257,6 +1453,7 @@ public class XmlGenerator
     public boolean showTabs        = false;// (for debugging)
 
     public StringBuilder xml;
+    public Utf8Buffer    utf8;         // (instead of xml when writing bytes)
 
     protected PrettyPrinter() { }
 
@@ -265,6 +1462,11 @@ public class XmlGenerator
       this.xml = sb;
     }
 
+    protected void injectUtf8Buffer( Utf8Buffer buffer )
+    {
+      this.utf8 = buffer;
+    }
+
     protected void reallocateTab()
     {
       char character = ( showTabs ) ? VISIBLE_TAB : SPACE;
@@ -278,13 +1480,21 @@ public class XmlGenerator
 
     protected void nl()
     {
-      xml.append( '\n' );
+      if( utf8 != null )
+        utf8.append( '\n' );
+      else
+        xml.append( '\n' );
     }
 
     protected void tab()
     {
       for( int indent = 0; indent < currentTabLevel; indent++ )
-        xml.append( tab );
+      {
+        if( utf8 != null )
+          utf8.append( tab );
+        else
+          xml.append( tab );
+      }
     }
 
     protected void newline()
@@ -322,7 +1532,7 @@ public class XmlGenerator
       sb.append( "\n  currentTabLevel = " + currentTabLevel );
       sb.append( "\n  indentWidth = " + indentWidth );
       sb.append( "\n  tab = " + tab );
-      sb.append( "\n  xml = " + xml.toString() );
+      sb.append( "\n  xml = " + ( ( xml != null ) ? xml.toString() : utf8.length() + " bytes" ) );
 
       return sb.append( "\n}" ).toString();
     }
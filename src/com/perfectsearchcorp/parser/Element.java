@@ -16,16 +16,36 @@
  */
 package com.perfectsearchcorp.parser;
 
-import java.util.HashMap;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 /**
+ * An object's key-value pairs, kept in the order they were added in two
+ * parallel arrays rather than in a map, which cost a node per pair and
+ * gave them back in no particular order, making the XML come out in some
+ * other order than the JSON. An array is a single pair whose value holds
+ * its members.
+ * <p />
+ * A value may be looked up by key. For small elements, that's a look
+ * through the keys; once an element has grown larger, an index is built
+ * the first time it's needed and kept up to date after that.
+ *
  * @author Russell Bateman
  * @since December 2014
  */
 public class Element
 {
-  private Map< Key, Value > key_value_pairs = new HashMap<>();
+  private static final Key[]   NO_KEYS         = new Key[ 0 ];
+  private static final Value[] NO_VALUES       = new Value[ 0 ];
+  private static final int     INDEX_THRESHOLD = 16;  // pairs before looking up by index is worth it
+
+  private Key[]   keys   = NO_KEYS;
+  private Value[] values = NO_VALUES;
+  private int     size;
+  private int[]   index;  // open-addressed by key hash: offset+1 of each key's first pair, 0 if empty
 
   public Element() { }
 
@@ -34,36 +54,113 @@ public class Element
     this.addKeyValuePair( key, value );
   }
 
-  public Map< Key, Value > getKeyValuePairs() { return key_value_pairs; }
+  /**
+   * @return the pairs in the order added. The list is a view onto the
+   *          element and can't be changed through it.
+   */
+  public List< Map.Entry< Key, Value > > getKeyValuePairs()
+  {
+    return new AbstractList< Map.Entry< Key, Value > >()
+    {
+      @Override
+      public Map.Entry< Key, Value > get( int pair )
+      {
+        return new AbstractMap.SimpleImmutableEntry<>( getKey( pair ), getValue( pair ) );
+      }
+
+      @Override
+      public int size() { return size; }
+    };
+  }
+
+  public Key getKey( int pair )
+  {
+    checkPair( pair );
+    return keys[ pair ];
+  }
+
+  public Value getValue( int pair )
+  {
+    checkPair( pair );
+    return values[ pair ];
+  }
+
+  /**
+   * @return the value of the first pair with this key or null if there's
+   *          none.
+   */
+  public Value get( String key )
+  {
+    if( size < INDEX_THRESHOLD )
+    {
+      for( int pair = 0; pair < size; pair++ )
+      {
+        if( keys[ pair ] != null && equal( keys[ pair ].getKey(), key ) )
+          return values[ pair ];
+      }
+
+      return null;
+    }
+
+    if( index == null )
+      buildIndex();
+
+    int mask = index.length - 1;
+
+    for( int slot = hash( key ) & mask; index[ slot ] != 0; slot = ( slot+1 ) & mask )
+    {
+      Key candidate = keys[ index[ slot ]-1 ];
+
+      if( equal( candidate.getKey(), key ) )
+        return values[ index[ slot ]-1 ];
+    }
+
+    return null;
+  }
 
   public void addKeyValuePair( Key key, Value value )
   {
-    key_value_pairs.put( key, value );
+    if( size == keys.length )
+    {
+      int capacity = Math.max( 4, size + ( size >> 1 ) );
+
+      keys   = Arrays.copyOf( keys, capacity );
+      values = Arrays.copyOf( values, capacity );
+    }
+
+    keys[ size ]   = key;
+    values[ size ] = value;
+    size++;
+
+    if( index != null )
+    {
+      if( size * 2 > index.length )
+        buildIndex();
+      else
+        indexPair( size-1 );
+    }
   }
 
   public void addElementContents( Element element )
   {
-    for( Map.Entry< Key, Value > map : element.key_value_pairs.entrySet() )
-      this.addKeyValuePair( map.getKey(), map.getValue() );
+    for( int pair = 0; pair < element.size; pair++ )
+      this.addKeyValuePair( element.keys[ pair ], element.values[ pair ] );
   }
 
-  public int size() { return key_value_pairs.size(); }
+  public int size() { return size; }
 
   public String toString()
   {
-    if( key_value_pairs.size() > 0 )
+    if( size > 0 )
     {
       StringBuilder sb = new StringBuilder().append( "{\n" );
 
-      for( Map.Entry< Key, Value > map : this.key_value_pairs.entrySet() )
+      for( int pair = 0; pair < size; pair++ )
       {
-        Key   key   = map.getKey();
-        Value value = map.getValue();
+        Key   key   = keys[ pair ];
+        Value value = values[ pair ];
 
-        if( value.getValue() != null )
-          sb.append( "  " + key.getKey() + " : " + value.toString() );
-        else
-          sb.append( "  " + key.getKey() + " : " + value.getElement().toString() );
+        sb.append( "  " + key.getKey() + " : " + value.toString() );
       }
 
       return sb.append( "\n}" ).toString();
@@ -71,4 +168,52 @@ public class Element
 
     return "(nothing)";
   }
+
+  private void checkPair( int pair )
+  {
+    if( pair < 0 || pair >= size )
+      throw new IndexOutOfBoundsException( "Pair " + pair + " of " + size );
+  }
+
+  private void buildIndex()
+  {
+    index = new int[ Integer.highestOneBit( Math.max( size, INDEX_THRESHOLD ) * 4 - 1 ) ];
+
+    for( int pair = 0; pair < size; pair++ )
+      indexPair( pair );
+  }
+
+  /**
+   * Index the pair unless an earlier one has the same key (a key-less pair
+   * can't be looked up and isn't indexed).
+   */
+  private void indexPair( int pair )
+  {
+    if( keys[ pair ] == null )
+      return;
+
+    String key  = keys[ pair ].getKey();
+    int    mask = index.length - 1;
+    int    slot = hash( key ) & mask;
+
+    for( ; index[ slot ] != 0; slot = ( slot+1 ) & mask )
+    {
+      if( equal( keys[ index[ slot ]-1 ].getKey(), key ) )
+        return;
+    }
+
+    index[ slot ] = pair+1;
+  }
+
+  private static int hash( String key )
+  {
+    int hash = ( key != null ) ? key.hashCode() : 0;
+
+    return hash ^ ( hash >>> 16 );
+  }
+
+  private static boolean equal( String a, String b )
+  {
+    return ( a == null ) ? b == null : a.equals( b );
+  }
 }
@@ -0,0 +1,230 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.perfectsearchcorp.scanner.JsonScanner;
+import com.perfectsearchcorp.scanner.Token;
+
+/**
+ * Builds <tt>Element</tt>s out of parser events. An array becomes a single
+ * value holding its members, paired with the array's key in the element
+ * holding the array. Elements and arrays left empty aren't kept.
+ * <p />
+ * A handler, if any, is told of each pair as it's completed, each member
+ * of an array as a pair with the array's key, and of each document as it
+ * closes. An array, its members having been told of, is then added to
+ * its element without telling.
+ * <p />
+ * Objects and arrays skipped over by a lazy parse are added as values
+ * parsed only once asked for, so they aren't known yet to be empty.
+ * Objects parsed elsewhere, as by <tt>ParallelJsonParser</tt>, are added
+ * whole.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+class ElementBuilder
+{
+  private static final Value[] NO_MEMBERS = new Value[ 0 ];
+
+  private Deque< Frame > open = new ArrayDeque<>();
+  private JsonHandler    handler;
+  private int            depth;     // elements (not arrays) open
+  private Element        document;  // the last complete one
+  private boolean        arrays;    // a document may be an array
+  private Value          array;     // (the last complete one, if so)
+
+  ElementBuilder( JsonHandler handler )
+  {
+    this.handler = handler;
+  }
+
+  /**
+   * @param arrays whether a document may be an array, as is an array
+   *          parsed lazily, on its own.
+   */
+  ElementBuilder( JsonHandler handler, boolean arrays )
+  {
+    this.handler = handler;
+    this.arrays  = arrays;
+  }
+
+  /**
+   * @param event just parsed.
+   * @param token it was parsed from.
+   * @param offset where, for complaining.
+   * @throws ParserBrokenException if the document isn't an object or an
+   *          array holds an array, neither of which has an element for it.
+   */
+  void event( JsonEvent event, Token token, long offset ) throws ParserBrokenException
+  {
+    Frame top = open.peek();
+
+    switch( event )
+    {
+      case START_OBJECT :
+        depth++;
+        open.push( new Frame( new Element(), null, ( top != null ) ? top.key : null ) );
+
+        if( top != null && top.array == null )
+          top.key = null;
+        break;
+
+      case START_ARRAY :
+        if( top == null )
+        {
+          if( !arrays )
+            throw new ParserBrokenException( "Ill-formed JSON construct", offset );
+
+          open.push( new Frame( null, new Value( NO_MEMBERS ), null ) );
+          break;
+        }
+        if( top.array != null )
+          throw new ParserBrokenException( "Unexpected " + token.getType().name(), offset );
+
+        open.push( new Frame( null, new Value( NO_MEMBERS ), top.key ) );
+        top.key = null;
+        break;
+
+      case KEY :
+        top.key = new Key( token.getToken() );
+        break;
+
+      case VALUE :
+        add( top, top.key, new Value( token.getToken(), token.mayHoldIllegalXml() ) );
+        break;
+
+      case END_OBJECT :
+        open.pop();
+        depth--;
+
+        if( open.isEmpty() )
+        {
+          document = top.element;
+
+          if( handler != null )
+            handler.document( document );
+        }
+        else if( top.element.size() > 0 )
+        {
+          add( open.peek(), top.owner, new Value( top.element ) );
+        }
+        break;
+
+      case END_ARRAY :
+        open.pop();
+
+        if( open.isEmpty() )
+          array = top.array;
+        else if( top.array.size() > 0 )
+          open.peek().element.addKeyValuePair( top.owner, top.array );
+        break;
+    }
+  }
+
+  /**
+   * The key of the next pair, already made, as when predicted.
+   */
+  void key( Key key )
+  {
+    open.peek().key = key;
+  }
+
+  /**
+   * Add an object or array skipped over without being parsed.
+   *
+   * @param event that started it.
+   * @param scanner it was skipped over by, to parse it with later.
+   * @param start offset of its opening brace or bracket.
+   * @param offset where it ended, for complaining.
+   * @throws ParserBrokenException if it's an array in an array.
+   */
+  void skipped( JsonEvent event, JsonScanner scanner, int start, long offset ) throws ParserBrokenException
+  {
+    Frame   top     = open.peek();
+    boolean isArray = ( event == JsonEvent.START_ARRAY );
+
+    if( isArray && top.array != null )
+      throw new ParserBrokenException( "Unexpected OPEN_BRACKET", offset );
+
+    add( top, top.key, new Value( scanner, start, ( int ) offset, isArray ) );
+  }
+
+  /**
+   * Add an object parsed on its own, e.g.: by another thread, just as if
+   * it had been parsed in place.
+   */
+  void parsed( Element element )
+  {
+    Frame top = open.peek();
+
+    if( element.size() > 0 )
+      add( top, top.key, new Value( element ) );
+    else if( top.array == null )
+      top.key = null;
+  }
+
+  /**
+   * @return the last document completed or null if none yet.
+   */
+  Element getDocument() { return document; }
+
+  /**
+   * @return the last document completed if it was an array, else null.
+   */
+  Value getArray() { return array; }
+
+  /**
+   * Add the value to the element or array open, paired with the key
+   * awaiting it or the array's.
+   */
+  private void add( Frame frame, Key key, Value value )
+  {
+    if( frame.array == null )
+      frame.key = null;
+
+    if( handler != null && !handler.pair( depth, key, value ) )
+      return;
+
+    if( frame.array != null )
+      frame.array.addMember( value );
+    else
+      frame.element.addKeyValuePair( key, value );
+  }
+
+  /**
+   * An element or array still open.
+   */
+  private static class Frame
+  {
+    final Element element;  // (element) pairs go into this
+    final Value   array;    // (array) members go into this
+    final Key     owner;    // key it will be paired with in the element holding it
+    Key           key;      // (element) key awaiting its value; (array) the array's key
+
+    Frame( Element element, Value array, Key owner )
+    {
+      this.element = element;
+      this.array   = array;
+      this.owner   = owner;
+      this.key     = ( array != null ) ? owner : null;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import java.nio.ByteBuffer;
+
+import com.perfectsearchcorp.scanner.IllegalCharacterOutsideOfTokenException;
+import com.perfectsearchcorp.scanner.IncrementalJsonScanner;
+import com.perfectsearchcorp.scanner.NoMoreTokensException;
+import com.perfectsearchcorp.scanner.Token;
+
+/**
+ * JSON parser fed its input a chunk at a time, e.g.: as it comes off a
+ * socket, rather than all at once. It never blocks waiting for more: each
+ * <tt>feed()</tt> digests what it's given and returns, keeping where it got
+ * to, in the middle of a token if need be, for the next one.
+ * <p />
+ * It builds the same <tt>Element</tt>s as <tt>JsonParser</tt>, sharing its
+ * grammar, which keeps a stack of the objects and arrays still open rather
+ * than recursing, so it can stop anywhere and wait for more. As each
+ * key-value pair is completed, the handler is told of it, which allows,
+ * for instance, the XML for it to be generated before the rest of the
+ * input arrives. A handler that declines to keep the pairs it's told of
+ * can thereby hold the memory spent on a long document, e.g.: one big
+ * array of records, to that of one record.
+ * <p />
+ * How much of a token cut by the end of a chunk may be held onto while
+ * waiting for the rest of it can be capped, and, as for
+ * <tt>JsonParser</tt>, how deep objects and arrays may be nested.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class IncrementalJsonParser
+{
+  private IncrementalJsonScanner scanner    = new IncrementalJsonScanner();
+  private JsonGrammar            grammar    = new JsonGrammar();
+  private ElementBuilder         builder;
+  private JsonHandler            handler;
+
+  public IncrementalJsonParser()
+  {
+    this( null );
+  }
+
+  public IncrementalJsonParser( JsonHandler handler )
+  {
+    this.handler = handler;
+    this.builder = new ElementBuilder( handler );
+  }
+
+  /**
+   * Parse the next chunk of input, from its position to its limit, after
+   * which the buffer may be reused.
+   *
+   * @throws ParserBrokenException if the input so far isn't JSON or a token
+   *          cut by the end of it is longer than allowed.
+   */
+  public void feed( ByteBuffer chunk ) throws ParserBrokenException
+  {
+    scanner.feed( chunk );
+    drain();
+  }
+
+  public void feed( byte[] chunk, int offset, int length ) throws ParserBrokenException
+  {
+    feed( ByteBuffer.wrap( chunk, offset, length ) );
+  }
+
+  /**
+   * There's no more input.
+   *
+   * @throws ParserBrokenException if it stopped in the middle of a document.
+   */
+  public void finish() throws ParserBrokenException
+  {
+    scanner.finish();
+    drain();
+
+    if( grammar.getDepth() > 0 )
+      throw new ParserBrokenException( "Ill-formed JSON construct (input ended inside an element)",
+                                          scanner.getScanned() );
+  }
+
+  /**
+   * @return the last document completed or null if none yet.
+   */
+  public Element getDocument() { return builder.getDocument(); }
+
+  /**
+   * @return true if a document has been started and not yet completed.
+   */
+  public boolean isInsideDocument() { return grammar.getDepth() > 0; }
+
+  public JsonHandler getHandler() { return handler; }
+  public int getMaxPending() { return scanner.getMaxPending(); }
+  public void setMaxPending( int bytes ) { scanner.setMaxPending( bytes ); }
+  public int getMaxDepth() { return grammar.getMaxDepth(); }
+  public void setMaxDepth( int maxDepth ) { grammar.setMaxDepth( maxDepth ); }
+
+  private void drain() throws ParserBrokenException
+  {
+    try
+    {
+      Token token;
+
+      while( ( token = scanner.getNextToken() ) != null )
+      {
+        JsonEvent event = grammar.accept( token, scanner.getScanned() );
+
+        if( event != null )
+          builder.event( event, token, scanner.getScanned() );
+      }
+    }
+    catch( IllegalCharacterOutsideOfTokenException | NoMoreTokensException e )
+    {
+      throw new ParserBrokenException( e.getMessage(), scanner.getScanned(), e );
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+/**
+ * What <tt>JsonParser.next()</tt> has just come upon.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public enum JsonEvent
+{
+  START_OBJECT,     // opening brace
+  END_OBJECT,       // closing brace
+  START_ARRAY,      // opening bracket
+  END_ARRAY,        // closing bracket
+  KEY,              // key of a key-value pair
+  VALUE;            // scalar value: string, number, true, false or null
+
+  private JsonEvent() { }
+
+  public String toString()
+  {
+    return this.name();
+  }
+}
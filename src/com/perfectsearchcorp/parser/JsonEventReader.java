@@ -0,0 +1,55 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import com.perfectsearchcorp.scanner.Token;
+
+/**
+ * Anything from which a JSON document can be pulled an event at a time:
+ * <tt>JsonParser</tt> parsing it or a <tt>Tape</tt> holding it already
+ * parsed.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public interface JsonEventReader
+{
+  /**
+   * @return what comes next or null once the document has been closed.
+   * @throws ParserBrokenException if the document is ill-formed.
+   */
+  JsonEvent next() throws ParserBrokenException;
+
+  /**
+   * @return the text of the key or value just come upon, null for the
+   *          start or end of an object or array.
+   */
+  String getText();
+
+  /**
+   * @return the token of the key or value just come upon, which gives where
+   *          its text lies without copying it out, or null if there's none
+   *          (its text is already held). It's only good until the next call
+   *          to <tt>next()</tt>.
+   */
+  default Token getToken() { return null; }
+
+  /**
+   * @return how far into the document the reader has got, for complaining.
+   */
+  int getOffset();
+}
@@ -0,0 +1,257 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import java.util.Arrays;
+
+import com.perfectsearchcorp.scanner.Token;
+import com.perfectsearchcorp.scanner.TokenType;
+
+/**
+ * The one place that knows how tokens make up JSON, turning each into the
+ * event it amounts to. Rather than recursing, it keeps a stack holding,
+ * for each object or array open, which of the two it is, so that it can
+ * be fed one token at a time and needs only as much memory as the depth
+ * of nesting.
+ * <p />
+ * Commas and the colons between keys and values are skipped over, as
+ * they always have been. A document is an object or an array; another
+ * may follow once it's closed.
+ * <p />
+ * Made strict, it instead insists on each comma and colon being where
+ * JSON puts it and nowhere else, on keys being strings, on every object
+ * in an object having a key and on each key and value being strict JSON
+ * (see <tt>Token.isStrictJson()</tt>).
+ * <p />
+ * Objects and arrays may be nested no deeper than a maximum, past which
+ * the document is refused rather than let grow the stack without end.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+class JsonGrammar
+{
+  private static final byte OBJECT = 0;
+  private static final byte ARRAY  = 1;
+
+  // (strict) what may come next...
+  private static final byte KEY_OR_CLOSE   = 0;  // just inside an object
+  private static final byte KEY            = 1;  // after a comma in an object
+  private static final byte COLON          = 2;
+  private static final byte VALUE_OR_CLOSE = 3;  // just inside an array
+  private static final byte VALUE          = 4;  // after a colon or a comma in an array
+  private static final byte COMMA_OR_CLOSE = 5;  // after a value
+
+  private byte[]  open = new byte[ 32 ];  // objects and arrays open, outermost first
+  private int     depth;                  // how many
+  private boolean keyed;                  // (in an object) a key awaits its value
+  private int     maxDepth = JsonParser.DEFAULT_MAX_DEPTH;
+  private boolean strict;
+  private byte    expected;               // (strict) what may come next
+
+  /**
+   * @param token just scanned.
+   * @param offset where it was scanned, for complaining.
+   * @return the event the token amounts to or null if it's one of those
+   *          skipped over.
+   * @throws ParserBrokenException if the token is out of place.
+   */
+  JsonEvent accept( Token token, long offset ) throws ParserBrokenException
+  {
+    if( strict && depth > 0 )
+      return acceptStrictly( token, offset );
+
+    if( depth == 0 )
+    {
+      switch( token.getType() )
+      {
+        case OPEN_BRACE :   return push( OBJECT, offset );
+        case OPEN_BRACKET : return push( ARRAY, offset );
+        default :           throw broken( "Ill-formed JSON construct", offset );
+      }
+    }
+
+    if( open[ depth-1 ] == OBJECT )
+    {
+      switch( token.getType() )
+      {
+        case IDENT :
+          keyed = !keyed;
+          return ( keyed ) ? JsonEvent.KEY : JsonEvent.VALUE;
+
+        case OPEN_BRACE :   // (even without a key, as always tolerated)
+          return push( OBJECT, offset );
+
+        case OPEN_BRACKET :
+          if( !keyed )
+            throw broken( "Syntax error (no key for array)", offset );
+          return push( ARRAY, offset );
+
+        case CLOSE_BRACE :
+          return pop( JsonEvent.END_OBJECT );
+
+        case COMMA :
+        case COLON :
+          return null;
+
+        case UNKNOWN :
+          throw broken( "Unknown construct", offset );
+
+        default :
+          throw broken( "Unexpected " + token.getType().name(), offset );
+      }
+    }
+
+    switch( token.getType() )
+    {
+      case IDENT :         return JsonEvent.VALUE;
+      case OPEN_BRACE :    return push( OBJECT, offset );
+      case OPEN_BRACKET :  return push( ARRAY, offset );
+      case CLOSE_BRACKET : return pop( JsonEvent.END_ARRAY );
+      case COMMA :         return null;
+      case UNKNOWN :       throw broken( "Unknown construct", offset );
+      default :            throw broken( "Unexpected " + token.getType().name(), offset );
+    }
+  }
+
+  private JsonEvent acceptStrictly( Token token, long offset ) throws ParserBrokenException
+  {
+    TokenType type = token.getType();
+
+    switch( expected )
+    {
+      case KEY_OR_CLOSE :
+        if( type == TokenType.CLOSE_BRACE )
+          return pop( JsonEvent.END_OBJECT );
+        // fall through...
+      case KEY :
+        if( type != TokenType.IDENT || !token.isQuoted() )
+          break;
+        if( !token.isStrictJson() )
+          throw broken( "Ill-formed key", offset );
+
+        expected = COLON;
+        return JsonEvent.KEY;
+
+      case COLON :
+        if( type != TokenType.COLON )
+          break;
+
+        expected = VALUE;
+        return null;
+
+      case VALUE_OR_CLOSE :
+        if( type == TokenType.CLOSE_BRACKET )
+          return pop( JsonEvent.END_ARRAY );
+        // fall through...
+      case VALUE :
+        switch( type )
+        {
+          case IDENT :
+            if( !token.isStrictJson() )
+              throw broken( "Ill-formed value", offset );
+
+            expected = COMMA_OR_CLOSE;
+            return JsonEvent.VALUE;
+
+          case OPEN_BRACE :   return push( OBJECT, offset );
+          case OPEN_BRACKET : return push( ARRAY, offset );
+          default :           break;
+        }
+        break;
+
+      case COMMA_OR_CLOSE :
+        boolean object = ( open[ depth-1 ] == OBJECT );
+
+        if( type == TokenType.COMMA )
+        {
+          expected = ( object ) ? KEY : VALUE;
+          return null;
+        }
+        if( type == TokenType.CLOSE_BRACE && object )
+          return pop( JsonEvent.END_OBJECT );
+        if( type == TokenType.CLOSE_BRACKET && !object )
+          return pop( JsonEvent.END_ARRAY );
+        break;
+    }
+
+    throw broken( "Unexpected " + type.name(), offset );
+  }
+
+  /**
+   * The object or array just started has been skipped over to its end
+   * without its tokens being accepted.
+   *
+   * @return the event ending it.
+   */
+  JsonEvent skip()
+  {
+    return pop( ( open[ depth-1 ] == OBJECT ) ? JsonEvent.END_OBJECT : JsonEvent.END_ARRAY );
+  }
+
+  /**
+   * @return whether the next token other than a comma or colon, if it's a
+   *          string, is a key.
+   */
+  boolean isKeyNext()
+  {
+    if( depth == 0 || open[ depth-1 ] != OBJECT )
+      return false;
+
+    return ( strict ) ? expected == KEY_OR_CLOSE || expected == KEY : !keyed;
+  }
+
+  /**
+   * @return how many objects and arrays are open.
+   */
+  int getDepth() { return depth; }
+
+  boolean isStrict() { return strict; }
+  void setStrict( boolean strict ) { this.strict = strict; }
+
+  int getMaxDepth() { return maxDepth; }
+  void setMaxDepth( int maxDepth ) { this.maxDepth = maxDepth; }
+
+  private JsonEvent push( byte type, long offset ) throws ParserBrokenException
+  {
+    if( depth == maxDepth )
+      throw broken( "Nested deeper than " + maxDepth, offset );
+
+    if( depth == open.length )
+      open = Arrays.copyOf( open, depth * 2 );
+
+    open[ depth++ ] = type;
+    keyed    = false;
+    expected = ( type == OBJECT ) ? KEY_OR_CLOSE : VALUE_OR_CLOSE;
+
+    return ( type == OBJECT ) ? JsonEvent.START_OBJECT : JsonEvent.START_ARRAY;
+  }
+
+  private JsonEvent pop( JsonEvent event )
+  {
+    depth--;
+    keyed    = false;
+    expected = COMMA_OR_CLOSE;
+
+    return event;
+  }
+
+  private static ParserBrokenException broken( String message, long offset )
+  {
+    return new ParserBrokenException( message, offset );
+  }
+}
@@ -0,0 +1,49 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+/**
+ * Told by <tt>IncrementalJsonParser</tt> of what it finds as soon as it's
+ * complete, without waiting for the rest of the input.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public interface JsonHandler
+{
+  /**
+   * A key-value pair is complete: its value is either scalar or an element
+   * whose closing brace has just been seen. Members of an array come one
+   * at a time, each paired with the array's key.
+   *
+   * @param depth 1 for pairs of the document's outermost element, 2 for
+   *          those of the elements it holds, etc.
+   * @return true to have the pair added to the element under construction
+   *          as usual, false if the handler has dealt with it for good and
+   *          it need not be kept.
+   */
+  boolean pair( int depth, Key key, Value value );
+
+  /**
+   * A document's outermost closing brace has been seen. Several documents
+   * may follow one another in the input.
+   *
+   * @param root its outermost element, as <tt>JsonParser.parse()</tt> would
+   *          have returned it (less any pairs the handler declined).
+   */
+  void document( Element root );
+}
@@ -20,10 +20,8 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.perfectsearchcorp.scanner.IllegalCharacterOutsideOfTokenException;
 import com.perfectsearchcorp.scanner.NoMoreTokensException;
 import com.perfectsearchcorp.scanner.Token;
-import com.perfectsearchcorp.scanner.TokenType;
 import com.perfectsearchcorp.scanner.JsonScanner;
 
 /**
@@ -31,15 +29,51 @@ import com.perfectsearchcorp.scanner.JsonScanner;
  * the scanner too separate anyway. However, the parser's output is in an
  * <tt>Element</tt> that can be consumed as desired or passed to this
  * library's XML generator.
+ * <p />
+ * Alternatively, the document can be pulled through a piece at a time,
+ * StAX-style, without ever building an <tt>Element</tt>: each call to
+ * <tt>next()</tt> returns what comes next, a key, a value or the start or
+ * end of an object or array, the accessors telling more about it. Only as
+ * much memory as the depth of nesting is needed, however large the
+ * document. <tt>parse()</tt> is itself just a client of <tt>next()</tt>.
+ * <p />
+ * Callers reading only a few pairs near the top of each document can
+ * <tt>parseLazily()</tt> instead: objects and arrays below the top are
+ * skipped over, not parsed, until asked for.
+ * <p />
+ * To check only that a document is well-formed, <tt>validate()</tt>
+ * pulls it through strictly, keeping and copying out nothing.
+ * <p />
+ * Parsing a stream of records alike, optionally, the keys of each can be
+ * predicted from those of the records before (see <tt>KeyPredictor</tt>):
+ * where a key is expected, the content is compared with it in place
+ * rather than scanned, and the key is the very one made for the record
+ * before rather than a new one. Where it isn't that key after all, it's
+ * scanned as usual.
+ * <p />
+ * Nothing here recurses, however deep the document; how deep objects and
+ * arrays may be nested is limited only by <tt>setMaxDepth()</tt>, past
+ * which a document is refused.
  *
  * @author Russell Bateman
  * @since December 2014
  */
-public class JsonParser
+public class JsonParser implements JsonEventReader
 {
   private static final Logger log = LogManager.getLogger( JsonParser.class );
 
+  /**
+   * How deep objects and arrays may be nested unless set otherwise.
+   */
+  public static final int DEFAULT_MAX_DEPTH = 1000;
+
   private JsonScanner scanner;
+  private JsonGrammar grammar = new JsonGrammar();
+  private JsonEvent   event;    // what next() came upon last
+  private Token       token;    // and the token it came from
+  private boolean     done;     // the document has been closed
+  private KeyPredictor predictor;  // (when predicting keys)
+  private Key         key;      // (when predicting keys) the key just come upon
   private Level logLevel = Level.OFF;
 
   public JsonParser( String content )
@@ -47,205 +81,268 @@ public class JsonParser
     scanner = new JsonScanner( content );
   }
 
+  /**
+   * Parse using a particular scanner, for instance an
+   * <tt>IndexedJsonScanner</tt>.
+   */
+  public JsonParser( JsonScanner scanner )
+  {
+    this.scanner = scanner;
+  }
+
+  /**
+   * Heavy lifting in the composition of elements. This is where it happens,
+   * folks: the events pulled are assembled into an <tt>Element</tt> of
+   * key-value pairs.
+   *
+   * @return the document's outermost element.
+   * @throws ParserBrokenException
+   */
   public Element parse() throws ParserBrokenException
   {
-    try
-    {
-      log( "Begin parsing..." );
-      Token token = scanner.getNextToken();
+    ElementBuilder builder = new ElementBuilder( null );
+    JsonEvent      event;
 
-      if( token.getType() != TokenType.OPEN_BRACE )
-        throwParserException( "Ill-formed JSON construct", token );
+    log( "Begin parsing..." );
 
-      return parseElement();
-    }
-    catch( Exception e )
-    {
-      throw new ParserBrokenException( "Ill-formed JSON construct" );
-    }
+    while( ( event = next() ) != null )
+      build( builder, event );
+
+    return builder.getDocument();
+  }
+
+  private void build( ElementBuilder builder, JsonEvent event ) throws ParserBrokenException
+  {
+    if( event == JsonEvent.KEY && predictor != null )
+      builder.key( key );
+    else
+      builder.event( event, token, scanner.getScanned() );
   }
 
   /**
-   * Heavy lifting in the composition of elements. This is where it happens,
-   * folks.
+   * Check that the document is well-formed JSON, strictly so, as the rest
+   * of this parser isn't (see <tt>JsonGrammar</tt>), and that nothing but
+   * white space follows it. Nothing is built, no text is copied out of
+   * the content and no XML is generated, so this runs faster than
+   * converting the document (see <tt>ValidationBenchmark</tt>).
+   *
+   * @throws ParserBrokenException saying what's wrong and where
+   *          (<tt>getOffset()</tt>) if it isn't well-formed.
+   */
+  public void validate() throws ParserBrokenException
+  {
+    grammar.setStrict( true );
+
+    while( next() != null )
+      ;
+
+    if( !scanner.isExhausted() )
+      throw new ParserBrokenException( "Content after the document", scanner.getScanned() );
+  }
+
+  /**
+   * Parse only the outermost element, skipping over the objects and arrays
+   * in it by matching braces and brackets, crossing strings whole, rather
+   * than tokenizing them. Each becomes a value parsed, in turn lazily, the
+   * first time it's asked for, from the content this parser was given,
+   * which is kept until then. Any part of the document never asked for is
+   * never parsed, so only the top level is known to be well-formed; what
+   * isn't is reported by the value's methods as an
+   * <tt>IllegalStateException</tt>.
+   * <p />
+   * Empty objects and arrays aren't known to be empty until parsed, so,
+   * unlike <tt>parse()</tt>, the elements this builds may hold them.
+   * <tt>XmlGenerator</tt> puts nothing out for them all the same.
    * <p />
-   * Think of this as starting immediately after a brace. We're looking for
-   * a closing brace to pinch this off.
+   * A lookup near the top of a deep document costs a fraction of a full
+   * parse; see <tt>LazyParsingBenchmark</tt>.
    *
-   * @return a new <tt>Element</tt> consisting of key-value pairs.
-   * @throws ParserBrokenException
-   * @throws NoMoreTokensException
+   * @return the document's outermost element.
+   * @throws ParserBrokenException if the top level of the document is
+   *          ill-formed or an object or array in it is never closed.
    */
-  private Element parseElement()
-      throws ParserBrokenException, NoMoreTokensException, IllegalCharacterOutsideOfTokenException
+  public Element parseLazily() throws ParserBrokenException
   {
-    Element element = new Element();
-    Token   token;
-    Key     key = null;
+    ElementBuilder builder = new ElementBuilder( null );
 
-    log( "Begin parsing element..." );
+    buildLazily( builder );
 
-    while( ( token = scanner.getNextToken() ) != null )
-    {
-      Value value;
+    return builder.getDocument();
+  }
 
-      switch( token.getType() )
+  /**
+   * Parse an object or array skipped over by <tt>parseLazily()</tt>, just
+   * as lazily.
+   *
+   * @return a value holding the element or array.
+   */
+  Value parseValueLazily() throws ParserBrokenException
+  {
+    ElementBuilder builder = new ElementBuilder( null, true );
+
+    buildLazily( builder );
+
+    return ( builder.getArray() != null ) ? builder.getArray() : new Value( builder.getDocument() );
+  }
+
+  private void buildLazily( ElementBuilder builder ) throws ParserBrokenException
+  {
+    JsonEvent event;
+
+    while( ( event = next() ) != null )
+    {
+      if( ( event == JsonEvent.START_OBJECT || event == JsonEvent.START_ARRAY ) && getDepth() > 1 )
       {
-        case IDENT :
-          log( "IDENT(" + token.getToken() + ")" );
-          if( key == null )
-          {
-            key = new Key( token.getToken() );
-          }
-          else
-          {
-            value = new Value( token.getToken() );
-            element.addKeyValuePair( key, value );
-            key = null; // got the value, make sure next time IDENT is a key again
-          }
-          break;
-
-        case OPEN_BRACE :
-          log( "OPEN_BRACE" );
-          Element subordinate = parseElement();
-
-          if( subordinate.size() > 0 )
-          {
-            value = new Value( subordinate );
-            element.addKeyValuePair( key, value );
-            key = null; // got the (complex) value, make sure next time IDENT is a key again
-          }
-          break;
-
-          // start/stop array...
-          case OPEN_BRACKET :
-            log( "OPEN_BRACKET" );
-            if( key == null )
-              throwParserException( "Syntax error (no key for array)", token );
-
-            Element maps = parseArray( key );
-
-            if( maps.size() > 0 )
-              element.addElementContents( maps );
-            break;
-
-          case CLOSE_BRACE :
-            log( "CLOSE_BRACE" );
-            /* Been looking for this: we're done: tie off and pop back up.
-             */
-            return element;
-
-        case COMMA :  // (okay, just skip it...)
-          log( "COMMA" );
-          break;
-
-        case COLON :  // (okay, just skip it...)
-          log( "COLON" );
-          break;
-
-        case UNKNOWN :
-          log( "UNKNOWN(" + token.getToken() + ")" );
-          throwParserException( "Unknown construct", token );
-
-        default :
-          log( "OTHER(" + token.getToken() + ")" );
-          throwParserException( "Unexpected " + token.getType().name(), token );
+        int start = token.start();
+
+        skipValue();
+        builder.skipped( event, scanner, start, scanner.getScanned() );
+        continue;
       }
-    }
 
-    return element;
+      build( builder, event );
+    }
   }
 
   /**
-   * Heavy lifting in the composition of array elements. Heading for XML as
-   * we are, the strategy is simple: create a new element for each member of
-   * the array we scan pairing it with a copy of the key.
-   * <hr />
-   * <b>Array parsing makes an non-trivial implementation decision</b>.
-   * <hr />
-   * We create and return a new element to our caller who will grab its
-   * contents for adding to whatever element he had under construction in
-   * the first place.
-   * <p />
-   * Note that one or more values in the array could just as well be complex
-   * elements themselves.
+   * Pull the next event from the document. Commas and colons are skipped
+   * over.
    *
-   * @param key with the array we're about to parse.
-   * @return a new <tt>Element</tt> consisting of each array value paired
-   *          with the (same) key.
-   * @throws ParserBrokenException
-   * @throws NoMoreTokensException
+   * @return what comes next or null once the document has been closed.
+   * @throws ParserBrokenException if the document is ill-formed or ends
+   *          before it's closed.
    */
-  private Element parseArray( Key key )
-      throws ParserBrokenException, NoMoreTokensException, IllegalCharacterOutsideOfTokenException
+  @Override
+  public JsonEvent next() throws ParserBrokenException
   {
-    Element element = new Element();
-    Token token;
+    if( done )
+      return null;
 
-    log( "Begin parsing array..." );
+    Key predicted = null;
 
-    while( ( token = scanner.getNextToken() ) != null )
+    do
     {
-      Key   newKey = new Key( key.getKey() );
-      Value newValue;
+      token = null;
+
+      if( predictor != null && grammar.isKeyNext() && ( predicted = predictor.predict() ) != null
+          && predictor.isLiteral() )
+        token = scanner.nextTokenIf( predicted.getKey() );
+
+      if( token == null )
+        token = scanner.nextToken();
+
+      if( token.isStop() )
+        throw new ParserBrokenException( "Ill-formed JSON construct (" + token.getProblem() + ")",
+                                            scanner.getScanned() );
+    }
+    while( ( event = grammar.accept( token, scanner.getScanned() ) ) == null );
+
+    done = ( grammar.getDepth() == 0 );
+
+    if( predictor != null )
+      predict( event, predicted );
 
-      switch( token.getType() )
+    if( logLevel != Level.OFF )
+    {
+      switch( event )
       {
-        case IDENT :
-          log( "IDENT(" + token.getToken() + ")" );
-          newValue = new Value( token.getToken() );
-          element.addKeyValuePair( newKey, newValue );
-          break;
-
-        case OPEN_BRACE :
-          log( "OPEN_BRACE" );
-          Element subordinate = parseElement();
-
-          if( subordinate.size() > 0 )
-          {
-            newValue = new Value( subordinate );
-            element.addKeyValuePair( newKey, newValue );
-          }
-          break;
-
-        case CLOSE_BRACKET :
-          log( "CLOSE_BRACKET" );
-          /* Been looking for this: tie off and return.
-           */
-          return element;
-
-        case COMMA :  // (okay, just skip it...)
-          log( "COMMA" );
-          break;
-
-        case UNKNOWN :
-          log( "UNKNOWN(" + token.getToken() + ")" );
-          throwParserException( "Unknown construct", token );
-
-        default :
-          log( "OTHER(" + token.getToken() + ")" );
-          throwParserException( "Unexpected " + token.getType().name(), token );
+        case KEY :
+        case VALUE : log( event.name() + "(" + token.getToken() + ")" ); break;
+        default :    log( event.name() );                                break;
       }
     }
 
-    throwParserException( "Ill formed JSON construct parsing array", token );
-    return element;
+    return event;
   }
 
   /**
-   * Helper through which all broken-parser exceptions pass.
+   * Having just come upon the start of an object or array, skip over it to
+   * its end without parsing what's in it: braces and brackets are only
+   * counted and strings crossed whole. It's then as if its end had just
+   * been come upon. What was skipped over isn't checked.
    *
-   * @param message error statement.
-   * @param location the token knows how many characters it has scanned so far.
-   * @throws ParserBrokenException
+   * @throws ParserBrokenException if it's never closed.
+   * @throws IllegalStateException if not just come upon the start of an
+   *          object or array.
    */
-  private void throwParserException( String message, Token location ) throws ParserBrokenException
+  public void skipValue() throws ParserBrokenException
   {
-    int position = location.getScanned() + scanner.getScanned();
+    if( event != JsonEvent.START_OBJECT && event != JsonEvent.START_ARRAY )
+      throw new IllegalStateException( "Not at the start of an object or array" );
+
+    try
+    {
+      scanner.skipValue( token.start() );
+    }
+    catch( NoMoreTokensException e )
+    {
+      throw new ParserBrokenException( "Ill-formed JSON construct (" + e.getMessage() + ")",
+                                          scanner.getScanned(), e );
+    }
+
+    event = grammar.skip();
+    done  = ( grammar.getDepth() == 0 );
+
+    if( predictor != null )
+      predictor.end();
+  }
+
+  /**
+   * Tell the predictor what's come, making the key, if that's what it is,
+   * unless it's the one predicted.
+   */
+  private void predict( JsonEvent event, Key predicted )
+  {
+    switch( event )
+    {
+      case START_OBJECT : predictor.start( false ); break;
+      case START_ARRAY :  predictor.start( true );  break;
+      case END_OBJECT :
+      case END_ARRAY :    predictor.end();          break;
+      case VALUE :        predictor.value();        break;
+
+      case KEY :
+        key = ( predicted != null && token.matches( predicted.getKey() ) ) ? predicted : new Key( token.getToken() );
+        predictor.key( key );
+        break;
+    }
+  }
 
-    throw new ParserBrokenException( message + " at offset " + position );
+  /**
+   * @return what <tt>next()</tt> came upon last.
+   */
+  public JsonEvent getEvent() { return event; }
+
+  /**
+   * @return the text of the key or value just come upon, null for the
+   *          start or end of an object or array.
+   */
+  @Override
+  public String getText()
+  {
+    return ( event == JsonEvent.KEY || event == JsonEvent.VALUE ) ? token.getToken() : null;
   }
 
+  /**
+   * @return the token just come upon. Like the scanner's, it's only good
+   *          until the next call to <tt>next()</tt>, but it gives where the
+   *          text lies without copying it out.
+   */
+  @Override
+  public Token getToken() { return token; }
+
+  /**
+   * @return how many objects and arrays are open, the one just started
+   *          included and the one just ended not.
+   */
+  public int getDepth() { return grammar.getDepth(); }
+
+  /**
+   * @return how far into the content parsing has got.
+   */
+  @Override
+  public int getOffset() { return scanner.getScanned(); }
+
   private void log( String message )
   {
     switch( logLevel.toString() )
@@ -256,6 +353,29 @@ public class JsonParser
     }
   }
 
+  public int getMaxDepth() { return grammar.getMaxDepth(); }
+
+  /**
+   * @param maxDepth how deep objects and arrays may be nested, the
+   *          document's outermost counting as 1; a document nested deeper is
+   *          refused with a <tt>ParserBrokenException</tt>.
+   */
+  public void setMaxDepth( int maxDepth ) { grammar.setMaxDepth( maxDepth ); }
+
+  public boolean isPredictingKeys() { return predictor != null; }
+
+  /**
+   * @param predicting whether to predict the keys of each object from
+   *          those of the one parsed before in the same place, as for a
+   *          stream of records alike. The keys predicted aren't made anew:
+   *          the elements built share them, so none should be changed. It's
+   *          not done by default.
+   */
+  public void setPredictingKeys( boolean predicting )
+  {
+    this.predictor = ( predicting ) ? new KeyPredictor() : null;
+  }
+
   public Level getLogLevel() { return logLevel; }
   public void setLogLevel( Level logLevel ) { this.logLevel = logLevel; }
 }
@@ -17,6 +17,9 @@
 package com.perfectsearchcorp.parser;
 
 /**
+ * Keys are equal when their text is, so they can be looked up by. Don't
+ * change one's text while it's being used as a key in some map or set.
+ *
  * @author Russell Bateman
  * @since December 2014
  */
@@ -34,6 +37,25 @@ public class Key
   public String getKey() { return key; }
   public void setKey( String key ) { this.key = key; }
 
+  @Override
+  public boolean equals( Object object )
+  {
+    if( this == object )
+      return true;
+    if( !( object instanceof Key ) )
+      return false;
+
+    String other = ( ( Key ) object ).key;
+
+    return ( key == null ) ? other == null : key.equals( other );
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return ( key != null ) ? key.hashCode() : 0;
+  }
+
   public String toString()
   {
     return "\"" + this.key + "\"";
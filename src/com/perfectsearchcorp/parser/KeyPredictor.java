@@ -0,0 +1,244 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Learns the keys of the objects parsed and predicts each key from those
+ * of the object parsed before in the same place: the previous member of
+ * the same array, the previous document or the object in the same place
+ * within them. In a stream of records of the same shape, every key after
+ * the first record's is predicted.
+ * <p />
+ * What's learned is a tree of <tt>Shape</tt>s, each the keys of objects
+ * in one place, in order, and, for each key valued by an object or an
+ * array, the shape of what's in that. A key that isn't the one predicted
+ * replaces it, forgetting what was learned within it. An object without
+ * a key, which only a lenient parse lets by, has nothing predicted in it.
+ * <p />
+ * So that a document never alike from one object to the next can't make
+ * the tree grow without end, only so many shapes are kept at once; those
+ * forgotten make room for others.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+class KeyPredictor
+{
+  static final int MAX_SHAPES = 1024;
+
+  private final Shape documents = new Shape();  // (of the outermost objects)
+  private int         shapes    = 1;   // kept in the tree
+
+  // for each object or array open, outermost first...
+  private Shape[]   open   = new Shape[ 16 ];    // its shape, null if nothing is predicted in it
+  private boolean[] array  = new boolean[ 16 ];
+  private int[]     at     = new int[ 16 ];      // (object) how many of its keys so far
+  private boolean[] keyed  = new boolean[ 16 ];  // (object) a key awaits its value
+  private int       depth;
+
+  /**
+   * An object or array starts.
+   */
+  void start( boolean isArray )
+  {
+    Shape shape;
+
+    if( depth == 0 )
+      shape = documents;
+    else if( open[ depth-1 ] == null )
+      shape = null;
+    else if( array[ depth-1 ] )
+      shape = open[ depth-1 ];      // (the members of an array are alike)
+    else if( keyed[ depth-1 ] )
+      shape = child( open[ depth-1 ], at[ depth-1 ]-1 );
+    else
+      shape = null;
+
+    if( depth > 0 )
+      keyed[ depth-1 ] = false;
+
+    if( depth == open.length )
+    {
+      open  = Arrays.copyOf( open, depth * 2 );
+      array = Arrays.copyOf( array, depth * 2 );
+      at    = Arrays.copyOf( at, depth * 2 );
+      keyed = Arrays.copyOf( keyed, depth * 2 );
+    }
+
+    open[ depth ]  = shape;
+    array[ depth ] = isArray;
+    at[ depth ]    = 0;
+    keyed[ depth ] = false;
+    depth++;
+  }
+
+  /**
+   * The object or array open ends.
+   */
+  void end()
+  {
+    Shape shape = open[ --depth ];
+
+    if( shape != null && !array[ depth ] )
+      shape.size = at[ depth ];
+
+    open[ depth ] = null;
+  }
+
+  /**
+   * @return the key the object open is expected to have next or null if
+   *          nothing is expected.
+   */
+  Key predict()
+  {
+    if( depth == 0 || array[ depth-1 ] )
+      return null;
+
+    Shape shape = open[ depth-1 ];
+    int   next  = at[ depth-1 ];
+
+    return ( shape != null && next < shape.size ) ? shape.keys[ next ] : null;
+  }
+
+  /**
+   * @return whether the key predicted can be looked for as is in the
+   *          content: its text holds nothing that, in a string, must be or
+   *          may have been escaped.
+   */
+  boolean isLiteral()
+  {
+    Shape shape = open[ depth-1 ];
+
+    return shape.literal[ at[ depth-1 ] ];
+  }
+
+  /**
+   * The object open has another key, predicted or not.
+   */
+  void key( Key key )
+  {
+    Shape shape = open[ depth-1 ];
+    int   next  = at[ depth-1 ]++;
+
+    keyed[ depth-1 ] = true;
+
+    if( shape == null || ( next < shape.size && shape.keys[ next ] == key ) )
+      return;
+
+    Shape forgotten = shape.learn( next, key );
+
+    if( forgotten != null )
+      shapes -= count( forgotten );
+  }
+
+  /**
+   * @return how many shapes are kept in the tree, for testing.
+   */
+  int size() { return shapes; }
+
+  /**
+   * @return how many shapes there are in the tree below <tt>shape</tt>,
+   *          counting it.
+   */
+  private static int count( Shape shape )
+  {
+    Deque< Shape > pending = new ArrayDeque<>();
+    int            count   = 0;
+
+    pending.push( shape );
+
+    while( !pending.isEmpty() )
+    {
+      Shape next = pending.pop();
+
+      count++;
+
+      for( Shape child : next.children )
+      {
+        if( child != null )
+          pending.push( child );
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * The object or array open has another value.
+   */
+  void value()
+  {
+    if( depth > 0 )
+      keyed[ depth-1 ] = false;
+  }
+
+  private Shape child( Shape shape, int key )
+  {
+    if( shape.children[ key ] == null && shapes < MAX_SHAPES )
+    {
+      shape.children[ key ] = new Shape();
+      shapes++;
+    }
+
+    return shape.children[ key ];
+  }
+
+  /**
+   * The keys of the objects in one place.
+   */
+  private static class Shape
+  {
+    Key[]     keys     = new Key[ 8 ];
+    boolean[] literal  = new boolean[ 8 ];
+    Shape[]   children = new Shape[ 8 ];  // of the objects and arrays the keys are the keys of
+    int       size;
+
+    /**
+     * @return the shape within the key learned before, forgotten now that
+     *          the key is another, or null.
+     */
+    Shape learn( int at, Key key )
+    {
+      Shape forgotten = null;
+
+      if( at == keys.length )
+      {
+        keys     = Arrays.copyOf( keys, at * 2 );
+        literal  = Arrays.copyOf( literal, at * 2 );
+        children = Arrays.copyOf( children, at * 2 );
+      }
+
+      if( at >= size || !key.equals( keys[ at ] ) )
+      {
+        forgotten = children[ at ];
+        children[ at ] = null;
+      }
+
+      String text = key.getKey();
+
+      keys[ at ]    = key;
+      literal[ at ] = text.indexOf( '"' ) < 0 && text.indexOf( '\\' ) < 0;
+      size          = Math.max( size, at+1 );
+
+      return forgotten;
+    }
+  }
+}
@@ -0,0 +1,278 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.perfectsearchcorp.scanner.JsonScanner;
+import com.perfectsearchcorp.scanner.Token;
+
+/**
+ * JSON parser for one huge document, e.g.: an export whose outermost
+ * object holds an array of millions of records, spreading the work over
+ * the cores of the machine.
+ * <p />
+ * A first pass, on one thread, walks the top of the document: the
+ * outermost object's pairs and the members of arrays in it. Each object
+ * there is skipped over rather than parsed, by matching braces and
+ * brackets and crossing strings whole, as <tt>JsonParser.parseLazily()</tt>
+ * does, only where it lies being noted. The objects are then parsed, each
+ * from its own scanner over the same content, by <tt>ForkJoinPool</tt>
+ * tasks that split the run of them in halves until each has about
+ * <tt>grain</tt> characters' worth. Last, the element is built from the
+ * top, the objects parsed put back in their places in order.
+ * <p />
+ * The result is the very element <tt>JsonParser.parse()</tt> builds. What
+ * can't go faster is the first pass, which must still look at every
+ * character in order, if much faster than tokenizing them, and building
+ * the element from the top; the more of the document lies in objects
+ * below the top, the closer to N cores' speed-up the rest comes. A
+ * top-level array of numbers or strings gains nothing.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class ParallelJsonParser
+{
+  /**
+   * How many characters' worth of objects a task parses unless set
+   * otherwise.
+   */
+  public static final int DEFAULT_GRAIN = 256 * 1024;
+
+  private JsonScanner  scanner;
+  private ForkJoinPool pool;
+  private int          grain    = DEFAULT_GRAIN;
+  private int          maxDepth = JsonParser.DEFAULT_MAX_DEPTH;
+
+  // what the first pass found...
+  private List< Step > steps = new ArrayList<>();  // the top of the document, in order
+  private int[]        starts = new int[ 64 ];     // where each object skipped over lies
+  private int[]        ends   = new int[ 64 ];
+  private int[]        depths = new int[ 64 ];     // (how deep its parent is)
+  private int          objects;
+
+  // ...and the objects parsed
+  private Element[]               parsed;
+  private ParserBrokenException[] failures;
+
+  public ParallelJsonParser( String content )
+  {
+    this( new JsonScanner( content ) );
+  }
+
+  /**
+   * Parse using a particular scanner, for instance a
+   * <tt>Utf8JsonScanner</tt>, in the common pool.
+   */
+  public ParallelJsonParser( JsonScanner scanner )
+  {
+    this( scanner, ForkJoinPool.commonPool() );
+  }
+
+  public ParallelJsonParser( JsonScanner scanner, ForkJoinPool pool )
+  {
+    this.scanner = scanner;
+    this.pool    = pool;
+  }
+
+  /**
+   * @return the document's outermost element, the same as
+   *          <tt>JsonParser.parse()</tt> returns.
+   * @throws ParserBrokenException if the document is ill-formed. If more
+   *          than one object in it is, it's the first of them that's
+   *          complained about.
+   */
+  public Element parse() throws ParserBrokenException
+  {
+    skimTop();
+
+    parsed   = new Element[ objects ];
+    failures = new ParserBrokenException[ objects ];
+
+    if( objects > 0 )
+      pool.invoke( new ParseObjects( 0, objects ) );
+
+    for( ParserBrokenException failure : failures )
+    {
+      if( failure != null )
+        throw failure;
+    }
+
+    return build();
+  }
+
+  /**
+   * Walk the top of the document, noting the steps to build it by and
+   * skipping over the objects there.
+   */
+  private void skimTop() throws ParserBrokenException
+  {
+    JsonParser parser = new JsonParser( scanner );
+    JsonEvent  event;
+
+    parser.setMaxDepth( maxDepth );
+
+    while( ( event = parser.next() ) != null )
+    {
+      if( event == JsonEvent.START_OBJECT && parser.getDepth() > 1 )
+      {
+        int start = parser.getToken().start();
+
+        parser.skipValue();
+        addObject( start, parser.getOffset(), parser.getDepth() );
+        steps.add( new Step( objects-1 ) );
+        continue;
+      }
+
+      Token  token = parser.getToken();
+      String text  = ( event == JsonEvent.KEY || event == JsonEvent.VALUE ) ? token.getToken() : null;
+
+      steps.add( new Step( event, new Token( text, token.getType() ), parser.getOffset() ) );
+    }
+  }
+
+  private void addObject( int start, int end, int depth )
+  {
+    if( objects == starts.length )
+    {
+      int capacity = objects + ( objects >> 1 );
+
+      starts = Arrays.copyOf( starts, capacity );
+      ends   = Arrays.copyOf( ends, capacity );
+      depths = Arrays.copyOf( depths, capacity );
+    }
+
+    starts[ objects ] = start;
+    ends[ objects ]   = end;
+    depths[ objects ] = depth;
+    objects++;
+  }
+
+  /**
+   * Parse one of the objects skipped over, nested no deeper than it could
+   * have been in the whole document.
+   */
+  private void parseObject( int object )
+  {
+    JsonParser parser = new JsonParser( scanner.scannerFrom( starts[ object ], ends[ object ] ) );
+
+    parser.setMaxDepth( maxDepth - depths[ object ] );
+
+    try
+    {
+      parsed[ object ] = parser.parse();
+    }
+    catch( ParserBrokenException e )
+    {
+      failures[ object ] = e;
+    }
+  }
+
+  /**
+   * Build the element from the steps, putting back the objects parsed.
+   */
+  private Element build() throws ParserBrokenException
+  {
+    ElementBuilder builder = new ElementBuilder( null );
+
+    for( Step step : steps )
+    {
+      if( step.object >= 0 )
+        builder.parsed( parsed[ step.object ] );
+      else
+        builder.event( step.event, step.token, step.offset );
+    }
+
+    return builder.getDocument();
+  }
+
+  public ForkJoinPool getPool() { return pool; }
+  public int getGrain() { return grain; }
+
+  /**
+   * @param grain about how many characters' worth of objects (bytes, for
+   *          a scanner over UTF-8) a task should parse before it isn't
+   *          worth splitting its work further.
+   */
+  public void setGrain( int grain ) { this.grain = grain; }
+
+  public int getMaxDepth() { return maxDepth; }
+  public void setMaxDepth( int maxDepth ) { this.maxDepth = maxDepth; }
+
+  /**
+   * A step in building the top of the document: an event or an object
+   * skipped over.
+   */
+  private static class Step
+  {
+    final JsonEvent event;
+    final Token     token;
+    final long      offset;
+    final int       object;   // which object, or -1 if an event
+
+    Step( JsonEvent event, Token token, long offset )
+    {
+      this.event  = event;
+      this.token  = token;
+      this.offset = offset;
+      this.object = -1;
+    }
+
+    Step( int object )
+    {
+      this.event  = null;
+      this.token  = null;
+      this.offset = 0;
+      this.object = object;
+    }
+  }
+
+  /**
+   * Parse a run of the objects skipped over, splitting it in halves while
+   * it's longer than the grain.
+   */
+  private class ParseObjects extends RecursiveAction
+  {
+    private final int from, to;
+
+    ParseObjects( int from, int to )
+    {
+      this.from = from;
+      this.to   = to;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if( to - from > 1 && ends[ to-1 ] - starts[ from ] > grain )
+      {
+        int middle = ( from + to ) >>> 1;
+
+        invokeAll( new ParseObjects( from, middle ), new ParseObjects( middle, to ) );
+        return;
+      }
+
+      for( int object = from; object < to; object++ )
+        parseObject( object );
+    }
+  }
+}
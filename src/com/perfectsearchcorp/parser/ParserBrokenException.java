@@ -18,13 +18,21 @@ package com.perfectsearchcorp.parser;
 
 /**
  * Stuff like no key when found an array. This is either a syntax
- * error, or our parser is broken.
+ * error, or our parser is broken. Where in the content it was found is
+ * kept, if known, as well as told in the message.
+ * <p />
+ * When the offset is known, it's the content that's at fault and a stack
+ * trace would say nothing useful, so none is filled in: for a feed in
+ * which many documents are ill-formed, that's most of the cost of
+ * refusing each one.
  *
  * @author Russell Bateman
  * @since December 2014
  */
 public class ParserBrokenException extends Exception
 {
+  private long offset = -1;
+
   public ParserBrokenException()
   {
     super();
@@ -39,4 +47,22 @@ public class ParserBrokenException extends Exception
   {
     super( message, exception );
   }
+
+  public ParserBrokenException( String message, long offset )
+  {
+    super( message + " at offset " + offset, null, false, false );
+    this.offset = offset;
+  }
+
+  public ParserBrokenException( String message, long offset, Throwable exception )
+  {
+    super( message + " at offset " + offset, exception, false, false );
+    this.offset = offset;
+  }
+
+  /**
+   * @return where in the content the trouble was found or -1 if that isn't
+   *          known.
+   */
+  public long getOffset() { return offset; }
 }
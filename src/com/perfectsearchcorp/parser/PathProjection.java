@@ -0,0 +1,364 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import java.util.Arrays;
+
+import com.perfectsearchcorp.scanner.Token;
+
+/**
+ * Keeps only chosen parts of a document. A path names a pair by the keys
+ * leading to it from the document's outermost element, separated by dots,
+ * e.g. <tt>glossary.GlossDiv.GlossList</tt>; an array's members answer to
+ * the array's key. A pair selected is kept whole, and the pairs leading to
+ * it just for holding it; a pair excluded is dropped whole, even from
+ * within one selected. Selecting nothing selects everything.
+ * <p />
+ * Pulled through <tt>project( JsonParser )</tt>, the objects and arrays
+ * dropped are skipped over by the parser's <tt>skipValue()</tt>, which
+ * only matches braces and brackets and crosses strings whole, so nothing
+ * in them is tokenized, let alone built into an <tt>Element</tt>. An
+ * <tt>Element</tt> already built can be projected too.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class PathProjection
+{
+  private static final Value[] NO_MEMBERS = new Value[ 0 ];
+
+  private Node    root = new Node();
+  private boolean selecting;          // any path selected
+
+  public PathProjection() { }
+
+  /**
+   * Keep the pair at this path, whole.
+   */
+  public void select( String path )
+  {
+    nodeFor( path ).selected = true;
+    selecting = true;
+  }
+
+  /**
+   * Drop the pair at this path, whole.
+   */
+  public void exclude( String path )
+  {
+    nodeFor( path ).excluded = true;
+  }
+
+  /**
+   * @return whether any path has been selected or excluded.
+   */
+  public boolean isEmpty() { return root.count == 0; }
+
+  /**
+   * @return the events of the document being parsed, less those of the
+   *          pairs not kept. Those are skipped over, not parsed.
+   */
+  public JsonEventReader project( JsonParser parser )
+  {
+    return new Reader( parser );
+  }
+
+  /**
+   * @return a copy of the element holding only the pairs kept (those kept
+   *          whole not copied), or null if none are.
+   */
+  public Element project( Element document )
+  {
+    Value projected = projectValue( root, !selecting, new Value( document ) );
+
+    return ( projected != null ) ? projected.getElement() : null;
+  }
+
+  /**
+   * Project a pair of the document's outermost element, as it comes, for
+   * instance, to a <tt>JsonHandler</tt>.
+   *
+   * @return what's kept of the value or null if nothing is.
+   */
+  public Value project( Key key, Value value )
+  {
+    return projectPair( root, !selecting, key, value );
+  }
+
+  private Node nodeFor( String path )
+  {
+    Node node = root;
+
+    for( String key : path.split( "\\." ) )
+    {
+      Node child = node.child( key );
+
+      if( child == null )
+        child = node.add( key );
+
+      node = child;
+    }
+
+    return node;
+  }
+
+  /**
+   * @param node the path to the element holding the pair, null if no path
+   *          goes any deeper.
+   * @param inside whether the element holding the pair is kept whole.
+   */
+  private Value projectPair( Node node, boolean inside, Key key, Value value )
+  {
+    Node child = ( node != null ) ? node.child( key.getKey() ) : null;
+
+    if( child != null && child.excluded )
+      return null;
+
+    inside |= ( child != null && child.selected );
+
+    if( !inside && child == null )
+      return null;
+
+    return projectValue( child, inside, value );
+  }
+
+  private Value projectValue( Node node, boolean inside, Value value )
+  {
+    if( inside && ( node == null || node.count == 0 ) )
+      return value;
+
+    if( value.getValue() != null )
+      return ( inside ) ? value : null;
+
+    if( value.isArray() )
+    {
+      Value array = new Value( NO_MEMBERS );
+
+      for( int member = 0; member < value.size(); member++ )
+      {
+        Value projected = projectValue( node, inside, value.getMember( member ) );
+
+        if( projected != null )
+          array.addMember( projected );
+      }
+
+      return ( array.size() > 0 ) ? array : null;
+    }
+
+    Element element = new Element();
+    Element from    = value.getElement();
+
+    for( int pair = 0; pair < from.size(); pair++ )
+    {
+      Value projected = projectPair( node, inside, from.getKey( pair ), from.getValue( pair ) );
+
+      if( projected != null )
+        element.addKeyValuePair( from.getKey( pair ), projected );
+    }
+
+    return ( element.size() > 0 ) ? new Value( element ) : null;
+  }
+
+  /**
+   * A step along the paths selected and excluded. There are seldom more
+   * than a few steps from each, so they're looked for one after another,
+   * which lets a key be matched where it was scanned.
+   */
+  private static class Node
+  {
+    String[] keys     = new String[ 2 ];
+    Node[]   children = new Node[ 2 ];
+    int      count;
+    boolean  selected;
+    boolean  excluded;
+
+    Node child( String key )
+    {
+      for( int child = 0; child < count; child++ )
+      {
+        if( keys[ child ].equals( key ) )
+          return children[ child ];
+      }
+
+      return null;
+    }
+
+    Node child( Token key )
+    {
+      for( int child = 0; child < count; child++ )
+      {
+        if( key.matches( keys[ child ] ) )
+          return children[ child ];
+      }
+
+      return null;
+    }
+
+    Node add( String key )
+    {
+      if( count == keys.length )
+      {
+        keys     = Arrays.copyOf( keys, count * 2 );
+        children = Arrays.copyOf( children, count * 2 );
+      }
+
+      keys[ count ] = key;
+      return children[ count++ ] = new Node();
+    }
+  }
+
+  /**
+   * Pulls events from the parser, passing on those kept. Each object or
+   * array open has its place among the paths: how far along them it is
+   * and whether it's kept whole.
+   */
+  private class Reader implements JsonEventReader
+  {
+    private final JsonParser parser;
+    private Node[]           nodes   = new Node[ 16 ];     // per object or array open: its node (null past the paths)
+    private boolean[]        insides = new boolean[ 16 ];  // per object or array open: whether kept whole
+    private int              depth;
+    private Node             node;    // place of the value awaited, decided by its key
+    private boolean          inside;
+    private boolean          keyed;   // (whether decided)
+    private String           key;     // key passed on ahead of its value's start, held
+    private JsonEvent        held;    // that start, to pass on next
+
+    Reader( JsonParser parser )
+    {
+      this.parser = parser;
+    }
+
+    @Override
+    public JsonEvent next() throws ParserBrokenException
+    {
+      if( held != null )
+      {
+        JsonEvent event = held;
+
+        held = null;
+        key  = null;
+        push();
+        return event;
+      }
+
+      key = null;
+
+      JsonEvent event;
+
+      while( ( event = parser.next() ) != null )
+      {
+        switch( event )
+        {
+          case KEY :
+            Node    parent = nodes[ depth-1 ];
+            Node    child  = ( parent != null ) ? parent.child( parser.getToken() ) : null;
+            boolean kept   = insides[ depth-1 ] || ( child != null && child.selected );
+
+            if( ( child != null && child.excluded ) || ( !kept && child == null ) )
+            {
+              skip();
+              continue;
+            }
+
+            node   = child;
+            inside = kept;
+            keyed  = true;
+
+            if( kept )
+              return event;
+
+            // only on the way to what's selected: a scalar value is dropped...
+            key = parser.getText();
+
+            if( ( event = parser.next() ) == JsonEvent.VALUE )
+            {
+              key   = null;
+              keyed = false;
+              continue;
+            }
+
+            held = event;
+            return JsonEvent.KEY;
+
+          case VALUE :
+            if( !keyed && depth > 0 && !insides[ depth-1 ] )
+              continue;
+            keyed = false;
+            return event;
+
+          case START_OBJECT :
+          case START_ARRAY :
+            if( !keyed )
+            {
+              // the document, a member or an element without a key...
+              node   = ( depth > 0 ) ? nodes[ depth-1 ] : root;
+              inside = ( depth > 0 ) ? insides[ depth-1 ] : !selecting;
+            }
+            push();
+            return event;
+
+          default :
+            depth--;
+            return event;
+        }
+      }
+
+      return null;
+    }
+
+    @Override
+    public String getText()
+    {
+      return ( key != null ) ? key : parser.getText();
+    }
+
+    @Override
+    public Token getToken()
+    {
+      return ( key != null ) ? null : parser.getToken();
+    }
+
+    @Override
+    public int getOffset() { return parser.getOffset(); }
+
+    /**
+     * Skip the value of the key just come upon.
+     */
+    private void skip() throws ParserBrokenException
+    {
+      JsonEvent event = parser.next();
+
+      if( event == JsonEvent.START_OBJECT || event == JsonEvent.START_ARRAY )
+        parser.skipValue();
+    }
+
+    private void push()
+    {
+      if( depth == nodes.length )
+      {
+        nodes   = Arrays.copyOf( nodes, depth * 2 );
+        insides = Arrays.copyOf( insides, depth * 2 );
+      }
+
+      nodes[ depth ]   = node;
+      insides[ depth ] = inside;
+      keyed = false;
+      depth++;
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import java.util.Arrays;
+
+import com.perfectsearchcorp.scanner.Token;
+
+/**
+ * A parsed document laid out flat, as simdjson does, instead of as a graph
+ * of <tt>Element</tt>s, <tt>Key</tt>s and <tt>Value</tt>s: a few large
+ * arrays, however big the document, so that the garbage collector has
+ * next to nothing to trace.
+ * <p />
+ * The document's structure is a tape of <tt>long</tt>s, one per event
+ * from start of the outermost object to its end, in order. The high byte
+ * of each says what the event is; the rest, for the start or end of an
+ * object or array, is where on the tape its matching end or start is,
+ * so that a whole value can be skipped in one step and, for a key or
+ * value, is where its text begins in the arena. All text lives in the one
+ * <tt>char</tt> arena, each preceded by its length in two characters.
+ * <p />
+ * Unlike an <tt>Element</tt>, a tape keeps the document as it is, empty
+ * objects, arrays and all. It can be read back an event at a time, e.g.:
+ * by <tt>XmlGenerator</tt>, or walked from any entry: <tt>skip()</tt> to
+ * step over a value and <tt>find()</tt> to look up a key in an object.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class Tape
+{
+  private static final int       TYPE_SHIFT = 56;
+  private static final long      PAYLOAD    = ( 1L << TYPE_SHIFT ) - 1;
+  private static final JsonEvent EVENTS[]   = JsonEvent.values();
+
+  private long[] tape  = new long[ 1024 ];
+  private int    size;
+  private char[] arena = new char[ 4096 ];
+  private int    used;
+
+  /**
+   * Parse the document onto a new tape.
+   *
+   * @throws ParserBrokenException if the document is ill-formed.
+   */
+  public Tape( JsonParser parser ) throws ParserBrokenException
+  {
+    int[]     open  = new int[ 32 ];  // entries of the objects and arrays open
+    int       depth = 0;
+    JsonEvent event;
+
+    while( ( event = parser.next() ) != null )
+    {
+      switch( event )
+      {
+        case START_OBJECT :
+        case START_ARRAY :
+          if( depth == open.length )
+            open = Arrays.copyOf( open, depth * 2 );
+
+          open[ depth++ ] = size;
+          append( event, 0 );
+          break;
+
+        case END_OBJECT :
+        case END_ARRAY :
+          int start = open[ --depth ];
+
+          tape[ start ] |= size;
+          append( event, start );
+          break;
+
+        case KEY :
+        case VALUE :
+          append( event, appendText( parser.getToken() ) );
+          break;
+      }
+    }
+
+    // give back the room left over from growing...
+    tape  = Arrays.copyOf( tape, size );
+    arena = Arrays.copyOf( arena, used );
+  }
+
+  /**
+   * @return how many entries are on the tape (the document's outermost
+   *          object is entry 0).
+   */
+  public int size() { return size; }
+
+  public JsonEvent getEvent( int entry )
+  {
+    return EVENTS[ ( int ) ( entry( entry ) >>> TYPE_SHIFT ) ];
+  }
+
+  /**
+   * @return for the start or end of an object or array, the entry of its
+   *          matching end or start.
+   */
+  public int getMatch( int entry )
+  {
+    switch( getEvent( entry ) )
+    {
+      case KEY :
+      case VALUE :
+        throw new IllegalArgumentException( "Entry " + entry + " is not an object or array" );
+
+      default :
+        return ( int ) ( tape[ entry ] & PAYLOAD );
+    }
+  }
+
+  /**
+   * @return the text of a key or value, null for anything else.
+   */
+  public String getText( int entry )
+  {
+    switch( getEvent( entry ) )
+    {
+      case KEY :
+      case VALUE :
+        int text = ( int ) ( tape[ entry ] & PAYLOAD );
+        return new String( arena, text+2, arena[ text ] << 16 | arena[ text+1 ] );
+
+      default :
+        return null;
+    }
+  }
+
+  /**
+   * @return the entry just past the value (or key) at <tt>entry</tt>, e.g.:
+   *          past the end of an object that starts there.
+   */
+  public int skip( int entry )
+  {
+    switch( getEvent( entry ) )
+    {
+      case START_OBJECT :
+      case START_ARRAY :
+        return getMatch( entry ) + 1;
+
+      default :
+        return entry + 1;
+    }
+  }
+
+  /**
+   * @return the entry of the value paired with <tt>key</tt> in the object
+   *          starting at <tt>object</tt>, or -1 if it has no such key.
+   */
+  public int find( int object, String key )
+  {
+    if( getEvent( object ) != JsonEvent.START_OBJECT )
+      throw new IllegalArgumentException( "Entry " + object + " is not the start of an object" );
+
+    int end = getMatch( object );
+
+    for( int entry = object+1; entry < end; )
+    {
+      if( getEvent( entry ) != JsonEvent.KEY )  // (an object without a key)
+      {
+        entry = skip( entry );
+        continue;
+      }
+
+      if( key.equals( getText( entry ) ) )
+        return entry + 1;
+
+      entry = skip( entry+1 );
+    }
+
+    return -1;
+  }
+
+  /**
+   * @return a reader of the events on the tape, in order.
+   */
+  public JsonEventReader reader()
+  {
+    return new JsonEventReader()
+    {
+      private int entry = -1;
+
+      @Override
+      public JsonEvent next()
+      {
+        return ( ++entry < size ) ? getEvent( entry ) : null;
+      }
+
+      @Override
+      public String getText() { return Tape.this.getText( entry ); }
+
+      @Override
+      public int getOffset() { return entry; }
+    };
+  }
+
+  private long entry( int entry )
+  {
+    if( entry < 0 || entry >= size )
+      throw new IndexOutOfBoundsException( "Entry " + entry + " of " + size );
+
+    return tape[ entry ];
+  }
+
+  private void append( JsonEvent event, long payload )
+  {
+    if( size == tape.length )
+      tape = Arrays.copyOf( tape, size * 2 );
+
+    tape[ size++ ] = ( long ) event.ordinal() << TYPE_SHIFT | payload;
+  }
+
+  /**
+   * @return where in the arena the token's text went.
+   */
+  private int appendText( Token token )
+  {
+    int text = used;
+
+    if( used + 2 + token.length() > arena.length )
+      arena = Arrays.copyOf( arena, Math.max( arena.length * 2, used + 2 + token.length() ) );
+
+    int length = token.getChars( arena, used+2 );
+
+    arena[ used ]   = ( char ) ( length >>> 16 );
+    arena[ used+1 ] = ( char ) length;
+    used += 2 + length;
+
+    return text;
+  }
+}
@@ -16,9 +16,21 @@
  */
 package com.perfectsearchcorp.parser;
 
+import java.util.Arrays;
+
+import com.perfectsearchcorp.scanner.JsonScanner;
+
 /**
  * A value can be either simply an identifier (a quoted string, number, etc.)
- * or an arbitrarily complex construct/element.
+ * or an arbitrarily complex construct/element, or else an array of values.
+ * <p />
+ * An array is one value, paired once with its key, rather than one pair
+ * per member each with its own copy of the key. Its members are kept in
+ * order in an array that grows by half.
+ * <p />
+ * A value got from <tt>JsonParser.parseLazily()</tt> may be an object or
+ * array not yet parsed, only where it lies being known. It's parsed, just
+ * as lazily, the first time it's asked for.
  *
  * @author Russell Bateman
  * @since December 2014
@@ -26,26 +38,160 @@ package com.perfectsearchcorp.parser;
 public class Value
 {
   private String  value;    // if scalar
+  private boolean suspect = true;  // (whether it may hold what XML doesn't allow)
   private Element element;  // if of hierarchical composition
+  private Value[] members;  // if an array
+  private int     size;     // (how many of them)
+
+  private JsonScanner source;       // if not parsed yet, the scanner it was skipped over by
+  private int         start;        // (offset of its opening brace or bracket)
+  private int         end;          // (offset just past its closing one)
+  private boolean     sourceArray;  // (whether it's an array)
 
   public Value() { }
   public Value( String value ) { this.value = value; }
   public Value( Element element ) { this.element = element; }
 
+  /**
+   * A scalar as parsed, whose token said whether it may hold a character
+   * XML doesn't allow (see <tt>Token.mayHoldIllegalXml()</tt>).
+   */
+  Value( String value, boolean suspect )
+  {
+    this.value   = value;
+    this.suspect = suspect;
+  }
+
+  /**
+   * An array of values, starting with these (there may be none).
+   */
+  public Value( Value[] members )
+  {
+    this.members = members;
+    this.size    = members.length;
+  }
+
+  /**
+   * An object or array to parse once asked for.
+   */
+  Value( JsonScanner source, int start, int end, boolean array )
+  {
+    this.source      = source;
+    this.start       = start;
+    this.end         = end;
+    this.sourceArray = array;
+  }
+
   public String getValue() { return value; }
-  public void setValue( String value ) { this.value = value; }
 
-  public Element getElement() { return element; }
+  public void setValue( String value )
+  {
+    this.value   = value;
+    this.suspect = true;
+  }
+
+  /**
+   * @return false if the scalar was parsed and found to hold no character
+   *          XML doesn't allow, true if it may (as any set some other way
+   *          may).
+   */
+  public boolean mayHoldIllegalXml() { return suspect; }
+
+  public Element getElement()
+  {
+    if( source != null )
+      parseSource();
+
+    return element;
+  }
+
   public void setElements( Element element ) { this.element = element; }
 
+  public boolean isArray() { return members != null || ( source != null && sourceArray ); }
+
+  /**
+   * @return how many members the array has (0 if not an array).
+   */
+  public int size()
+  {
+    if( source != null )
+      parseSource();
+
+    return size;
+  }
+
+  public Value getMember( int member )
+  {
+    if( source != null )
+      parseSource();
+
+    if( member < 0 || member >= size )
+      throw new IndexOutOfBoundsException( "Member " + member + " of " + size );
+
+    return members[ member ];
+  }
+
+  /**
+   * Add a member to the end of the array.
+   */
+  public void addMember( Value member )
+  {
+    if( source != null )
+      parseSource();
+
+    if( members == null )
+      throw new IllegalStateException( "Not an array" );
+
+    if( size == members.length )
+      members = Arrays.copyOf( members, Math.max( 4, size + ( size >> 1 ) ) );
+
+    members[ size++ ] = member;
+  }
+
+  /**
+   * Parse the object or array this value was skipped over as.
+   *
+   * @throws IllegalStateException if it's ill-formed, which skipping over
+   *          it didn't find out.
+   */
+  private void parseSource()
+  {
+    try
+    {
+      Value parsed = new JsonParser( source.scannerFrom( start, end ) ).parseValueLazily();
+
+      element = parsed.element;
+      members = parsed.members;
+      size    = parsed.size;
+      source  = null;
+    }
+    catch( ParserBrokenException e )
+    {
+      throw new IllegalStateException( "Lazily parsed value is ill-formed", e );
+    }
+  }
+
   public String toString()
   {
+    if( source != null )
+      parseSource();
+
     if( value != null )
       return "\"" + this.value + "\"";
 
     if ( element != null )
       return this.element.toString();
 
+    if( members != null )
+    {
+      StringBuilder sb = new StringBuilder( "[ " );
+
+      for( int member = 0; member < size; member++ )
+        sb.append( ( member > 0 ) ? ", " : "" ).append( members[ member ].toString() );
+
+      return sb.append( " ]" ).toString();
+    }
+
     return "null";
   }
 }
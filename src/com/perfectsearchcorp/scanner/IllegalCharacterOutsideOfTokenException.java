@@ -18,7 +18,8 @@ package com.perfectsearchcorp.scanner;
 
 /**
  * When encountering characters outside of an IDENT, complain that
- * the token being scanned is asemantic or asyntactic.
+ * the token being scanned is asemantic or asyntactic. Like
+ * <tt>NoMoreTokensException</tt>, it has no stack trace.
  *
  * @author Russell Bateman
  * @since December 2014
@@ -27,16 +28,16 @@ public class IllegalCharacterOutsideOfTokenException extends Exception
 {
   public IllegalCharacterOutsideOfTokenException()
   {
-    super();
+    super( null, null, false, false );
   }
 
   public IllegalCharacterOutsideOfTokenException( String message )
   {
-    super( message );
+    super( message, null, false, false );
   }
 
   public IllegalCharacterOutsideOfTokenException( String message, Throwable exception )
   {
-    super( message, exception );
+    super( message, exception, false, false );
   }
 }
@@ -0,0 +1,343 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.scanner;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Scanner fed UTF-8 content a chunk at a time, as it arrives from a socket
+ * or pipe, rather than handed the whole document at once. Chunks may split
+ * anywhere, even in the middle of a string, an escape sequence, a number
+ * or a multi-byte character.
+ * <p />
+ * After each <tt>feed()</tt>, call <tt>getNextToken()</tt> until it returns
+ * null, meaning the chunk is used up. A token lying wholly inside a chunk
+ * is scanned in place, just as by <tt>Utf8JsonScanner</tt>; only one cut
+ * by the end of a chunk is copied aside, and only its own bytes, until
+ * the rest of it arrives. So, however long the input, what's held onto
+ * between chunks is never more than the token in progress.
+ * <p />
+ * Once the input is over, call <tt>finish()</tt> and drain the tokens once
+ * more: a number or keyword ending the input could not be known to have
+ * ended before then.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class IncrementalJsonScanner
+{
+  private static final int NONE   = 0;  // not in the middle of a token
+  private static final int STRING = 1;  // in the middle of a string
+  private static final int SCALAR = 2;  // in the middle of a number or keyword
+
+  private static final byte[] BYTE_ORDER_MARK = { ( byte ) 0xEF, ( byte ) 0xBB, ( byte ) 0xBF };
+
+  private ByteBuffer chunk;                         // chunk being scanned
+  private int        pos;                           // next byte of it to scan
+  private long       consumed;                      // bytes in the chunks before it
+  private byte[]     pending = new byte[ 256 ];     // the token cut by the end of a chunk
+  private int        pendingLength;
+  private int        partial = NONE;                // what sort of token that is
+  private boolean    escapeNext;                    // (in a cut string) an unescaped backslash came last
+  private boolean    finished;
+  private int        mark;                          // bytes of a byte-order mark seen, -1 once past it
+  private int        maxPending = Integer.MAX_VALUE; // most of a cut token to hold onto
+  private Token      token = new Token();           // cursor reused for every token scanned
+
+  public IncrementalJsonScanner() { }
+
+  /**
+   * Hand over the next chunk of input, from its position to its limit. Its
+   * bytes must stay put until <tt>getNextToken()</tt> has returned null;
+   * after that, the buffer may be reused for the next chunk. Its position
+   * is moved to its limit.
+   *
+   * @throws IllegalStateException if the last chunk hasn't been used up.
+   */
+  public void feed( ByteBuffer input )
+  {
+    if( chunk != null && pos < chunk.limit() )
+      throw new IllegalStateException( "Previous chunk not yet scanned" );
+
+    if( chunk != null )
+      consumed += chunk.limit();
+
+    // (our own view, little-endian for reading eight bytes at a time)
+    chunk = input.slice().order( ByteOrder.LITTLE_ENDIAN );
+    pos   = 0;
+    ( ( Buffer ) input ).position( input.limit() );   // (Buffer's, which Java 8 has)
+
+    if( mark >= 0 )
+      skipByteOrderMark();
+  }
+
+  /**
+   * Say that there will be no more input.
+   */
+  public void finish()
+  {
+    if( mark > 0 )
+      notByteOrderMark( mark );
+
+    finished = true;
+  }
+
+  /**
+   * Scan the next token of what has been fed. The token returned is the
+   * same instance every time, repointed at the newly scanned text. It's
+   * only good until the next call.
+   *
+   * @return the next token or null if the input fed so far has been used
+   *          up (or, after <tt>finish()</tt>, if there are no more tokens).
+   * @throws NoMoreTokensException if the input finished in the middle of a
+   *          string or a token cut by the end of a chunk is longer than
+   *          allowed.
+   */
+  public Token getNextToken()
+      throws NoMoreTokensException, IllegalCharacterOutsideOfTokenException
+  {
+    int limit = ( chunk != null ) ? chunk.limit() : 0;
+
+    if( partial != NONE )
+    {
+      if( pos == limit )
+      {
+        if( !finished )
+          return null;
+
+        if( partial == STRING )
+          throw new NoMoreTokensException( "Stopped in middle of invalid token" );
+
+        // a number or keyword was the last thing in the input...
+        return scanPending( pos );
+      }
+
+      int end = ( partial == STRING ) ? findEndOfString( chunk, pos, limit ) : findEndOfScalar( chunk, pos, limit );
+
+      if( end < 0 )
+      {
+        append( pos, limit );
+        pos = limit;
+        return null;
+      }
+
+      append( pos, end );
+      return scanPending( end );
+    }
+
+    while( pos < limit && isWhite( chunk.get( pos ) ) )
+      pos++;
+
+    if( pos == limit )
+      return null;
+
+    switch( chunk.get( pos ) )
+    {
+      case '{' : case '}' : case '[' : case ']' : case ':' : case ',' :
+        break;
+
+      case '"' :
+        JsonScannerUtil.scan( chunk, pos, token );
+
+        if( token.getType() == TokenType.ERROR )
+        {
+          // the string goes on into the next chunk...
+          escapeNext = false;
+          findEndOfString( chunk, pos+1, limit );
+          return cut( STRING, limit );
+        }
+
+        pos += token.getScanned();
+        return token;
+
+      default :
+        if( findEndOfScalar( chunk, pos, limit ) < 0 )
+          return cut( SCALAR, limit );
+        break;
+    }
+
+    JsonScannerUtil.scanToken( chunk, pos, token );
+    pos += token.getScanned();
+
+    return token;
+  }
+
+  /**
+   * @return how many bytes, scanned or fed, have been used up.
+   */
+  public long getScanned() { return consumed + pos; }
+
+  /**
+   * @return how many bytes of a token cut by the end of a chunk are being
+   *          held onto.
+   */
+  public int getPendingLength() { return ( partial != NONE ) ? pendingLength : 0; }
+
+  /**
+   * How many bytes of a token cut by the end of a chunk may be held onto
+   * waiting for the rest of it. The limit is kept to as the bytes are set
+   * aside, before any more memory is spent on them, and the scanner gives
+   * up (<tt>NoMoreTokensException</tt>) rather than hold more.
+   */
+  public int getMaxPending() { return maxPending; }
+  public void setMaxPending( int bytes ) { this.maxPending = bytes; }
+
+  /**
+   * Skip a byte-order mark beginning the input. The chunks may split it
+   * too: what's come of it so far is held back until the rest shows
+   * whether it is one.
+   */
+  private void skipByteOrderMark()
+  {
+    int limit = chunk.limit();
+
+    while( mark < BYTE_ORDER_MARK.length && pos < limit && chunk.get( pos ) == BYTE_ORDER_MARK[ mark ] )
+    {
+      mark++;
+      pos++;
+    }
+
+    if( mark == BYTE_ORDER_MARK.length )
+    {
+      mark = -1;
+    }
+    else if( pos < limit )
+    {
+      // not one after all: this chunk is scanned from its beginning...
+      notByteOrderMark( mark - pos );
+      pos = 0;
+    }
+  }
+
+  /**
+   * Give up on a byte-order mark, <tt>held</tt> bytes of which came in the
+   * chunks before: they're the beginning of a token like any other.
+   */
+  private void notByteOrderMark( int held )
+  {
+    mark = -1;
+
+    if( held == 0 )
+      return;
+
+    partial       = SCALAR;
+    pendingLength = 0;
+
+    for( int at = 0; at < held; at++ )
+      appendByte( BYTE_ORDER_MARK[ at ] );
+  }
+
+  /**
+   * Set aside what's left of the chunk as the beginning of a token.
+   */
+  private Token cut( int type, int limit ) throws NoMoreTokensException
+  {
+    partial       = type;
+    pendingLength = 0;
+    append( pos, limit );
+    pos = limit;
+
+    return null;
+  }
+
+  /**
+   * Scan the token set aside now that it's complete.
+   *
+   * @param end where it ends in the current chunk.
+   */
+  private Token scanPending( int end ) throws IllegalCharacterOutsideOfTokenException
+  {
+    if( partial == SCALAR )
+      appendByte( ( byte ) ' ' );   // (so that its end can be found)
+
+    ByteBuffer bytes = ByteBuffer.wrap( pending, 0, pendingLength ).order( ByteOrder.LITTLE_ENDIAN );
+
+    partial = NONE;
+    pos     = end;
+    JsonScannerUtil.scanToken( bytes, 0, token );
+
+    return token;
+  }
+
+  /**
+   * @return offset just past the double quote closing the string, or -1
+   *          if it's not to be found before <tt>limit</tt>.
+   */
+  private int findEndOfString( ByteBuffer buffer, int from, int limit )
+  {
+    for( int at = from; at < limit; at++ )
+    {
+      byte character = buffer.get( at );
+
+      if( escapeNext )
+        escapeNext = false;
+      else if( character == '\\' )
+        escapeNext = true;
+      else if( character == '"' )
+        return at+1;
+    }
+
+    return -1;
+  }
+
+  /**
+   * @return offset of the white space or punctuation ending a number or
+   *          keyword, or -1 if it's not to be found before <tt>limit</tt>.
+   */
+  private static int findEndOfScalar( ByteBuffer buffer, int from, int limit )
+  {
+    for( int at = from; at < limit; at++ )
+    {
+      if( JsonScannerUtil.isDelimiter( buffer.get( at ) ) )
+        return at;
+    }
+
+    return -1;
+  }
+
+  private static boolean isWhite( byte character )
+  {
+    return( character == ' ' || character == '\n' || character == '\r' || character == '\t' );
+  }
+
+  private void append( int from, int to ) throws NoMoreTokensException
+  {
+    int length = to - from;
+
+    if( pendingLength + length > maxPending )
+      throw new NoMoreTokensException( "Token longer than " + maxPending + " bytes" );
+
+    if( pendingLength + length > pending.length )
+      pending = Arrays.copyOf( pending, Math.max( Math.min( pending.length * 2, maxPending ), pendingLength + length ) );
+
+    ByteBuffer source = chunk.duplicate();
+    ( ( Buffer ) source ).position( from ).limit( to );
+    source.get( pending, pendingLength, length );
+    pendingLength += length;
+  }
+
+  private void appendByte( byte character )
+  {
+    if( pendingLength == pending.length )
+      pending = Arrays.copyOf( pending, pending.length * 2 );
+
+    pending[ pendingLength++ ] = character;
+  }
+}
@@ -0,0 +1,193 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.scanner;
+
+/**
+ * Scanner that, instead of stepping through white space and looking at
+ * each character to decide what comes next, walks the index built by
+ * <tt>StructuralIndexer</tt>, which says where every token begins. A
+ * string's closing quote is its next entry in the index; only numbers
+ * and keywords are still delimited by reading their characters.
+ * <p />
+ * Use it in place of <tt>JsonScanner</tt> when handing a scanner to
+ * <tt>JsonParser</tt>; it produces the very same tokens. Measure before
+ * choosing it (see <tt>IndexedScannerBenchmark</tt>): on a Java whose
+ * <tt>String.indexOf()</tt> is vectorized, which <tt>JsonScanner</tt>
+ * uses to cross strings, documents made mostly of long strings scan
+ * faster with <tt>JsonScanner</tt>.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class IndexedJsonScanner extends JsonScanner
+{
+  private StructuralIndexer indexer;
+  private int[]             positions = new int[ StructuralIndexer.BLOCK_SIZE ];
+  private int               count;    // offsets in the current block of the index
+  private int               next;     // next of them to consume
+  private int               error = -1;  // where what can't be a token was come upon...
+  private String            problem;     // ...and why
+
+  public IndexedJsonScanner( String input )
+  {
+    super( input );
+    indexer = new StructuralIndexer( input );
+  }
+
+  @Override
+  protected void scanToken( int starting, Token token )
+  {
+    // (where it stopped has been consumed from the index, so it's remembered)
+    if( error >= 0 )
+    {
+      token.stop( TokenType.ERROR, error, problem );
+      return;
+    }
+
+    String    content = getContent();
+    int       pos     = nextPosition();
+    TokenType type;
+
+    if( pos < 0 )
+    {
+      token.stop( TokenType.END, getContentLength(), JsonScannerUtil.NO_MORE_TOKENS );
+      return;
+    }
+
+    switch( content.charAt( pos ) )
+    {
+      case '"' :
+        int text  = pos+1;
+        int close = nextPosition();
+
+        if( close < 0 )
+        {
+          token.stop( TokenType.ERROR, pos, JsonScannerUtil.UNTERMINATED );
+          stopped( token );
+          return;
+        }
+
+        token.set( content, TokenType.IDENT, text, close - text,
+                      JsonScannerUtil.hasEscapes( content, text, close, token ), close - starting + 1 );
+        token.quoted = true;
+        return;
+
+      case '{' : type = TokenType.OPEN_BRACE;    break;
+      case '}' : type = TokenType.CLOSE_BRACE;   break;
+      case '[' : type = TokenType.OPEN_BRACKET;  break;
+      case ']' : type = TokenType.CLOSE_BRACKET; break;
+      case ':' : type = TokenType.COLON;         break;
+      case ',' : type = TokenType.COMMA;         break;
+
+      default :
+        // a number or keyword: the scanner proper knows how to delimit those...
+        JsonScannerUtil.scan( content, pos, token );
+
+        if( token.getType() == TokenType.ERROR )
+          stopped( token );
+        else
+          token.scanned += pos - starting;
+        return;
+    }
+
+    token.set( content, type, pos, 1, false, pos - starting + 1 );
+  }
+
+  /**
+   * The index already says where every brace, bracket and string is, so
+   * matching is a walk through it. It must be walked anyway to stay in step
+   * with the content.
+   */
+  @Override
+  protected int findMatchingClose( int open )
+  {
+    String content = getContent();
+    int    depth   = 1;         // (the opening one's offset was already consumed)
+
+    while( true )
+    {
+      int pos = nextPosition();
+
+      if( pos < 0 )
+        return -1;
+
+      switch( content.charAt( pos ) )
+      {
+        case '{' : case '[' :
+          depth++;
+          break;
+        case '}' : case ']' :
+          if( --depth == 0 )
+            return pos;
+          break;
+        case '"' :
+          if( nextPosition() < 0 )  // (its closing quote)
+            return -1;
+          break;
+      }
+    }
+  }
+
+  /**
+   * The index must be walked in step with the content, so the next token
+   * is never taken without it.
+   */
+  @Override
+  public Token nextTokenIf( String text )
+  {
+    return null;
+  }
+
+  /**
+   * Only the content is shared: the index can't be, so the new scanner is
+   * a plain one.
+   */
+  @Override
+  public JsonScanner scannerFrom( int starting )
+  {
+    return new JsonScanner( getContent(), starting );
+  }
+
+  /**
+   * Remember where the token stopped short, so as to stop there again.
+   */
+  private void stopped( Token token )
+  {
+    error   = token.start();
+    problem = token.getProblem();
+  }
+
+  /**
+   * @return the next offset in the index, indexing another block if need be,
+   *          or -1 if the index is exhausted.
+   */
+  private int nextPosition()
+  {
+    while( next == count )
+    {
+      if( ( count = indexer.indexNextBlock( positions ) ) < 0 )
+      {
+        count = next = 0;
+        return -1;
+      }
+
+      next = 0;
+    }
+
+    return positions[ next++ ];
+  }
+}
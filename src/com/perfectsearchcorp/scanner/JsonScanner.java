@@ -16,9 +16,6 @@
  */
 package com.perfectsearchcorp.scanner;
 
-import java.util.LinkedList;
-import java.util.List;
-
 /**
  * Scans and manages tokenization.
  *
@@ -28,10 +25,11 @@ import java.util.List;
 @SuppressWarnings( "unused" )
 public class JsonScanner
 {
-  private String              content;  // content buffer
-  private int                 previous; // beginning of previous token (unused?)
-  private int                 scanned;  // total characters scanned
-  private LinkedList< Token > pushed = new LinkedList<>();
+  private String  content;              // content buffer
+  private int     previous;             // beginning of previous token (unused?)
+  private int     scanned;              // total characters scanned
+  private Token   token = new Token();  // cursor reused for every token scanned
+  private Token   pushed;               // single-slot lookahead
 
   public JsonScanner() { }
 
@@ -42,64 +40,249 @@ public class JsonScanner
   }
 
   /**
-   * If there is one or more pushed tokens on the stack, pop the last
-   * one pushed and return.
+   * Scan the content beginning at <tt>starting</tt> rather than at its
+   * beginning.
+   */
+  public JsonScanner( String input, int starting )
+  {
+    this.content = input;
+    this.scanned = starting;
+  }
+
+  /**
+   * @return a new scanner over the same content beginning at <tt>starting</tt>
+   *          (an offset like those of the tokens this one returns). This one
+   *          is left where it is.
+   */
+  public JsonScanner scannerFrom( int starting )
+  {
+    return new JsonScanner( content, starting );
+  }
+
+  /**
+   * Same as <tt>scannerFrom( int )</tt>, but for scanning only as far as
+   * <tt>ending</tt>, e.g.: the end of one object: nothing is looked for
+   * beyond it, so that making a scanner for each of many costs no more
+   * than scanning them all with one.
+   */
+  public JsonScanner scannerFrom( int starting, int ending )
+  {
+    JsonScanner scanner = scannerFrom( starting );
+
+    scanner.token.horizon = ending;
+
+    return scanner;
+  }
+
+  /**
+   * If there is a pushed token, pop it and return.
    *
    * Walk the content beginning at current. Analyze and return the next
    * token. Reset current to point at rest of unanalyzed content and
-   * return the newly scanned token.
+   * return the newly scanned token. The content is never copied: the
+   * scanner works in place on it, so the cost of each token is only
+   * proportional to its own length.
+   * <p />
+   * The token returned is the same instance every time, repointed at the
+   * newly scanned text. It's only good until the next call.
    *
    * @return the next token discovered.
    *
-   * @throws IndexOutOfBoundsException
+   * @throws NoMoreTokensException
    *          Means either that there are no more tokens or that analysis
    *          ended in mid-token because run out of characters and, therefore,
    *          that the emerging token was ill-formed (and therefore the JSON
    *          document as well).
+   * @throws IllegalCharacterOutsideOfTokenException
+   *          if what's next can't be a token.
    */
   public Token getNextToken()
       throws NoMoreTokensException, IllegalCharacterOutsideOfTokenException
+  {
+    Token token = nextToken();
+
+    switch( token.getType() )
+    {
+      case END :
+        throw new NoMoreTokensException( token.getProblem() );
+      case ERROR :
+        if( token.getProblem() == JsonScannerUtil.UNTERMINATED )
+          throw new NoMoreTokensException( "Stopped in middle of invalid token" );
+        throw new IllegalCharacterOutsideOfTokenException( token.getProblem() );
+    }
+
+    return token;
+  }
+
+  /**
+   * Same as <tt>getNextToken()</tt>, but never throwing: once there are no
+   * more tokens, the token returned is of type <tt>END</tt>; where what's
+   * next can't be a token, of type <tt>ERROR</tt>, <tt>getProblem()</tt>
+   * saying why. Neither is consumed, so that asking again returns the same.
+   * <p />
+   * This is what a parser should call: reaching the end of the content,
+   * and, in a feed where many documents are ill-formed, coming upon errors
+   * happens all the time and mustn't cost an exception each.
+   */
+  public Token nextToken()
   {
     Token token = popToken();
 
     if( token != null )
       return token;
 
-    try
+    token = this.token;
+    scanToken( scanned, token );
+    previous = scanned;
+    scanned += token.getScanned();
+
+    return token;
+  }
+
+  /**
+   * Same as <tt>nextToken()</tt>, but only if the next token is the string
+   * <tt>text</tt>, which mustn't hold a double quote or backslash: the
+   * content is compared with it in place rather than scanned, and the
+   * token's text is <tt>text</tt> itself, not copied out of the content.
+   * This is for a parser expecting a particular key.
+   *
+   * @return the token or null if the next one is anything else, in which
+   *          case nothing is consumed.
+   */
+  public Token nextTokenIf( String text )
+  {
+    if( pushed != null )
+      return null;
+
+    int length = getContentLength();
+    int pos    = scanned;
+
+    while( pos < length && isWhiteSpace( pos ) )
+      pos++;
+
+    int close = pos + text.length() + 1;
+
+    if( close >= length || !matchString( pos, close, text, token ) )
+      return null;
+
+    token.quoted  = true;
+    token.token   = text;
+    token.scanned = close+1 - scanned;
+    previous = scanned;
+    scanned  = close+1;
+
+    return token;
+  }
+
+  /**
+   * If the content holds <tt>text</tt> between double quotes at
+   * <tt>open</tt> and <tt>close</tt>, point the token at it. Scanners over
+   * other content override this.
+   *
+   * @return whether it does.
+   */
+  protected boolean matchString( int open, int close, String text, Token token )
+  {
+    if( content.charAt( open ) != '"' || content.charAt( close ) != '"'
+        || !content.regionMatches( open+1, text, 0, text.length() ) )
+      return false;
+
+    token.set( content, TokenType.IDENT, open+1, text.length(), false, 0 );
+    return true;
+  }
+
+  /**
+   * Point the token at the next one beginning at or after <tt>starting</tt>,
+   * or stop it there (see <tt>Token.stop()</tt>). Scanners finding tokens
+   * some other way override this.
+   *
+   * @param starting offset in the content.
+   * @param token to set; its scanned count is relative to <tt>starting</tt>.
+   */
+  protected void scanToken( int starting, Token token )
+  {
+    JsonScannerUtil.scan( content, starting, token );
+  }
+
+  /**
+   * Skip past the object or array whose opening brace or bracket, at offset
+   * <tt>open</tt>, was the last token got, without tokenizing what's in it.
+   * The next token got is whatever follows its closing brace or bracket.
+   *
+   * @throws NoMoreTokensException if it's never closed.
+   */
+  public void skipValue( int open ) throws NoMoreTokensException
+  {
+    int close;
+
+    pushed = null;
+
+    if( ( close = findMatchingClose( open ) ) < 0 )
+      throw new NoMoreTokensException( "Stopped in middle of invalid token" );
+
+    previous = open;
+    scanned  = close + 1;
+  }
+
+  /**
+   * @return the offset of the brace or bracket closing the one at
+   *          <tt>open</tt> or -1 if the content runs out first. Scanners
+   *          finding tokens some other way override this.
+   */
+  protected int findMatchingClose( int open )
+  {
+    return JsonScannerUtil.indexOfMatchingClose( content, open );
+  }
+
+  /**
+   * @return true if nothing but white space is left to scan.
+   */
+  public boolean isExhausted()
+  {
+    if( pushed != null )
+      return false;
+
+    for( int pos = scanned; pos < getContentLength(); pos++ )
     {
-      token = JsonScannerUtil.scanToken( content.substring( scanned ) );
-      previous = scanned;
-      scanned += token.getScanned();
+      if( !isWhiteSpace( pos ) )
+        return false;
     }
-    catch( IndexOutOfBoundsException e )
+
+    return true;
+  }
+
+  /**
+   * @return whether the content at <tt>pos</tt> is white space. Scanners
+   *          over other content override this.
+   */
+  protected boolean isWhiteSpace( int pos )
+  {
+    switch( content.charAt( pos ) )
     {
-      // TODO: check the validity of this assertion:
-      // TODO: reveal clues as to which token halted processing?
-      if( scanned < content.length() )
-        throw new NoMoreTokensException( "Stopped in middle of invalid token", e );
-      else
-        throw new NoMoreTokensException( "No more tokens to scan", e );
+      case ' ' : case '\t' : case '\n' : case '\r' : return true;
+      default :                                     return false;
     }
-
-    return token;
   }
 
   /**
-   * For use by the caller.
+   * For use by the caller. There's room for only one token: pushing
+   * another before getting this one back replaces it.
    * @param token already got and wanted next time <tt>getNextToken()</tt> is called.
    */
   public void pushToken( Token token )
   {
-    pushed.addFirst( token );
+    pushed = token;
   }
 
   private Token popToken()
   {
-    if( pushed.size() < 1 )
-      return null;
+    Token token = pushed;
 
-    return pushed.getFirst();
+    pushed = null;
+    return token;
   }
 
   public int getScanned() { return scanned; }
+  protected String getContent() { return content; }
+  protected int getContentLength() { return content.length(); }
 }
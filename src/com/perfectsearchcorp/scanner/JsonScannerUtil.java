@@ -16,6 +16,11 @@
  */
 package com.perfectsearchcorp.scanner;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Heavy lifting for JsonScanner.
  *
@@ -24,6 +29,90 @@ package com.perfectsearchcorp.scanner;
  */
 public class JsonScannerUtil
 {
+  /* Character classes for the table-driven scanning of numbers and of
+   * the keywords null, true and false. Anything beyond ASCII is OTHER.
+   */
+  private static final byte OTHER     = 0;
+  private static final byte WHITE     = 1;  // space, tab, newline, carriage return
+  private static final byte DELIMITER = 2;  // , : } ]
+  private static final byte DIGIT     = 3;
+  private static final byte SIGN      = 4;  // + -
+  private static final byte POINT     = 5;
+  private static final byte EXPONENT  = 6;  // e E
+  private static final byte HEX       = 7;  // a-d f A-D F
+
+  private static final byte[] CHARACTER_CLASSES = new byte[ 128 ];
+
+  static
+  {
+    CHARACTER_CLASSES[ ' '  ] = WHITE;
+    CHARACTER_CLASSES[ '\t' ] = WHITE;
+    CHARACTER_CLASSES[ '\n' ] = WHITE;
+    CHARACTER_CLASSES[ '\r' ] = WHITE;
+    CHARACTER_CLASSES[ ',' ]  = DELIMITER;
+    CHARACTER_CLASSES[ ':' ]  = DELIMITER;
+    CHARACTER_CLASSES[ '}' ]  = DELIMITER;
+    CHARACTER_CLASSES[ ']' ]  = DELIMITER;
+    CHARACTER_CLASSES[ '+' ]  = SIGN;
+    CHARACTER_CLASSES[ '-' ]  = SIGN;
+    CHARACTER_CLASSES[ '.' ]  = POINT;
+    CHARACTER_CLASSES[ 'e' ]  = EXPONENT;
+    CHARACTER_CLASSES[ 'E' ]  = EXPONENT;
+
+    for( char digit = '0'; digit <= '9'; digit++ )
+      CHARACTER_CLASSES[ digit ] = DIGIT;
+    for( char hex : "abcdfABCDF".toCharArray() )
+      CHARACTER_CLASSES[ hex ] = HEX;
+  }
+
+  /* States of the number recognizer. Beyond what JSON allows (sign, integer,
+   * fraction, exponent) we go on tolerating what this scanner always has:
+   * a leading plus sign or decimal point and hexadecimal digits.
+   */
+  private static final byte REJECT         = 0;
+  private static final byte START          = 1;
+  private static final byte SIGNED         = 2;
+  private static final byte INTEGER        = 3;
+  private static final byte DECIMAL_POINT  = 4;
+  private static final byte FRACTION       = 5;
+  private static final byte EXPONENT_MARK  = 6;
+  private static final byte EXPONENT_SIGN  = 7;
+  private static final byte POWER          = 8;
+  private static final byte HEXADECIMAL    = 9;
+
+  private static final byte[][] NUMBER_TRANSITIONS =
+  {
+    /*                 OTHER   WHITE   DELIM   DIGIT          SIGN           POINT          EXPONENT       HEX         */
+    /* REJECT        */ { REJECT, REJECT, REJECT, REJECT,        REJECT,        REJECT,        REJECT,        REJECT      },
+    /* START         */ { REJECT, REJECT, REJECT, INTEGER,       SIGNED,        DECIMAL_POINT, HEXADECIMAL,   HEXADECIMAL },
+    /* SIGNED        */ { REJECT, REJECT, REJECT, INTEGER,       REJECT,        DECIMAL_POINT, REJECT,        REJECT      },
+    /* INTEGER       */ { REJECT, REJECT, REJECT, INTEGER,       REJECT,        DECIMAL_POINT, EXPONENT_MARK, HEXADECIMAL },
+    /* DECIMAL_POINT */ { REJECT, REJECT, REJECT, FRACTION,      REJECT,        REJECT,        REJECT,        REJECT      },
+    /* FRACTION      */ { REJECT, REJECT, REJECT, FRACTION,      REJECT,        REJECT,        EXPONENT_MARK, REJECT      },
+    /* EXPONENT_MARK */ { REJECT, REJECT, REJECT, POWER,         EXPONENT_SIGN, REJECT,        HEXADECIMAL,   HEXADECIMAL },
+    /* EXPONENT_SIGN */ { REJECT, REJECT, REJECT, POWER,         REJECT,        REJECT,        REJECT,        REJECT      },
+    /* POWER         */ { REJECT, REJECT, REJECT, POWER,         REJECT,        REJECT,        REJECT,        REJECT      },
+    /* HEXADECIMAL   */ { REJECT, REJECT, REJECT, HEXADECIMAL,   REJECT,        REJECT,        HEXADECIMAL,   HEXADECIMAL },
+  };
+
+  private static final boolean[] ACCEPTING =
+  {
+    false, false, false, true, false, true, false, false, true, true
+  };
+
+  /* What's wrong when scanning stops short of a token (see Token.getProblem()).
+   * These are constants so that saying so costs nothing.
+   */
+  static final String NO_MORE_TOKENS   = "No more tokens to scan";
+  static final String UNTERMINATED     = "Unterminated string";
+  static final String GROSSLY_INVALID  = "Suspected number is grossly invalid";
+  static final String NO_END_OF_NUMBER = "Cannot delimit end of suspected number";
+  static final String PREMATURE_END    = "Premature end of identifier";
+
+  private static final int INVALID   = -1;  // (what endOfNumber() and keywordAt() return...)
+  private static final int NO_END    = -2;
+  private static final int PREMATURE = -3;  // (...and a keyword's NO_END)
+
   /**
    * Grind through the content buffer sorting out the next token.
    * Remember, this is only a scanner not a parser: we do not make
@@ -39,40 +128,92 @@ public class JsonScannerUtil
   public static Token scanToken( String buffer )
       throws IndexOutOfBoundsException, IllegalCharacterOutsideOfTokenException
   {
-    int       pos = 0, scanned = 0;
-    boolean   done = false;
-    String    tokenString = null;
-    Token     token = null;
-    TokenType type = TokenType.UNKNOWN;
+    return scanToken( buffer, 0 );
+  }
+
+  /**
+   * Same as <tt>scanToken( String )</tt>, but works in place on the whole
+   * content buffer beginning at <tt>starting</tt> instead of on a copy of
+   * what remains of it. The cost of scanning a token is therefore that of
+   * the token itself (and any white space in front of it), never that of
+   * the rest of the document.
+   *
+   * @param buffer the entire content buffer.
+   * @param starting offset of the next token to scan (or, white space before it).
+   * @return the next analyzed token; its scanned count is relative to <tt>starting</tt>.
+   * @throws IndexOutOfBoundsException, IllegalCharacterOutsideOfTokenException
+   */
+  public static Token scanToken( String buffer, int starting )
+      throws IndexOutOfBoundsException, IllegalCharacterOutsideOfTokenException
+  {
+    Token token = new Token();
+
+    scanToken( buffer, starting, token );
+
+    return token;
+  }
+
+  /**
+   * Same as <tt>scanToken( String, int )</tt>, but rather than allocating
+   * a new token, points the one passed in at what was found. Nothing is
+   * copied out of the buffer.
+   *
+   * @param buffer the entire content buffer.
+   * @param starting offset of the next token to scan (or, white space before it).
+   * @param token to set to the next analyzed token; its scanned count is relative
+   *          to <tt>starting</tt>.
+   * @throws IndexOutOfBoundsException, IllegalCharacterOutsideOfTokenException
+   */
+  public static void scanToken( String buffer, int starting, Token token )
+      throws IndexOutOfBoundsException, IllegalCharacterOutsideOfTokenException
+  {
+    scan( buffer, starting, token );
+    raise( token );
+  }
+
+  /**
+   * Same as <tt>scanToken( String, int, Token )</tt>, but never throwing:
+   * running out of content, before or in the middle of a token, and what
+   * can't be a token at all are told by the token's type, <tt>END</tt> or
+   * <tt>ERROR</tt>, and its problem. A scanner calls this for every token,
+   * so finding the end of the document mustn't cost an exception.
+   */
+  static void scan( String buffer, int starting, Token token )
+  {
+    int       length = buffer.length();
+    int       pos    = starting;
+    TokenType type;
 
 got_token :
-    while( !done )
+    while( true )
     {
+      if( pos == length )
+      {
+        token.stop( TokenType.END, pos, NO_MORE_TOKENS );
+        return;
+      }
+
       char character = buffer.charAt( pos );
 
       switch( character )
       {
         default :
-          String chokeUp = buffer.substring( pos );
-
-          String keyword;
-
-          if( ( keyword = isNullTrueOrFalse( chokeUp ) ) != null )
-          {
-            scanned += keyword.length();
-            return new Token( keyword, TokenType.IDENT, scanned );
-          }
-          // fall through to inspect as number...
+          int end = keywordAt( buffer, pos );
 
-          String number;
+          if( end == INVALID )
+            // not a keyword: inspect as number...
+            end = endOfNumber( buffer, pos );
+          else if( end == NO_END )
+            end = PREMATURE;
 
-          if( ( number = /*Eat.*/eatToSpaceAfterNumber( chokeUp ) ) != null )
+          if( end < 0 )
           {
-            scanned += number.length();
-            return new Token( number, TokenType.IDENT, scanned );
+            token.stop( TokenType.ERROR, pos, problem( end ) );
+            return;
           }
 
-          throw new IllegalCharacterOutsideOfTokenException( "Unexpected input" );
+          token.set( buffer, TokenType.IDENT, pos, end - pos, false, end - starting );
+          return;
 
         case '"' :
           /* JSON is all about key-value pairs which are delimited
@@ -83,169 +224,1122 @@ got_token :
            * that includes the backslashes for escaped characters
            * plus the token delimiters (").
            */
-          String eaten = /*Eat.*/eatToDoubleQuote( buffer, pos+1 );
-          scanned += 1 + eaten.length() + 1;
-          return new Token( eaten, TokenType.IDENT, scanned );
+          scanString( buffer, starting, pos, token );
+          return;
 
-        case '{' : tokenString = "{"; type = TokenType.OPEN_BRACE;    done = true; break got_token;
-        case '}' : tokenString = "}"; type = TokenType.CLOSE_BRACE;   done = true; break got_token;
-        case '[' : tokenString = "["; type = TokenType.OPEN_BRACKET;  done = true; break got_token;
-        case ']' : tokenString = "]"; type = TokenType.CLOSE_BRACKET; done = true; break got_token;
-        case ':' : tokenString = ":"; type = TokenType.COLON;         done = true; break got_token;
-        case ',' : tokenString = ","; type = TokenType.COMMA;         done = true; break got_token;
+        case '{' : type = TokenType.OPEN_BRACE;    break got_token;
+        case '}' : type = TokenType.CLOSE_BRACE;   break got_token;
+        case '[' : type = TokenType.OPEN_BRACKET;  break got_token;
+        case ']' : type = TokenType.CLOSE_BRACKET; break got_token;
+        case ':' : type = TokenType.COLON;         break got_token;
+        case ',' : type = TokenType.COMMA;         break got_token;
 
         case ' ' :
         case '\n' :
+        case '\r' :
         case '\t' :
           // skip white space...
           pos++;
-          scanned++;
       }
     }
 
     /* Non-identifier tokens scanned: adjust the scanned count for
      * any white space ignored.
      */
-    token = new Token( tokenString, type, scanned+1 );
-    return token;
+    token.set( buffer, type, pos, 1, false, pos - starting + 1 );
   }
 
   /**
-   * Simple delimit the identifier up to, but not including
-   * the double quote at its end.
+   * @return what's wrong given what <tt>endOfNumber()</tt> or
+   *          <tt>keywordAt()</tt> returned.
    */
-  public static String eatToDoubleQuote( String buffer, int starting ) throws IndexOutOfBoundsException
+  private static String problem( int end )
+  {
+    switch( end )
+    {
+      case INVALID : return GROSSLY_INVALID;
+      case NO_END :  return NO_END_OF_NUMBER;
+      default :      return PREMATURE_END;
+    }
+  }
+
+  /**
+   * Throw what scanning always has when it stops short of a token: an
+   * <tt>IndexOutOfBoundsException</tt> if it runs out of content, else an
+   * <tt>IllegalCharacterOutsideOfTokenException</tt>.
+   */
+  private static void raise( Token token )
+      throws IndexOutOfBoundsException, IllegalCharacterOutsideOfTokenException
+  {
+    if( !token.isStop() )
+      return;
+
+    if( token.type == TokenType.END || token.problem == UNTERMINATED )
+      throw new IndexOutOfBoundsException( token.problem );
+
+    throw new IllegalCharacterOutsideOfTokenException( token.problem );
+  }
+
+  /**
+   * Point the token at the string whose opening double quote is at
+   * <tt>open</tt>. Most strings contain no backslash: for those, finding
+   * the closing quote is a single bulk search and the text is later
+   * materialized by a single copy. To know whether there is a backslash
+   * without looking at every character, the token remembers where the
+   * next one in the buffer is, which we look up again only once we've
+   * scanned past it.
+   */
+  private static void scanString( String buffer, int starting, int open, Token token )
+  {
+    int text  = open+1;
+    int close = indexOfClosingQuote( buffer, text );
+
+    if( close < 0 )
+    {
+      token.stop( TokenType.ERROR, open, UNTERMINATED );
+      return;
+    }
+
+    token.set( buffer, TokenType.IDENT, text, close - text, hasEscapes( buffer, text, close, token ), close - starting + 1 );
+    token.quoted = true;
+  }
+
+  /**
+   * @return true if there is a backslash between <tt>text</tt> and
+   *          <tt>close</tt>, consulting (and, if need be, updating) the
+   *          token's note of where the next one is.
+   * <p />
+   * A scanner over only part of the buffer, e.g.: one object in it, has
+   * no business looking for the next backslash beyond that part: were a
+   * scanner made for each of many such, looking as far as the end of the
+   * buffer, which has none, would cost each of them the rest of the
+   * buffer. The token's horizon says how far it may look.
+   */
+  static boolean hasEscapes( String buffer, int text, int close, Token token )
   {
-    int pos = starting;
-    boolean done = false;
-    StringBuilder accepted = new StringBuilder();
+    if( token.buffer != buffer || token.backslash < text )
+    {
+      int backslash = ( token.horizon == Integer.MAX_VALUE )
+                        ? buffer.indexOf( '\\', text )
+                        : indexOf( buffer, '\\', text, token.horizon );
+      token.backslash = ( backslash < 0 ) ? token.horizon : backslash;
+    }
+
+    return( token.backslash < close );
+  }
 
-    finished_identifier :
-    while( !done )
+  /**
+   * @return true if any character from <tt>start</tt> up to <tt>end</tt> is
+   *          one XML doesn't allow (see <tt>Token.mayHoldIllegalXml()</tt>).
+   *          No library method looks for a range of characters, so this
+   *          looks at one at a time.
+   */
+  static boolean hasIllegalXml( CharSequence buffer, int start, int end )
+  {
+    for( int pos = start; pos < end; pos++ )
     {
       char character = buffer.charAt( pos );
 
-      switch( character )
-      {
-        case '\\' : // ignore this character, accept following...
-          pos++;
-          character = buffer.charAt( pos );
-          /* fall through on purpose... */
+      // (one comparison for most: U+FFFE and U+FFFF wrap around to below a space)
+      if( ( char ) ( character + 2 ) < 0x22
+          && character != '\t' && character != '\n' && character != '\r' )
+        return true;
+    }
 
-        default :
-          accepted.append( character );
-          break;
+    return false;
+  }
 
-        case '"' : // ends a token in progress
-          done = true;
-          break finished_identifier;
-      }
+  /**
+   * @return offset of the first <tt>character</tt> from <tt>from</tt> up to
+   *          <tt>to</tt>, or -1.
+   */
+  private static int indexOf( String buffer, char character, int from, int to )
+  {
+    int end = Math.min( to, buffer.length() );
 
-      pos++;
+    for( int pos = from; pos < end; pos++ )
+    {
+      if( buffer.charAt( pos ) == character )
+        return pos;
     }
 
-    return accepted.toString();
+    return -1;
   }
 
   /**
-   * Here we will scan for IDENT up to the next space or newline
-   * on condition that it be something like:
+   * @param buffer the entire content buffer.
+   * @param starting offset just after the opening double quote.
+   * @return offset of the double quote that ends the string, skipping any
+   *          escaped by a backslash.
+   * @throws IndexOutOfBoundsException if the string is never closed.
+   */
+  public static int findClosingQuote( String buffer, int starting ) throws IndexOutOfBoundsException
+  {
+    int close = indexOfClosingQuote( buffer, starting );
+
+    if( close < 0 )
+      throw new IndexOutOfBoundsException( UNTERMINATED );
+
+    return close;
+  }
+
+  /**
+   * Same as <tt>findClosingQuote()</tt>, but returning -1 if the string is
+   * never closed.
+   */
+  private static int indexOfClosingQuote( String buffer, int starting )
+  {
+    int close = starting-1;
+
+    do
+    {
+      if( ( close = buffer.indexOf( '"', close+1 ) ) < 0 )
+        return -1;
+    }
+    while( isEscaped( buffer, starting, close ) );
+
+    return close;
+  }
+
+  /**
+   * Find the brace or bracket closing the one at <tt>open</tt> without
+   * tokenizing anything in between: only braces, brackets and double quotes
+   * are looked at, and whole strings are crossed at once so that what's in
+   * them doesn't count. Whether each closing brace or bracket is the right
+   * kind isn't checked; that's left for whoever parses the stretch later.
    *
-   * <ul>
-   * <li> 42 </li>
-   * <li> -42 </li>
-   * <li> +42 </li>
-   * <li> .42 </li>
-   * <li> 42.0 </li>
-   * <li> -42.0 </li>
-   * <li> 4.2E+1 </li>
-   * <li> hexadecimal numbers </li>
-   * <li> etc. </li>
-   * </ul>
+   * @param buffer the entire content buffer.
+   * @param open offset of the opening brace or bracket.
+   * @return offset of the matching closing one.
+   * @throws IndexOutOfBoundsException if it's never closed.
    */
-  public static String eatToSpaceAfterNumber( String buffer )
-      throws IllegalCharacterOutsideOfTokenException
+  public static int findMatchingClose( String buffer, int open ) throws IndexOutOfBoundsException
   {
-    int end = findEnd( buffer );
+    return checkMatchingClose( indexOfMatchingClose( buffer, open ) );
+  }
 
-    if( end == -1 )
-      throw new IllegalCharacterOutsideOfTokenException( "Cannot delimit end of suspected number" );
+  /**
+   * Same as <tt>findMatchingClose( String, int )</tt>, but returning -1 if
+   * it's never closed.
+   */
+  static int indexOfMatchingClose( String buffer, int open )
+  {
+    int length = buffer.length();
+    int depth  = 0;
 
-    /* Make sure only that every character found is a valid
-     * participant--we're not actually trying to validate
-     * the JSON we're filtering.
-     * TODO: do we want to go as far as to validate it?
-     */
-    for( int pos = 0; pos < end-1; pos++ )
+    for( int pos = open; pos < length; pos++ )
     {
       switch( buffer.charAt( pos ) )
       {
-        case '-' : case '+' : case '.' :
-        case '0' : case '1' : case '2' : case '3' : case '4' :
-        case '5' : case '6' : case '7' : case '8' : case '9' :
-        case 'a' : case 'b' : case 'c' : case 'd' : case 'e' : case 'f' :
-        case 'A' : case 'B' : case 'C' : case 'D' : case 'E' : case 'F' :
+        case '{' : case '[' :
+          depth++;
+          break;
+        case '}' : case ']' :
+          if( --depth == 0 )
+            return pos;
+          break;
+        case '"' :
+          if( ( pos = indexOfClosingQuote( buffer, pos+1 ) ) < 0 )
+            return -1;
           break;
-
-        default :
-          throw new IllegalCharacterOutsideOfTokenException( "Suspected number is grossly invalid" );
       }
     }
 
-    return buffer.substring( 0, end-1 );
+    return -1;
   }
 
-  public static int findEnd( String buffer )
+  private static int checkMatchingClose( int close ) throws IndexOutOfBoundsException
   {
-    int end = buffer.indexOf( ' ' );
+    if( close < 0 )
+      throw new IndexOutOfBoundsException( "Never closed" );
+
+    return close;
+  }
 
-    if( end == -1 )
+  /**
+   * @return true if any character from <tt>start</tt> up to <tt>end</tt> is
+   *          a control character, which JSON doesn't allow in a string.
+   */
+  public static boolean hasControlCharacter( String buffer, int start, int end )
+  {
+    for( int pos = start; pos < end; pos++ )
     {
-      end = buffer.indexOf( ',' );
-      if( end == -1 )
-      {
-        end = buffer.indexOf( '\n' );
-        if( end == -1 )
+      if( buffer.charAt( pos ) < 0x20 )
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * A double quote is escaped if an odd number of backslashes lead up to it.
+   */
+  private static boolean isEscaped( String buffer, int starting, int quote )
+  {
+    int pos = quote;
+
+    while( pos > starting && buffer.charAt( pos-1 ) == '\\' )
+      pos--;
+
+    return( ( quote - pos ) % 2 == 1 );
+  }
+
+  /**
+   * Simple delimit the identifier up to, but not including
+   * the double quote at its end.
+   */
+  public static String eatToDoubleQuote( String buffer, int starting ) throws IndexOutOfBoundsException
+  {
+    int close = findClosingQuote( buffer, starting );
+
+    for( int pos = starting; pos < close; pos++ )
+    {
+      if( buffer.charAt( pos ) == '\\' )
+        return unescape( buffer, starting, close - starting );
+    }
+
+    return buffer.substring( starting, close );
+  }
+
+  /**
+   * Accept the identifier up to, but not including the double quote at
+   * its end.
+   *
+   * @param buffer the entire content buffer.
+   * @param starting offset just after the opening double quote.
+   * @param accepted receives the identifier.
+   * @return offset of the closing double quote.
+   */
+  public static int eatToDoubleQuote( String buffer, int starting, StringBuilder accepted )
+      throws IndexOutOfBoundsException
+  {
+    int close = findClosingQuote( buffer, starting );
+
+    unescape( buffer, starting, close, accepted );
+
+    return close;
+  }
+
+  /**
+   * Decode the text of a string containing backslash escapes.
+   *
+   * @param buffer the entire content buffer.
+   * @param start offset of the text (just after the opening double quote).
+   * @param length of the text in the buffer.
+   * @return the decoded text.
+   */
+  public static String unescape( String buffer, int start, int length )
+  {
+    StringBuilder decoded = new StringBuilder( length );
+
+    unescape( buffer, start, start+length, decoded );
+
+    return decoded.toString();
+  }
+
+  /**
+   * Decode the text between <tt>start</tt> and <tt>end</tt>, appending it.
+   * Runs of characters between escapes are appended whole. Besides the
+   * escapes JSON defines, including <tt>\\uXXXX</tt> and surrogate pairs
+   * written as two of them, a backslash followed by anything else just
+   * yields that character, which is what this scanner has always done. A
+   * surrogate that isn't half of a pair becomes U+FFFD.
+   */
+  public static void unescape( CharSequence buffer, int start, int end, StringBuilder decoded )
+  {
+    unescape( buffer, start, end, end, decoded );
+  }
+
+  /**
+   * Decode the text between <tt>start</tt> and <tt>end</tt> only about as
+   * far as <tt>limit</tt>, appending it: an escape straddling the limit is
+   * decoded whole and the limit is pulled back so as not to come between
+   * the two halves of a surrogate pair.
+   *
+   * @return where decoding stopped, which is where to start the next time.
+   */
+  static int unescape( CharSequence buffer, int start, int end, int limit, StringBuilder decoded )
+  {
+    int run = start;  // beginning of the current run of plain characters
+    int pos;
+
+    for( pos = start; pos < end && pos < limit; pos++ )
+    {
+      if( buffer.charAt( pos ) != '\\' )
+        continue;
+
+      decoded.append( buffer, run, pos );
+
+      if( ++pos == end )
+        return end;
+
+      pos = appendEscape( buffer, pos, end, decoded );
+      run = pos+1;
+    }
+
+    if( pos < end && pos-1 >= run && Character.isHighSurrogate( buffer.charAt( pos-1 ) ) )
+      pos--;
+
+    decoded.append( buffer, run, pos );
+
+    return pos;
+  }
+
+  /**
+   * Append what the escape whose backslash is just before <tt>pos</tt>
+   * stands for.
+   *
+   * @return offset of the escape's last character.
+   */
+  private static int appendEscape( CharSequence buffer, int pos, int end, StringBuilder decoded )
+  {
+    char escaped = buffer.charAt( pos );
+
+    switch( escaped )
+    {
+      case 'b' : decoded.append( '\b' ); break;
+      case 'f' : decoded.append( '\f' ); break;
+      case 'n' : decoded.append( '\n' ); break;
+      case 'r' : decoded.append( '\r' ); break;
+      case 't' : decoded.append( '\t' ); break;
+
+      case 'u' :
+        int unit = hex4( buffer, pos+1, end );
+
+        if( unit < 0 )
+        {
+          decoded.append( escaped );
+          break;
+        }
+
+        pos += 4;
+
+        if( Character.isHighSurrogate( ( char ) unit ) )
         {
-          end = buffer.indexOf( '\t' );
-          if( end == -1 )
+          int low = ( pos+2 < end && buffer.charAt( pos+1 ) == '\\' && buffer.charAt( pos+2 ) == 'u' )
+                      ? hex4( buffer, pos+3, end )
+                      : -1;
+
+          if( low >= 0 && Character.isLowSurrogate( ( char ) low ) )
           {
-            end = buffer.indexOf( "}" );
-            if( end == -1 )
-              end = buffer.indexOf( ']' );
+            decoded.append( ( char ) unit ).append( ( char ) low );
+            pos += 6;
+            break;
           }
         }
-      }
+
+        decoded.append( ( Character.isSurrogate( ( char ) unit ) ) ? '\uFFFD' : ( char ) unit );
+        break;
+
+      default :   // ", \, / and anything else stand for themselves
+        decoded.append( escaped );
+        break;
     }
 
-    return end;
+    return pos;
   }
 
   /**
-   * Not only must we match null, true or false, but we must ensure some
-   * validity in that <u>something</u> that would halt token-building
-   * after the keyword is present as the next character.
-   * @throws IllegalCharacterOutsideOfTokenException
+   * @return the value of the four hexadecimal digits at <tt>pos</tt>, or -1
+   *          if there aren't four of them before <tt>end</tt>.
    */
-  public static String isNullTrueOrFalse( String buffer ) throws IllegalCharacterOutsideOfTokenException
+  private static int hex4( CharSequence buffer, int pos, int end )
   {
-    int end;
+    if( pos+4 > end )
+      return -1;
 
-    if( buffer.startsWith( "null" ) || buffer.startsWith( "true" ) )
-      end = 4;
-    else if( buffer.startsWith( "false" ) )
-      end = 5;
-    else
-      return null;
+    int value = 0;
 
-    if( end+1 > buffer.length() )
-      throw new IllegalCharacterOutsideOfTokenException( "Premature end of identifier" );
+    for( int digit = pos; digit < pos+4; digit++ )
+    {
+      int nibble = Character.digit( buffer.charAt( digit ), 16 );
 
-    String keyword = buffer.substring( 0, end+1 );
+      if( nibble < 0 )
+        return -1;
 
-    if( ( end = findEnd( keyword ) ) == -1 )
-      return null;
+      value = ( value << 4 ) | nibble;
+    }
+
+    return value;
+  }
+
+  /**
+   * Here we will scan for IDENT up to the next space or newline
+   * on condition that it be something like:
+   *
+   * <ul>
+   * <li> 42 </li>
+   * <li> -42 </li>
+   * <li> +42 </li>
+   * <li> .42 </li>
+   * <li> 42.0 </li>
+   * <li> -42.0 </li>
+   * <li> 4.2E+1 </li>
+   * <li> hexadecimal numbers </li>
+   * <li> etc. </li>
+   * </ul>
+   */
+  public static String eatToSpaceAfterNumber( String buffer )
+      throws IllegalCharacterOutsideOfTokenException
+  {
+    return eatToSpaceAfterNumber( buffer, 0 );
+  }
 
-    return keyword.substring( 0, keyword.length()-1 );
+  /**
+   * Same as <tt>eatToSpaceAfterNumber( String )</tt>, but for the number
+   * beginning at <tt>starting</tt> in the whole content buffer.
+   */
+  public static String eatToSpaceAfterNumber( String buffer, int starting )
+      throws IllegalCharacterOutsideOfTokenException
+  {
+    return buffer.substring( starting, findEndOfNumber( buffer, starting ) );
+  }
+
+  /**
+   * Run the number recognizer over the characters beginning at
+   * <tt>starting</tt>, stopping at the first one that cannot be part of a
+   * number. That must be white space or punctuation that may follow a
+   * value. We never look farther than that.
+   *
+   * @return offset of the character just past the number.
+   * @throws IllegalCharacterOutsideOfTokenException
+   *          if what's there is not a number or the buffer ends before
+   *          anything closes it.
+   */
+  public static int findEndOfNumber( String buffer, int starting )
+      throws IllegalCharacterOutsideOfTokenException
+  {
+    return checkEndOfNumber( endOfNumber( buffer, starting ) );
+  }
+
+  /**
+   * Same as <tt>findEndOfNumber( String, int )</tt>, but returning
+   * <tt>INVALID</tt> or <tt>NO_END</tt> instead of throwing.
+   */
+  private static int endOfNumber( String buffer, int starting )
+  {
+    int  length = buffer.length();
+    byte state  = START;
+
+    for( int pos = starting; pos < length; pos++ )
+    {
+      byte type = classOf( buffer.charAt( pos ) );
+
+      if( type == WHITE || type == DELIMITER )
+        return ( ACCEPTING[ state ] ) ? pos : INVALID;
+
+      if( ( state = NUMBER_TRANSITIONS[ state ][ type ] ) == REJECT )
+        return INVALID;
+    }
+
+    return NO_END;
+  }
+
+  private static int checkEndOfNumber( int end ) throws IllegalCharacterOutsideOfTokenException
+  {
+    if( end < 0 )
+      throw new IllegalCharacterOutsideOfTokenException( problem( end ) );
+
+    return end;
+  }
+
+  public static int findEnd( String buffer )
+  {
+    return findEnd( buffer, 0 );
+  }
+
+  /**
+   * @return offset in the whole content buffer of the first white space or
+   *          punctuation able to end a token found at or after
+   *          <tt>starting</tt>, or -1.
+   */
+  public static int findEnd( String buffer, int starting )
+  {
+    int length = buffer.length();
+
+    for( int pos = starting; pos < length; pos++ )
+    {
+      if( isDelimiter( buffer.charAt( pos ) ) )
+        return pos;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Not only must we match null, true or false, but we must ensure some
+   * validity in that <u>something</u> that would halt token-building
+   * after the keyword is present as the next character.
+   * @throws IllegalCharacterOutsideOfTokenException
+   */
+  public static String isNullTrueOrFalse( String buffer ) throws IllegalCharacterOutsideOfTokenException
+  {
+    return isNullTrueOrFalse( buffer, 0 );
+  }
+
+  /**
+   * Same as <tt>isNullTrueOrFalse( String )</tt>, but for the keyword
+   * beginning at <tt>starting</tt> in the whole content buffer. The first
+   * character decides which keyword it could be, after which we only
+   * compare the rest of that one.
+   */
+  public static String isNullTrueOrFalse( String buffer, int starting )
+      throws IllegalCharacterOutsideOfTokenException
+  {
+    String keyword;
+
+    switch( buffer.charAt( starting ) )
+    {
+      case 'n' : keyword = "null";  break;
+      case 't' : keyword = "true";  break;
+      case 'f' : keyword = "false"; break;
+      default  : return null;
+    }
+
+    if( !buffer.startsWith( keyword, starting ) )
+      return null;
+
+    int end = starting + keyword.length();
+
+    if( end+1 > buffer.length() )
+      throw new IllegalCharacterOutsideOfTokenException( PREMATURE_END );
+
+    return ( isDelimiter( buffer.charAt( end ) ) ) ? keyword : null;
+  }
+
+  /**
+   * Same as <tt>isNullTrueOrFalse( String, int )</tt>, but for scanning:
+   *
+   * @return offset just past the keyword, <tt>INVALID</tt> if there isn't
+   *          one or <tt>NO_END</tt> if the buffer ends with it.
+   */
+  private static int keywordAt( String buffer, int starting )
+  {
+    String keyword;
+
+    switch( buffer.charAt( starting ) )
+    {
+      case 'n' : keyword = "null";  break;
+      case 't' : keyword = "true";  break;
+      case 'f' : keyword = "false"; break;
+      default  : return INVALID;
+    }
+
+    if( !buffer.startsWith( keyword, starting ) )
+      return INVALID;
+
+    int end = starting + keyword.length();
+
+    if( end == buffer.length() )
+      return NO_END;
+
+    return ( isDelimiter( buffer.charAt( end ) ) ) ? end : INVALID;
+  }
+
+  /**
+   * @return true if the character is white space or punctuation that may
+   *          end a number or keyword.
+   */
+  public static boolean isDelimiter( char character )
+  {
+    byte type = classOf( character );
+
+    return( type == WHITE || type == DELIMITER );
+  }
+
+  private static byte classOf( char character )
+  {
+    return ( character < 128 ) ? CHARACTER_CLASSES[ character ] : OTHER;
+  }
+
+  // =================================================================
+  // The same work done directly on UTF-8 bytes. Everything JSON gives
+  // meaning to is ASCII and no byte of a multi-byte UTF-8 sequence is,
+  // so bytes can be classified just as characters are. Offsets are
+  // absolute indices into the buffer, whose position is ignored.
+
+  private static final long BYTES       = 0x0101010101010101L;  // a 1 in each byte
+  private static final long LOW7        = 0x7F7F7F7F7F7F7F7FL;
+  private static final long QUOTES      = '"'  * BYTES;
+  private static final long BACKSLASHES = '\\' * BYTES;
+  private static final long CONTROLS    = 0x20 * BYTES;
+  private static final long HIGH_BITS   = 0x80 * BYTES;
+  private static final long SPECIALS    = 0xEF * BYTES;  // (how U+F000 to U+FFFF begin)
+
+  /**
+   * Same as <tt>scanToken( String, int, Token )</tt>, but over UTF-8 bytes.
+   */
+  public static void scanToken( ByteBuffer buffer, int starting, Token token )
+      throws IndexOutOfBoundsException, IllegalCharacterOutsideOfTokenException
+  {
+    scan( buffer, starting, token );
+    raise( token );
+  }
+
+  /**
+   * Same as <tt>scan( String, int, Token )</tt>, but over UTF-8 bytes.
+   */
+  static void scan( ByteBuffer buffer, int starting, Token token )
+  {
+    int       limit = buffer.limit();
+    int       pos   = starting;
+    TokenType type;
+
+got_token :
+    while( true )
+    {
+      if( pos == limit )
+      {
+        token.stop( TokenType.END, pos, NO_MORE_TOKENS );
+        return;
+      }
+
+      byte character = buffer.get( pos );
+
+      switch( character )
+      {
+        default :
+          int end = keywordAt( buffer, pos );
+
+          if( end == INVALID )
+            // not a keyword: inspect as number...
+            end = endOfNumber( buffer, pos );
+          else if( end == NO_END )
+            end = PREMATURE;
+
+          if( end < 0 )
+          {
+            token.stop( TokenType.ERROR, pos, problem( end ) );
+            return;
+          }
+
+          token.set( buffer, TokenType.IDENT, pos, end - pos, false, end - starting );
+          return;
+
+        case '"' :
+          int     text    = pos+1;
+          int     close   = text;
+          boolean escapes = false;
+
+          while( ( close = indexOfQuoteOrBackslash( buffer, close ) ) >= 0 && buffer.get( close ) != '"' )
+          {
+            escapes = true;
+            close  += 2;
+          }
+
+          if( close < 0 )
+          {
+            token.stop( TokenType.ERROR, pos, UNTERMINATED );
+            return;
+          }
+
+          token.set( buffer, TokenType.IDENT, text, close - text, escapes, close - starting + 1 );
+          token.quoted = true;
+          return;
+
+        case '{' : type = TokenType.OPEN_BRACE;    break got_token;
+        case '}' : type = TokenType.CLOSE_BRACE;   break got_token;
+        case '[' : type = TokenType.OPEN_BRACKET;  break got_token;
+        case ']' : type = TokenType.CLOSE_BRACKET; break got_token;
+        case ':' : type = TokenType.COLON;         break got_token;
+        case ',' : type = TokenType.COMMA;         break got_token;
+
+        case ' ' :
+        case '\n' :
+        case '\r' :
+        case '\t' :
+          // skip white space...
+          pos++;
+      }
+    }
+
+    token.set( buffer, type, pos, 1, false, pos - starting + 1 );
+  }
+
+  /**
+   * Look for the next double quote or backslash eight bytes at a time: a
+   * <tt>long</tt> is read and each of its bytes compared at once using
+   * bit tricks.
+   *
+   * @return offset of the first double quote or backslash at or after
+   *          <tt>starting</tt>.
+   * @throws IndexOutOfBoundsException if there is none.
+   */
+  public static int findQuoteOrBackslash( ByteBuffer buffer, int starting ) throws IndexOutOfBoundsException
+  {
+    int found = indexOfQuoteOrBackslash( buffer, starting );
+
+    if( found < 0 )
+      throw new IndexOutOfBoundsException( UNTERMINATED );
+
+    return found;
+  }
+
+  /**
+   * Same as <tt>findQuoteOrBackslash()</tt>, but returning -1 if there is
+   * none.
+   */
+  private static int indexOfQuoteOrBackslash( ByteBuffer buffer, int starting )
+  {
+    int     limit  = buffer.limit();
+    boolean little = ( buffer.order() == ByteOrder.LITTLE_ENDIAN );
+    int     pos    = starting;
+
+    for( ; pos+8 <= limit; pos += 8 )
+    {
+      long word  = buffer.getLong( pos );
+      long found = equalBytes( word, QUOTES ) | equalBytes( word, BACKSLASHES );
+
+      if( found != 0 )
+        return pos + ( ( little ) ? Long.numberOfTrailingZeros( found ) : Long.numberOfLeadingZeros( found ) ) / 8;
+    }
+
+    for( ; pos < limit; pos++ )
+    {
+      byte character = buffer.get( pos );
+
+      if( character == '"' || character == '\\' )
+        return pos;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Same as <tt>findMatchingClose( String, int )</tt>, but over UTF-8 bytes.
+   */
+  public static int findMatchingClose( ByteBuffer buffer, int open ) throws IndexOutOfBoundsException
+  {
+    return checkMatchingClose( indexOfMatchingClose( buffer, open ) );
+  }
+
+  static int indexOfMatchingClose( ByteBuffer buffer, int open )
+  {
+    int limit = buffer.limit();
+    int depth = 0;
+
+    for( int pos = open; pos < limit; pos++ )
+    {
+      switch( buffer.get( pos ) )
+      {
+        case '{' : case '[' :
+          depth++;
+          break;
+        case '}' : case ']' :
+          if( --depth == 0 )
+            return pos;
+          break;
+        case '"' :
+          while( ( pos = indexOfQuoteOrBackslash( buffer, pos+1 ) ) >= 0 && buffer.get( pos ) != '"' )
+            pos++;
+          if( pos < 0 )
+            return -1;
+          break;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Same as <tt>hasControlCharacter( String, int, int )</tt>, but over UTF-8
+   * bytes, eight at a time.
+   */
+  public static boolean hasControlCharacter( ByteBuffer buffer, int start, int end )
+  {
+    int pos = start;
+
+    for( ; pos+8 <= end; pos += 8 )
+    {
+      long word = buffer.getLong( pos );
+
+      // (the high bit of a byte below 0x20 is set by the subtraction, not by the byte itself)
+      if( ( ( word - CONTROLS ) & ~word & HIGH_BITS ) != 0 )
+        return true;
+    }
+
+    for( ; pos < end; pos++ )
+    {
+      if( ( buffer.get( pos ) & 0xFF ) < 0x20 )
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Same as <tt>hasIllegalXml( CharSequence, int, int )</tt>, but over UTF-8
+   * bytes, eight at a time, and only saying whether there may be one: any
+   * byte below a space says so, tab, line feed and carriage return
+   * included, as does the byte U+FFFE and U+FFFF begin with, though all of
+   * U+F000 to U+FFFD begin with it too.
+   */
+  static boolean hasIllegalXml( ByteBuffer buffer, int start, int end )
+  {
+    int pos = start;
+
+    for( ; pos+8 <= end; pos += 8 )
+    {
+      long word = buffer.getLong( pos );
+
+      if( ( ( ( word - CONTROLS ) & ~word & HIGH_BITS ) | equalBytes( word, SPECIALS ) ) != 0 )
+        return true;
+    }
+
+    for( ; pos < end; pos++ )
+    {
+      int character = buffer.get( pos ) & 0xFF;
+
+      if( character < 0x20 || character == 0xEF )
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * @return the high bit of each byte set where the byte of <tt>word</tt>
+   *          equals that of <tt>pattern</tt> (and no other bit).
+   */
+  private static long equalBytes( long word, long pattern )
+  {
+    long x = word ^ pattern;
+
+    return ~( ( ( x & LOW7 ) + LOW7 ) | x | LOW7 );
+  }
+
+  /**
+   * Same as <tt>findEndOfNumber( String, int )</tt>, but over UTF-8 bytes.
+   */
+  public static int findEndOfNumber( ByteBuffer buffer, int starting )
+      throws IllegalCharacterOutsideOfTokenException
+  {
+    return checkEndOfNumber( endOfNumber( buffer, starting ) );
+  }
+
+  private static int endOfNumber( ByteBuffer buffer, int starting )
+  {
+    int  limit = buffer.limit();
+    byte state = START;
+
+    for( int pos = starting; pos < limit; pos++ )
+    {
+      byte type = classOf( buffer.get( pos ) );
+
+      if( type == WHITE || type == DELIMITER )
+        return ( ACCEPTING[ state ] ) ? pos : INVALID;
+
+      if( ( state = NUMBER_TRANSITIONS[ state ][ type ] ) == REJECT )
+        return INVALID;
+    }
+
+    return NO_END;
+  }
+
+  /**
+   * Same as <tt>isNullTrueOrFalse( String, int )</tt>, but over UTF-8 bytes.
+   */
+  public static String isNullTrueOrFalse( ByteBuffer buffer, int starting )
+      throws IllegalCharacterOutsideOfTokenException
+  {
+    String keyword;
+
+    switch( buffer.get( starting ) )
+    {
+      case 'n' : keyword = "null";  break;
+      case 't' : keyword = "true";  break;
+      case 'f' : keyword = "false"; break;
+      default  : return null;
+    }
+
+    int end = starting + keyword.length();
+
+    if( end > buffer.limit() )
+      return null;
+
+    for( int pos = 1; pos < keyword.length(); pos++ )
+    {
+      if( buffer.get( starting+pos ) != keyword.charAt( pos ) )
+        return null;
+    }
+
+    if( end+1 > buffer.limit() )
+      throw new IllegalCharacterOutsideOfTokenException( PREMATURE_END );
+
+    return ( isDelimiter( buffer.get( end ) ) ) ? keyword : null;
+  }
+
+  private static int keywordAt( ByteBuffer buffer, int starting )
+  {
+    String keyword;
+
+    switch( buffer.get( starting ) )
+    {
+      case 'n' : keyword = "null";  break;
+      case 't' : keyword = "true";  break;
+      case 'f' : keyword = "false"; break;
+      default  : return INVALID;
+    }
+
+    int end = starting + keyword.length();
+
+    if( end > buffer.limit() )
+      return INVALID;
+
+    for( int pos = 1; pos < keyword.length(); pos++ )
+    {
+      if( buffer.get( starting+pos ) != keyword.charAt( pos ) )
+        return INVALID;
+    }
+
+    if( end == buffer.limit() )
+      return NO_END;
+
+    return ( isDelimiter( buffer.get( end ) ) ) ? end : INVALID;
+  }
+
+  public static boolean isDelimiter( byte character )
+  {
+    byte type = classOf( character );
+
+    return( type == WHITE || type == DELIMITER );
+  }
+
+  private static byte classOf( byte character )
+  {
+    return ( character >= 0 ) ? CHARACTER_CLASSES[ character ] : OTHER;
+  }
+
+  /**
+   * @return the UTF-8 bytes from <tt>start</tt> decoded. Malformed
+   *          sequences become U+FFFD.
+   */
+  public static String decode( ByteBuffer buffer, int start, int length )
+  {
+    if( buffer.hasArray() )
+      return new String( buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8 );
+
+    byte[]     bytes = new byte[ length ];
+    ByteBuffer view  = buffer.duplicate();
+
+    ( ( Buffer ) view ).position( start );  // (so as to link on Java 8 too)
+    view.get( bytes );
+
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+
+  /**
+   * Same as <tt>unescape( String, int, int )</tt>, but over UTF-8 bytes.
+   * Escapes are all ASCII, so a run between two of them is always whole
+   * UTF-8 and decoded at once.
+   */
+  public static String unescape( ByteBuffer buffer, int start, int length )
+  {
+    StringBuilder decoded = new StringBuilder( length );
+    CharSequence  ascii   = new AsciiView( buffer );
+    int           end     = start+length;
+    int           run     = start;
+
+    for( int pos = start; pos < end; pos++ )
+    {
+      if( buffer.get( pos ) != '\\' )
+        continue;
+
+      decoded.append( decode( buffer, run, pos - run ) );
+
+      if( ++pos == end )
+      {
+        run = end;
+        break;
+      }
+
+      pos = appendEscape( ascii, pos, end, decoded );
+      run = pos+1;
+    }
+
+    return decoded.append( decode( buffer, run, end - run ) ).toString();
+  }
+
+  /**
+   * Same as <tt>unescape( CharSequence, int, int, int, StringBuilder )</tt>,
+   * but over UTF-8 bytes, whose sequences the limit is pulled back so as
+   * not to come in the middle of.
+   */
+  static int unescape( ByteBuffer buffer, int start, int end, int limit, StringBuilder decoded )
+  {
+    CharSequence ascii = null;
+    int          run   = start;
+    int          pos;
+
+    for( pos = start; pos < end && pos < limit; pos++ )
+    {
+      if( buffer.get( pos ) != '\\' )
+        continue;
+
+      decoded.append( decode( buffer, run, pos - run ) );
+
+      if( ++pos == end )
+        return end;
+
+      if( ascii == null )
+        ascii = new AsciiView( buffer );
+
+      pos = appendEscape( ascii, pos, end, decoded );
+      run = pos+1;
+    }
+
+    while( pos < end && pos > run && ( buffer.get( pos ) & 0xC0 ) == 0x80 )
+      pos--;
+
+    decoded.append( decode( buffer, run, pos - run ) );
+
+    return pos;
+  }
+
+  /**
+   * Bytes seen as characters, good enough for reading escapes, which are
+   * ASCII.
+   */
+  static class AsciiView implements CharSequence
+  {
+    private final ByteBuffer buffer;
+    private final int        offset;  // of the first byte seen
+    private final int        length;
+
+    AsciiView( ByteBuffer buffer ) { this( buffer, 0, buffer.limit() ); }
+
+    private AsciiView( ByteBuffer buffer, int offset, int length )
+    {
+      this.buffer = buffer;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    public char charAt( int index )
+    {
+      if( index < 0 || index >= length )
+        throw new IndexOutOfBoundsException( "index " + index + ", length " + length );
+
+      return ( char ) ( buffer.get( offset+index ) & 0xFF );
+    }
+
+    public int length() { return length; }
+
+    /**
+     * @return a view of the same bytes, not a copy.
+     */
+    public CharSequence subSequence( int start, int end )
+    {
+      if( start < 0 || end > length || start > end )
+        throw new IndexOutOfBoundsException( "start " + start + ", end " + end + ", length " + length );
+
+      return new AsciiView( buffer, offset+start, end-start );
+    }
+
+    @Override
+    public String toString()
+    {
+      return new StringBuilder( length ).append( this ).toString();
+    }
   }
 }
@@ -20,6 +20,10 @@ package com.perfectsearchcorp.scanner;
  * When there are no more tokens...
  * <p />
  * ...including that the last token scanned was incomplete or otherwise bad.
+ * <p />
+ * It says something about the content, not about the code, so it doesn't
+ * bother filling in a stack trace, which would cost more than all the
+ * rest of throwing it.
  *
  * @author Russell Bateman
  * @since December 2014
@@ -28,16 +32,16 @@ public class NoMoreTokensException extends Exception
 {
   public NoMoreTokensException()
   {
-    super();
+    super( null, null, false, false );
   }
 
   public NoMoreTokensException( String message )
   {
-    super( message );
+    super( message, null, false, false );
   }
 
   public NoMoreTokensException( String message, Throwable exception )
   {
-    super( message, exception );
+    super( message, exception, false, false );
   }
 }
@@ -0,0 +1,213 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.scanner;
+
+/**
+ * Finds where every token of the content begins without looking at the
+ * characters one at a time: punctuation (<tt>{ } [ ] : ,</tt>) outside of
+ * strings, both double quotes of every string, and the first character
+ * of every number or keyword.
+ * <p />
+ * This is the first stage of the simdjson approach done with long-word
+ * ("SWAR") bit tricks instead of vector instructions. Four characters (8
+ * bytes) are packed into a <tt>long</tt> and compared all at once; the
+ * results for 64 characters make one bit mask per character class. Then,
+ * still 64 characters at a time:
+ *
+ * <ul>
+ * <li> a quote following an odd run of backslashes is escaped and doesn't
+ *      count, </li>
+ * <li> the prefix XOR of the remaining quotes marks what's inside strings,
+ *      where punctuation is only text, </li>
+ * <li> a character that's neither punctuation nor white space and doesn't
+ *      follow another such character starts a number or keyword (any
+ *      control character counts as white space here; JSON allows none
+ *      outside of strings anyway). </li>
+ * </ul>
+ *
+ * Whether the previous 64 characters ended inside a string, on an odd run
+ * of backslashes or in the middle of a number is carried over to the next.
+ * <p />
+ * The content is indexed a block at a time so that the index never takes
+ * more room than a block's worth of offsets.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class StructuralIndexer
+{
+  public static final int BLOCK_SIZE = 64 * 1024;   // characters indexed at a time (a multiple of 64)
+
+  private static final long LANES  = 0x0001000100010001L;  // a 1 in each of four 16-bit lanes
+  private static final long HIGH   = 0x8000800080008000L;  // the high bit of each lane
+  private static final long LOW15  = 0x7FFF7FFF7FFF7FFFL;
+  private static final long EVEN   = 0x5555555555555555L;  // bits at even positions
+  private static final long GATHER = 1L | 1L << 15 | 1L << 30 | 1L << 45;
+
+  private static final long WHITE_LIMIT   = HIGH | ' ' * LANES;  // (anything up to space counts as white)
+  private static final long QUOTE         = '"'  * LANES;
+  private static final long BACKSLASH     = '\\' * LANES;
+  private static final long COLON         = ':'  * LANES;
+  private static final long COMMA         = ','  * LANES;
+  private static final long OPEN_BRACE    = '{'  * LANES;  // also '[' once 0x20 is or-ed in
+  private static final long CLOSE_BRACE   = '}'  * LANES;  // also ']' once 0x20 is or-ed in
+  private static final long BRACKET_TO_BRACE = 0x20 * LANES;
+
+  private final String content;
+  private final int    length;
+  private final char[] block = new char[ BLOCK_SIZE ];
+  private int          next;                // offset of the next block to index
+
+  // carried from one 64-character stretch to the next...
+  private long inString;                    // all ones if inside a string
+  private long escaped;                     // 1 if the next character is escaped
+  private long inScalar;                    // 1 if in the middle of a number or keyword
+
+  public StructuralIndexer( String content )
+  {
+    this.content = content;
+    this.length  = content.length();
+  }
+
+  /**
+   * Index the next block of content.
+   *
+   * @param positions receives the offsets found in this block, in order; it
+   *          must have room for <tt>BLOCK_SIZE</tt> of them.
+   * @return how many offsets were found or -1 if all the content has been
+   *          indexed.
+   */
+  public int indexNextBlock( int[] positions )
+  {
+    if( next >= length )
+      return -1;
+
+    int base  = next;
+    int end   = Math.min( length, base + BLOCK_SIZE );
+    int count = 0;
+
+    content.getChars( base, end, block, 0 );
+
+    // pad the last block to a multiple of 64 with white space...
+    int padded = ( end - base + 63 ) & ~63;
+    for( int pos = end - base; pos < padded; pos++ )
+      block[ pos ] = ' ';
+
+    for( int offset = 0; offset < padded; offset += 64 )
+    {
+      long structural = 0, white = 0, quote = 0, backslash = 0;
+
+      for( int lane = 0; lane < 16; lane++ )
+      {
+        int  at   = offset + ( lane << 2 );
+        long word = block[ at ]
+                  | ( long ) block[ at+1 ] << 16
+                  | ( long ) block[ at+2 ] << 32
+                  | ( long ) block[ at+3 ] << 48;
+        long brace = word | BRACKET_TO_BRACE;
+        int  shift = lane << 2;
+
+        structural |= gather( equal( brace, OPEN_BRACE ) | equal( brace, CLOSE_BRACE )
+                            | equal( word, COLON ) | equal( word, COMMA ) ) << shift;
+        white      |= gather( ( WHITE_LIMIT - ( word & LOW15 ) ) & ~word & HIGH ) << shift;
+        quote      |= gather( equal( word, QUOTE ) ) << shift;
+        backslash  |= gather( equal( word, BACKSLASH ) ) << shift;
+      }
+
+      quote &= ~findEscaped( backslash );
+
+      long strings = prefixXor( quote ) ^ inString;  // opening quote and the text after it
+      inString = strings >> 63;
+
+      long scalar      = ~( structural | white | quote );
+      long scalarStart = scalar & ~( scalar << 1 | inScalar );
+      inScalar = scalar >>> 63;
+
+      long starts = ( ( structural | scalarStart ) & ~strings ) | quote;
+
+      while( starts != 0 )
+      {
+        positions[ count++ ] = base + offset + Long.numberOfTrailingZeros( starts );
+        starts &= starts - 1;
+      }
+    }
+
+    next = end;
+
+    return count;
+  }
+
+  /**
+   * @return the high bit of each 16-bit lane set where the lane of
+   *          <tt>word</tt> equals that of <tt>pattern</tt> (and no other bit).
+   */
+  private static long equal( long word, long pattern )
+  {
+    long x = word ^ pattern;
+
+    return ~( ( ( x & LOW15 ) + LOW15 ) | x | LOW15 );
+  }
+
+  /**
+   * @return the high bits of the four lanes as the four low bits. The
+   *          multiplication lines them up side by side without carries.
+   */
+  private static long gather( long highBits )
+  {
+    return( ( ( highBits >>> 15 ) * GATHER ) >>> 45 & 0xF );
+  }
+
+  /**
+   * @return the bits of the characters escaped by a backslash, i.e. those
+   *          at the end of an odd run of backslashes.
+   */
+  private long findEscaped( long backslash )
+  {
+    if( backslash == 0 )
+    {
+      long result = escaped;
+      escaped = 0;
+      return result;
+    }
+
+    backslash &= ~escaped;
+
+    long followsEscape     = backslash << 1 | escaped;
+    long oddSequenceStarts = backslash & ~EVEN & ~followsEscape;
+    long sequencesOnEven   = oddSequenceStarts + backslash;
+
+    // an odd run reaching the last character escapes the next one...
+    escaped = ( Long.compareUnsigned( sequencesOnEven, oddSequenceStarts ) < 0 ) ? 1 : 0;
+
+    return( ( EVEN ^ ( sequencesOnEven << 1 ) ) & followsEscape );
+  }
+
+  /**
+   * @return each bit the XOR of itself and all those below it.
+   */
+  private static long prefixXor( long bits )
+  {
+    bits ^= bits << 1;
+    bits ^= bits << 2;
+    bits ^= bits << 4;
+    bits ^= bits << 8;
+    bits ^= bits << 16;
+    bits ^= bits << 32;
+
+    return bits;
+  }
+}
@@ -16,24 +16,47 @@
  */
 package com.perfectsearchcorp.scanner;
 
+import java.nio.ByteBuffer;
+
 /**
  * Details a scanned token.
+ * <p />
+ * The scanner doesn't copy out what it finds: a token is a cursor into
+ * the content buffer giving where its text starts and how long it is (for
+ * a quoted identifier, the part between the quotes). The scanner reuses
+ * the same instance for every token it returns, so a caller wanting to
+ * hang onto the text must call <tt>getToken()</tt>, which materializes it
+ * as a <tt>String</tt> only then.
+ * <p />
+ * The content buffer is either a <tt>String</tt> or, when scanning UTF-8
+ * directly, a <tt>ByteBuffer</tt>, in which case offset and length count
+ * bytes.
  *
  * @author Russell Bateman
  * @since December 2014
  */
 public class Token
 {
-  String    token;
-  TokenType type;
-  int       scanned = 1;
+  String     token;          // text, once materialized
+  TokenType  type;
+  int        scanned = 1;
+  String     buffer;         // content buffer pointed into...
+  ByteBuffer bytes;          // ...or this one if scanning UTF-8
+  int        start;          // offset of the text in the buffer
+  int        length;         // length of the text in the buffer
+  boolean    escapes;        // whether the text contains backslash escapes
+  boolean    quoted;         // whether a string (the scanner says so after setting the rest)
+  int        backslash = -1; // (scanning hint) offset of the next backslash in the buffer
+  int        horizon = Integer.MAX_VALUE;  // (scanning hint) how far to look for it
+  String     problem;        // what stopped the scanner short of a token (END or ERROR)
 
   public Token() { };
 
   public Token( String token, TokenType type )
   {
-    this.token = token;
-    this.type = type;
+    this.token  = token;
+    this.type   = type;
+    this.length = ( token != null ) ? token.length() : 0;
   }
 
   public Token( String token, TokenType type, int scanned )
@@ -42,14 +65,359 @@ public class Token
     this.scanned = scanned;
   }
 
+  /**
+   * Point this token at a new stretch of the content buffer, forgetting
+   * any text materialized for what it pointed at before.
+   */
+  void set( String buffer, TokenType type, int start, int length, boolean escapes, int scanned )
+  {
+    this.token   = null;
+    this.buffer  = buffer;
+    this.bytes   = null;
+    this.type    = type;
+    this.start   = start;
+    this.length  = length;
+    this.escapes = escapes;
+    this.quoted  = false;
+    this.scanned = scanned;
+  }
+
+  /**
+   * Same as <tt>set( String, ... )</tt>, but pointing into UTF-8 bytes.
+   */
+  void set( ByteBuffer bytes, TokenType type, int start, int length, boolean escapes, int scanned )
+  {
+    this.token   = null;
+    this.buffer  = null;
+    this.bytes   = bytes;
+    this.type    = type;
+    this.start   = start;
+    this.length  = length;
+    this.escapes = escapes;
+    this.quoted  = false;
+    this.scanned = scanned;
+  }
+
+  /**
+   * Say that scanning stopped at <tt>start</tt> short of a token, having
+   * run out of content (<tt>END</tt>) or come upon what can't be one
+   * (<tt>ERROR</tt>). Nothing is consumed, so scanning again stops there
+   * again.
+   */
+  void stop( TokenType type, int start, String problem )
+  {
+    this.token   = null;
+    this.buffer  = null;
+    this.bytes   = null;
+    this.type    = type;
+    this.start   = start;
+    this.length  = 0;
+    this.escapes = false;
+    this.quoted  = false;
+    this.scanned = 0;
+    this.problem = problem;
+  }
+
+  /**
+   * @return true if this isn't a token at all, but the end of the content
+   *          or what can't be a token.
+   */
+  public boolean isStop() { return type == TokenType.END || type == TokenType.ERROR; }
+
+  /**
+   * @return for <tt>END</tt> or <tt>ERROR</tt>, what stopped the scanner.
+   */
+  public String getProblem() { return problem; }
+
+  public TokenType type() { return type; }
+  public int start() { return start; }
+  public int length() { return length; }
+  public boolean hasEscapes() { return escapes; }
+  public boolean isQuoted() { return quoted; }
+
+  /**
+   * Whether the text may hold a character XML doesn't allow: a control
+   * character other than tab, line feed and carriage return, U+FFFE or
+   * U+FFFF. Text with escapes always may, since an escape can stand for
+   * one; other text is looked at in place, in UTF-8 eight bytes at a time,
+   * which can only say that it may. Nothing but a string can hold one.
+   * <p />
+   * It's looked at only when asked, so that scanning doesn't pay for it.
+   *
+   * @return false if the text is known to hold none.
+   */
+  public boolean mayHoldIllegalXml()
+  {
+    if( escapes )
+      return true;
+    if( token == null && buffer != null )
+      return quoted && JsonScannerUtil.hasIllegalXml( buffer, start, start+length );
+    if( token == null && bytes != null )
+      return quoted && JsonScannerUtil.hasIllegalXml( bytes, start, start+length );
+
+    return token != null && JsonScannerUtil.hasIllegalXml( token, 0, token.length() );
+  }
+
   public TokenType getType() { return type; }
-  public String getToken() { return token; }
   public int getScanned() { return scanned; }
 
+  /**
+   * @return the text of the token, materializing it from the content
+   *          buffer if that hasn't been done yet.
+   */
+  public String getToken()
+  {
+    if( token == null && buffer != null )
+    {
+      token = ( escapes )
+                ? JsonScannerUtil.unescape( buffer, start, length )
+                : buffer.substring( start, start+length );
+    }
+    else if( token == null && bytes != null )
+    {
+      token = ( escapes )
+                ? JsonScannerUtil.unescape( bytes, start, length )
+                : JsonScannerUtil.decode( bytes, start, length );
+    }
+
+    return token;
+  }
+
+  /**
+   * Decode a piece of the text of the token, so that a long one needn't be
+   * made into a <tt>String</tt> all at once. A piece ends about
+   * <tt>size</tt> characters (or bytes, if scanning UTF-8) into the content
+   * buffer, never in the middle of an escape, a UTF-8 sequence or a
+   * surrogate pair.
+   *
+   * @param from where in the text to begin, 0 for the first piece, then
+   *          what the piece before returned.
+   * @param size about how much of the text to decode, at least 16.
+   * @param decoded receives the piece.
+   * @return where the next piece begins, <tt>length()</tt> after the last.
+   */
+  public int decodePiece( int from, int size, StringBuilder decoded )
+  {
+    int start = this.start + from;
+    int end   = this.start + length;
+    int limit = ( int ) Math.min( end, ( long ) start + size );
+
+    if( buffer != null )
+      return JsonScannerUtil.unescape( buffer, start, end, limit, decoded ) - this.start;
+
+    if( bytes != null )
+      return JsonScannerUtil.unescape( bytes, start, end, limit, decoded ) - this.start;
+
+    // only the text, as when made from it...
+    limit = ( int ) Math.min( length, ( long ) from + size );
+
+    if( limit < length && Character.isHighSurrogate( token.charAt( limit-1 ) ) )
+      limit--;
+
+    decoded.append( token, from, limit );
+
+    return limit;
+  }
+
+  /**
+   * Copy the text of the token into <tt>destination</tt> without making a
+   * <tt>String</tt> of it if that can be helped. There must be room for
+   * <tt>length()</tt> characters, which is never fewer than the text has.
+   *
+   * @return how many characters were copied.
+   */
+  public int getChars( char[] destination, int offset )
+  {
+    if( token == null && !escapes )
+    {
+      if( buffer != null )
+      {
+        buffer.getChars( start, start+length, destination, offset );
+        return length;
+      }
+
+      if( bytes != null && isAscii() )
+      {
+        for( int pos = 0; pos < length; pos++ )
+          destination[ offset+pos ] = ( char ) bytes.get( start+pos );
+        return length;
+      }
+    }
+
+    String text = getToken();
+
+    text.getChars( 0, text.length(), destination, offset );
+    return text.length();
+  }
+
+  /**
+   * @return whether the text of the token is <tt>text</tt>, found out
+   *          without making a <tt>String</tt> of it if that can be helped.
+   */
+  public boolean matches( String text )
+  {
+    if( token != null || escapes )
+      return text.equals( getToken() );
+
+    if( buffer != null )
+      return length == text.length() && buffer.regionMatches( start, text, 0, length );
+
+    if( bytes == null || length != text.length() )
+      return text.equals( getToken() );
+
+    for( int pos = 0; pos < length; pos++ )
+    {
+      char character = text.charAt( pos );
+
+      if( character >= 0x80 )
+        return text.equals( getToken() );
+      if( bytes.get( start+pos ) != character )
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Whether the token is JSON as strictly defined, which the scanner is
+   * more tolerant of: a string without control characters and with only
+   * JSON's escapes, or else <tt>null</tt>, <tt>true</tt>, <tt>false</tt> or
+   * a number without hexadecimal digits, plus sign or leading zeros. It's
+   * looked at in place.
+   */
+  public boolean isStrictJson()
+  {
+    return ( quoted ) ? isStrictString() : isStrictScalar();
+  }
+
+  private boolean isStrictString()
+  {
+    // most strings have no escapes: only control characters need looking for...
+    if( !escapes && buffer != null )
+      return !JsonScannerUtil.hasControlCharacter( buffer, start, start+length );
+    if( !escapes && bytes != null )
+      return !JsonScannerUtil.hasControlCharacter( bytes, start, start+length );
+
+    for( int pos = 0; pos < length; pos++ )
+    {
+      char character = charAt( pos );
+
+      if( character < 0x20 )
+        return false;
+
+      if( character == '\\' )
+      {
+        switch( charAt( ++pos ) )
+        {
+          case '"' : case '\\' : case '/' :
+          case 'b' : case 'f' : case 'n' : case 'r' : case 't' :
+            break;
+
+          case 'u' :
+            if( pos+4 >= length )
+              return false;
+
+            for( int digit = pos+1; digit <= pos+4; digit++ )
+            {
+              if( Character.digit( charAt( digit ), 16 ) < 0 )
+                return false;
+            }
+
+            pos += 4;
+            break;
+
+          default :
+            return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private boolean isStrictScalar()
+  {
+    if( length == 0 )
+      return false;
+
+    switch( charAt( 0 ) )
+    {
+      case 'n' : return matches( "null" );
+      case 't' : return matches( "true" );
+      case 'f' : return matches( "false" );
+    }
+
+    int pos = ( charAt( 0 ) == '-' ) ? 1 : 0;
+
+    if( pos < length && charAt( pos ) == '0' )
+      pos++;
+    else if( pos < length && charAt( pos ) >= '1' && charAt( pos ) <= '9' )
+      pos = digits( pos );
+    else
+      return false;
+
+    if( pos < length && charAt( pos ) == '.' )
+    {
+      int fraction = pos+1;
+
+      if( ( pos = digits( fraction ) ) == fraction )
+        return false;
+    }
+
+    if( pos < length && ( charAt( pos ) == 'e' || charAt( pos ) == 'E' ) )
+    {
+      if( ++pos < length && ( charAt( pos ) == '+' || charAt( pos ) == '-' ) )
+        pos++;
+
+      int power = pos;
+
+      if( ( pos = digits( power ) ) == power )
+        return false;
+    }
+
+    return pos == length;
+  }
+
+  /**
+   * @return the offset past the digits beginning at <tt>pos</tt>.
+   */
+  private int digits( int pos )
+  {
+    while( pos < length && charAt( pos ) >= '0' && charAt( pos ) <= '9' )
+      pos++;
+
+    return pos;
+  }
+
+  /**
+   * @return the character (or, in UTF-8, the byte) at <tt>pos</tt> in the
+   *          text as it lies in the content, escapes and all.
+   */
+  private char charAt( int pos )
+  {
+    if( buffer != null )
+      return buffer.charAt( start+pos );
+    if( bytes != null )
+      return ( char ) ( bytes.get( start+pos ) & 0xFF );
+
+    return token.charAt( pos );
+  }
+
+  private boolean isAscii()
+  {
+    for( int pos = start; pos < start+length; pos++ )
+    {
+      if( bytes.get( pos ) < 0 )
+        return false;
+    }
+
+    return true;
+  }
+
   public String toString()
   {
     return "{"
-        + "\ntoken   = " + this.token
+        + "\ntoken   = " + getToken()
         + "\ntype    = " + this.type.toString()
         + "\nscanned = " + this.scanned
         + "\n}";
@@ -31,7 +31,9 @@ public enum TokenType
   OPEN_BRACKET,
   CLOSE_BRACKET,
   COLON,
-  COMMA;
+  COMMA,
+  END,              // not a token: the content has run out (see Token.getProblem())
+  ERROR;            // not a token: what's there can't be one
 
   private TokenType() { }
 
@@ -0,0 +1,118 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.scanner;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Scanner working directly on UTF-8 bytes, on the heap, direct or mapped
+ * from a file, rather than on a <tt>String</tt> decoded from them. Nothing
+ * is decoded until a token's text is asked for, so the content need never
+ * be held twice, as bytes and as characters.
+ * <p />
+ * Offsets, including the scanned count, are in bytes from where the
+ * buffer was positioned when handed to us (a leading byte-order mark is
+ * skipped). The buffer itself is left as it is.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class Utf8JsonScanner extends JsonScanner
+{
+  private ByteBuffer content;
+
+  public Utf8JsonScanner( ByteBuffer input )
+  {
+    ByteBuffer bytes = input.slice();
+
+    if( bytes.remaining() >= 3
+        && bytes.get( 0 ) == ( byte ) 0xEF && bytes.get( 1 ) == ( byte ) 0xBB && bytes.get( 2 ) == ( byte ) 0xBF )
+    {
+      ( ( Buffer ) bytes ).position( 3 );   // (Buffer's, which Java 8 has, not ByteBuffer's)
+      bytes = bytes.slice();
+    }
+
+    // (our own view, little-endian for reading eight bytes at a time)
+    content = bytes.order( ByteOrder.LITTLE_ENDIAN );
+  }
+
+  public Utf8JsonScanner( byte[] input )
+  {
+    this( ByteBuffer.wrap( input ) );
+  }
+
+  private Utf8JsonScanner( ByteBuffer content, int starting )
+  {
+    super( null, starting );
+    this.content = content;
+  }
+
+  @Override
+  public JsonScanner scannerFrom( int starting )
+  {
+    return new Utf8JsonScanner( content, starting );
+  }
+
+  @Override
+  protected void scanToken( int starting, Token token )
+  {
+    JsonScannerUtil.scan( content, starting, token );
+  }
+
+  @Override
+  protected int findMatchingClose( int open )
+  {
+    return JsonScannerUtil.indexOfMatchingClose( content, open );
+  }
+
+  /**
+   * Compares the bytes themselves, but only if the text is ASCII, which
+   * most keys are; any other is left to be scanned.
+   */
+  @Override
+  protected boolean matchString( int open, int close, String text, Token token )
+  {
+    if( content.get( open ) != '"' || content.get( close ) != '"' )
+      return false;
+
+    for( int pos = 0; pos < text.length(); pos++ )
+    {
+      char character = text.charAt( pos );
+
+      if( character >= 0x80 || content.get( open+1+pos ) != character )
+        return false;
+    }
+
+    token.set( content, TokenType.IDENT, open+1, text.length(), false, 0 );
+    return true;
+  }
+
+  @Override
+  protected boolean isWhiteSpace( int pos )
+  {
+    switch( content.get( pos ) )
+    {
+      case ' ' : case '\t' : case '\n' : case '\r' : return true;
+      default :                                     return false;
+    }
+  }
+
+  @Override
+  protected int getContentLength() { return content.limit(); }
+}
@@ -0,0 +1,80 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import com.perfectsearchcorp.parser.Element;
+import com.perfectsearchcorp.parser.JsonParser;
+import com.perfectsearchcorp.parser.ParserBrokenException;
+
+/**
+ * Not a unit test (so not run by Maven): parses a document holding one big
+ * array, of strings then of small objects, into an <tt>Element</tt> and
+ * reports how long that took and how much heap the result retains.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class ArrayParsingBenchmark
+{
+  private static final int ITEMS  = 1000000;
+  private static final int ROUNDS = 5;
+
+  public static void main( String[] args ) throws ParserBrokenException
+  {
+    String strings = document( false );
+    String objects = document( true );
+
+    for( int round = 0; round < ROUNDS; round++ )
+    {
+      measure( "strings", strings );
+      measure( "objects", objects );
+    }
+  }
+
+  private static void measure( String name, String content ) throws ParserBrokenException
+  {
+    long    before  = Benchmarks.retainedHeap();
+    long    start   = System.nanoTime();
+    Element element = new JsonParser( content ).parse();
+    long    elapsed = System.nanoTime() - start;
+    long    after   = Benchmarks.retainedHeap();
+
+    System.out.println( String.format( "%s  %6.1f ns/item   %6.1f bytes/item retained",
+                            name, ( double ) elapsed / ITEMS, ( double ) ( after - before ) / ITEMS ) );
+
+    if( element.size() == 0 )
+      System.out.println( "(nothing parsed)" );
+  }
+
+  private static String document( boolean objects )
+  {
+    StringBuilder sb = new StringBuilder( "{ \"items\" : [ " );
+
+    for( int item = 0; item < ITEMS; item++ )
+    {
+      if( item > 0 )
+        sb.append( ", " );
+
+      if( objects )
+        sb.append( "{ \"id\" : " ).append( item ).append( " }" );
+      else
+        sb.append( "\"item" ).append( item ).append( '"' );
+    }
+
+    return sb.append( " ] }" ).toString();
+  }
+}
@@ -0,0 +1,107 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * What the benchmarks share: places to write to that throw it all away
+ * and readings of how much heap is used.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+final class Benchmarks
+{
+  private Benchmarks() { }
+
+  /**
+   * @return how much of the heap is used now.
+   */
+  static long heapUsed()
+  {
+    long used = 0;
+
+    for( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+    {
+      if( pool.getType() == MemoryType.HEAP )
+        used += pool.getUsage().getUsed();
+    }
+
+    return used;
+  }
+
+  /**
+   * @return how much of the heap is still used once the garbage is
+   * collected, that is, what live objects hold.
+   */
+  static long retainedHeap()
+  {
+    Runtime runtime = Runtime.getRuntime();
+
+    for( int gc = 0; gc < 3; gc++ )
+      System.gc();
+
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  static void resetPeakHeap()
+  {
+    for( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+    {
+      if( pool.getType() == MemoryType.HEAP )
+        pool.resetPeakUsage();
+    }
+  }
+
+  /**
+   * @return the most of the heap used since <tt>resetPeakHeap()</tt>.
+   */
+  static long peakHeap()
+  {
+    long peak = 0;
+
+    for( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+    {
+      if( pool.getType() == MemoryType.HEAP )
+        peak += pool.getPeakUsage().getUsed();
+    }
+
+    return peak;
+  }
+
+  static class NullWriter extends Writer
+  {
+    @Override public void write( char[] buffer, int offset, int length ) { }
+    @Override public void write( String string ) { }
+    @Override public Writer append( CharSequence sequence ) { return this; }
+    @Override public void flush() { }
+    @Override public void close() { }
+  }
+
+  static class NullOutputStream extends OutputStream
+  {
+    long count;   // bytes written
+
+    @Override public void write( int b ) { count++; }
+    @Override public void write( byte[] buffer, int offset, int length ) { count += length; }
+  }
+}
@@ -0,0 +1,85 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.perfectsearchcorp.parser.Element;
+import com.perfectsearchcorp.parser.Key;
+import com.perfectsearchcorp.parser.Value;
+
+/**
+ * Not a unit test (so not run by Maven): measures the heap retained, per
+ * member, by an <tt>Element</tt> holding a million key-value pairs, and by
+ * the <tt>HashMap</tt> an <tt>Element</tt> used to keep them in. The keys
+ * and values themselves exist beforehand and aren't counted: only what
+ * holding them costs is. Once looked up by key, an <tt>Element</tt> also
+ * keeps an index, which is measured too.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class ElementHeapBenchmark
+{
+  private static final int MEMBERS = 1000000;
+
+  public static void main( String[] args )
+  {
+    Key[]   keys   = new Key[ MEMBERS ];
+    Value[] values = new Value[ MEMBERS ];
+
+    for( int member = 0; member < MEMBERS; member++ )
+    {
+      keys[ member ]   = new Key( "key" + member );
+      values[ member ] = new Value( "value" + member );
+    }
+
+    for( int round = 0; round < 3; round++ )
+    {
+      long before = Benchmarks.retainedHeap();
+      Map< Key, Value > map = new HashMap<>();
+
+      for( int member = 0; member < MEMBERS; member++ )
+        map.put( keys[ member ], values[ member ] );
+
+      long hashMap = Benchmarks.retainedHeap() - before;
+
+      if( map.size() != MEMBERS )
+        System.out.println( "(lost members)" );
+      map = null;
+
+      before = Benchmarks.retainedHeap();
+      Element element = new Element();
+
+      for( int member = 0; member < MEMBERS; member++ )
+        element.addKeyValuePair( keys[ member ], values[ member ] );
+
+      long arrays = Benchmarks.retainedHeap() - before;
+
+      element.get( "key0" );
+      long indexed = Benchmarks.retainedHeap() - before;
+
+      if( element.size() != MEMBERS )
+        System.out.println( "(lost members)" );
+      element = null;
+
+      System.out.println( String.format( "HashMap %5.1f bytes/member   Element %5.1f bytes/member   (indexed %5.1f)",
+                              ( double ) hashMap / MEMBERS, ( double ) arrays / MEMBERS, ( double ) indexed / MEMBERS ) );
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.perfectsearchcorp.generator.XmlGenerator;
+import com.perfectsearchcorp.parser.JsonParser;
+import com.perfectsearchcorp.parser.Key;
+import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.parser.Value;
+
+/**
+ * Not a unit test (so not run by Maven): generates the same value over and
+ * over, escaping it, and compares that with only copying it, which is what
+ * was done before values were escaped.
+ * The values are 4 KB of prose: clean, with an ampersand every 500 or so
+ * characters, and dense with markup, escaped and as CDATA. They're parsed
+ * out of a document, but for one made by hand.
+ * <p />
+ * Clean text escaped at about 6 GB/s. A plain copy, which is 4 KB moved
+ * with vector instructions, ran at 30 to 70 GB/s. Each of the three
+ * <tt>String.indexOf()</tt> looks costs more than the copy. In generating a
+ * whole document that difference disappears: 32 MB of records
+ * generated in 115 ms either way, within the noise between runs.
+ * Text with an ampersand every 500 characters ran at about 4 GB/s.
+ * Markup, with something to escape every few characters, fell to 0.2 GB/s
+ * escaped and rose to about 2 GB/s as CDATA, which is what the adaptive
+ * option is for.
+ * <p />
+ * Looking also for the characters XML doesn't allow at all, which no
+ * library method can do but one character at a time, brought clean and
+ * sparse text down to 1.5 to 3 GB/s and CDATA to 1 to 1.7 GB/s. So that
+ * is done only for a value that may hold one, which is found out once,
+ * as it's parsed (see <tt>Token.mayHoldIllegalXml()</tt>). Parsed clean
+ * text escaped at 6 to 12 GB/s again, sparse text at 4 to 8 GB/s and
+ * CDATA at about 3 GB/s; the copy ran at 80 to 90 GB/s in the same runs.
+ * The value made by hand, which may hold anything, is still looked at
+ * and escaped at about 3 GB/s. Whole documents generated within the
+ * noise of before (50 to 110 ms for 32 MB of records; see
+ * <tt>TemplateBenchmark</tt>).
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class EscapingBenchmark
+{
+  private static final int ROUNDS      = 5;
+  private static final int REPETITIONS = 200000;
+
+  public static void main( String[] args ) throws IOException, ParserBrokenException
+  {
+    String clean  = repeat( "The quick brown fox jumps over the lazy dog, 12345. " );
+    String sparse = repeat( "The quick brown fox jumps over the lazy dog, 12345. The quick brown fox jumps "
+                          + "over the lazy dog, 12345. The quick brown fox jumps over the lazy dog, 12345. "
+                          + "The quick brown fox jumps over the lazy dog, 12345. The quick brown fox jumps "
+                          + "over the lazy dog, 12345. The quick brown fox jumps over the lazy dog, 1&2. " );
+    String markup = repeat( "<p class=x>R&amp;D <b>now</b></p>" );
+
+    for( int round = 0; round < ROUNDS; round++ )
+    {
+      copy( "copy clean   ", clean );
+      measure( "clean        ", parse( clean ), false );
+      measure( "clean, made  ", new Value( clean ), false );
+      measure( "sparse       ", parse( sparse ), false );
+      measure( "markup       ", parse( markup ), false );
+      measure( "markup CDATA ", parse( markup ), true );
+      System.out.println();
+    }
+  }
+
+  /**
+   * What generating a pair did before values were escaped: its tags around
+   * it, written out every few kilobytes.
+   */
+  private static void copy( String name, String value ) throws IOException
+  {
+    StringBuilder xml   = new StringBuilder( 16 * 1024 );
+    Writer        out   = new Benchmarks.NullWriter();
+    long          start = System.nanoTime();
+
+    for( int repetition = 0; repetition < REPETITIONS; repetition++ )
+    {
+      xml.append( "<v>" ).append( value ).append( "</v>" );
+
+      if( xml.length() >= XmlGenerator.DEFAULT_FLUSH_THRESHOLD )
+      {
+        out.append( xml );
+        xml.setLength( 0 );
+      }
+    }
+
+    report( name, value, start );
+  }
+
+  private static void measure( String name, Value value, boolean cdata ) throws IOException
+  {
+    XmlGenerator generator = new XmlGenerator();
+
+    generator.setXmlDeclaration( null );
+    generator.setAdaptiveCdata( cdata );
+    generator.begin( new Benchmarks.NullWriter() );
+
+    Key  key   = new Key( "v" );
+    long start = System.nanoTime();
+
+    for( int repetition = 0; repetition < REPETITIONS; repetition++ )
+      generator.generatePair( key, value );
+
+    generator.end();
+    report( name, value.getValue(), start );
+  }
+
+  /**
+   * @return the value as parsed, the scanner having said whether it may
+   *          hold characters XML doesn't allow.
+   */
+  private static Value parse( String value ) throws ParserBrokenException
+  {
+    return new JsonParser( "{ \"v\" : \"" + value + "\" }" ).parse().getValue( 0 );
+  }
+
+  private static void report( String name, String value, long start )
+  {
+    double seconds = ( System.nanoTime() - start ) / 1e9;
+
+    System.out.println( String.format( "%s  %6.2f GB/s", name,
+                            ( double ) value.length() * REPETITIONS / seconds / ( 1 << 30 ) ) );
+  }
+
+  private static String repeat( String text )
+  {
+    StringBuilder value = new StringBuilder();
+
+    while( value.length() < 4096 )
+      value.append( text );
+
+    return value.toString();
+  }
+}
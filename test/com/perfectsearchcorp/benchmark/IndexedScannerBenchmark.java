@@ -0,0 +1,69 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import com.perfectsearchcorp.scanner.IllegalCharacterOutsideOfTokenException;
+import com.perfectsearchcorp.scanner.IndexedJsonScanner;
+import com.perfectsearchcorp.scanner.JsonScanner;
+import com.perfectsearchcorp.scanner.NoMoreTokensException;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * Not a unit test (so not run by Maven): tokenizes one large document
+ * with <tt>JsonScanner</tt> and with <tt>IndexedJsonScanner</tt>, both as
+ * the fodder has it and indented the way pretty-printed JSON is (lots of
+ * white space for the indexed scanner not to look at).
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class IndexedScannerBenchmark
+{
+  private static final int SIZE   = 64 * 1024 * 1024;
+  private static final int ROUNDS = 5;
+
+  public static void main( String[] args ) throws IllegalCharacterOutsideOfTokenException
+  {
+    String compact = JsonToXmlTestFodder.records( SIZE );
+    String pretty  = compact.replace( "  \"", "\n        \"" );
+
+    for( int round = 0; round < ROUNDS; round++ )
+    {
+      System.out.println( String.format( "compact: plain %7.1f Mb/s  indexed %7.1f Mb/s    pretty: plain %7.1f Mb/s  indexed %7.1f Mb/s",
+                              rate( compact, false ), rate( compact, true ),
+                              rate( pretty, false ), rate( pretty, true ) ) );
+    }
+  }
+
+  private static double rate( String input, boolean indexed ) throws IllegalCharacterOutsideOfTokenException
+  {
+    JsonScanner scanner = ( indexed ) ? new IndexedJsonScanner( input ) : new JsonScanner( input );
+    long        start   = System.nanoTime();
+
+    try
+    {
+      while( true )
+        scanner.getNextToken();
+    }
+    catch( NoMoreTokensException e )
+    {
+      ;
+    }
+
+    return input.length() / 1.048576 / ( ( System.nanoTime() - start ) / 1e3 );
+  }
+}
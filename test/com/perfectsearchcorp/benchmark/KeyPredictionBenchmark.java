@@ -0,0 +1,103 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import java.nio.charset.StandardCharsets;
+
+import com.perfectsearchcorp.parser.Element;
+import com.perfectsearchcorp.parser.JsonParser;
+import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.scanner.Utf8JsonScanner;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * Not a unit test (so not run by Maven): parses 32 MB of log records,
+ * characters and UTF-8 bytes, with and without predicting keys, then, to
+ * show what predicting costs when it fails, log records whose keys are
+ * all different from one record to the next.
+ * <p />
+ * Timings vary a lot run to run on the machine measured, even taking the
+ * best of ten rounds. Characters parsed in 125 to 230 ms predicting
+ * against 285 to 450 ms not: about half the time. Bytes parsed in 330 to
+ * 340 ms against 340 to 410 (once, 150 against 340). When no key is
+ * ever predicted, there was no difference beyond the noise: 200 to 320
+ * ms either way.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class KeyPredictionBenchmark
+{
+  private static final int SIZE   = 32 * 1024 * 1024;
+  private static final int ROUNDS = 10;
+
+  public static void main( String[] args ) throws ParserBrokenException
+  {
+    String records  = JsonToXmlTestFodder.records( SIZE );
+    String distinct = distinct( SIZE );
+
+    measure( "characters, not predicting", records, false, false );
+    measure( "characters, predicting    ", records, false, true );
+    measure( "bytes, not predicting     ", records, true,  false );
+    measure( "bytes, predicting         ", records, true,  true );
+    measure( "distinct, not predicting  ", distinct, false, false );
+    measure( "distinct, predicting      ", distinct, false, true );
+  }
+
+  /**
+   * Reports the best of the rounds, as collecting the garbage of the
+   * previous one sometimes lands in the middle of one.
+   */
+  private static void measure( String name, String document, boolean bytes, boolean predicting )
+      throws ParserBrokenException
+  {
+    byte[] utf8 = ( bytes ) ? document.getBytes( StandardCharsets.UTF_8 ) : null;
+    long   best = Long.MAX_VALUE;
+    int    size = 0;
+
+    for( int round = 0; round < ROUNDS; round++ )
+    {
+      long       start  = System.nanoTime();
+      JsonParser parser = ( bytes ) ? new JsonParser( new Utf8JsonScanner( utf8 ) ) : new JsonParser( document );
+
+      parser.setPredictingKeys( predicting );
+
+      Element element = parser.parse();
+
+      best = Math.min( best, System.nanoTime() - start );
+      size = element.getValue( 0 ).size();
+    }
+
+    System.out.println( String.format( "%s  %5d ms  (%d records)", name, best / 1000000, size ) );
+  }
+
+  /**
+   * @return log records, each with keys of its own.
+   */
+  private static String distinct( int size )
+  {
+    String        record = JsonToXmlTestFodder.PERFECTSEARCH_CONTENT;
+    StringBuilder sb     = new StringBuilder( size + 1024 );
+
+    sb.append( "{ \"records\" : [ " ).append( record );
+
+    for( int count = 1; sb.length() < size; count++ )
+      sb.append( ",\n" ).append( record.replace( "\" :", count + "\" :" ) );
+
+    return sb.append( " ] }" ).toString();
+  }
+}
@@ -0,0 +1,126 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import com.perfectsearchcorp.generator.XmlGenerator;
+import com.perfectsearchcorp.parser.JsonParser;
+import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.scanner.Utf8JsonScanner;
+
+/**
+ * Not a unit test (so not run by Maven): transcodes, as the filter does, a
+ * mapped file holding a few records and one huge base64 value, once with
+ * the value made a <tt>String</tt> like any other, once put out a piece at
+ * a time, and reports throughput and peak heap for each. The XML is thrown
+ * away.
+ * <p />
+ * The size of the value, in megabytes, may be given (default 64). Peak
+ * heap counts garbage not yet collected. With a 2 GB heap and a 64 MB
+ * value:
+ * <ul>
+ * <li> As a <tt>String</tt>, peak heap was 260 to 330 MB: the bytes copied
+ *      out of the file, the string, and the encoded output, which reserves
+ *      room for the worst case. </li>
+ * <li> In pieces, peak heap was 100 to 150 MB, all of it short-lived
+ *      garbage from the pieces. </li>
+ * </ul>
+ * Run with -Xmx32m to see the difference. The string path runs out of
+ * heap. The piece path gets by in 11 MB, what a document without the value
+ * needs, at 260 to 390 MB/s once warmed up, against 210 to 310 MB/s for
+ * the string path with a heap large enough.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class LargeValueBenchmark
+{
+  public static void main( String[] args ) throws IOException, ParserBrokenException
+  {
+    long megabytes = ( args.length > 0 ) ? Long.parseLong( args[ 0 ] ) : 64;
+    File file      = File.createTempFile( "large-value", ".json" );
+
+    file.deleteOnExit();
+    writeDocument( file, megabytes * 1024 * 1024 );
+    System.out.println( String.format( "%d MB document in %s", file.length() >> 20, file ) );
+
+    for( int round = 0; round < 3; round++ )
+    {
+      measure( "as a string", file, Integer.MAX_VALUE );
+      measure( "in pieces  ", file, XmlGenerator.DEFAULT_LARGE_VALUE_THRESHOLD );
+    }
+  }
+
+  private static void measure( String name, File file, int threshold ) throws IOException, ParserBrokenException
+  {
+    System.gc();
+    Benchmarks.resetPeakHeap();
+
+    long start = System.nanoTime();
+
+    try( RandomAccessFile input = new RandomAccessFile( file, "r" ) )
+    {
+      FileChannel  channel   = input.getChannel();
+      ByteBuffer   content   = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+      XmlGenerator generator = new XmlGenerator();
+
+      generator.setLargeValueThreshold( threshold );
+      generator.transcode( new JsonParser( new Utf8JsonScanner( content ) ), new Benchmarks.NullOutputStream() );
+    }
+    catch( OutOfMemoryError e )
+    {
+      System.out.println( name + "  ran out of heap" );
+      return;
+    }
+
+    double seconds = ( System.nanoTime() - start ) / 1e9;
+
+    System.out.println( String.format( "%s  %7.1f MB/s   peak heap %6d MB",
+                            name, file.length() / seconds / ( 1 << 20 ), Benchmarks.peakHeap() >> 20 ) );
+  }
+
+  private static void writeDocument( File file, long size ) throws IOException
+  {
+    byte[] bytes  = new byte[ 48 * 1024 ];     // (64 KB of base64)
+    Random random = new Random( 42 );
+
+    try( Writer out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ), 1 << 16 ) )
+    {
+      out.write( "{ \"id\" : \"1\", \"name\" : \"attachment.bin\", \"content\" : \"" );
+
+      for( long length = 0; length < size; length += 64 * 1024 )
+      {
+        random.nextBytes( bytes );
+        out.write( Base64.getEncoder().encodeToString( bytes ) );
+      }
+
+      out.write( "\", \"type\" : \"application/octet-stream\" }" );
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import com.perfectsearchcorp.parser.Element;
+import com.perfectsearchcorp.parser.JsonParser;
+import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * Not a unit test (so not run by Maven): reads two top-level fields from
+ * each of a run of documents whose bulk is a deeply nested payload, first
+ * parsing each fully, then lazily. A third pass parses lazily but also
+ * reaches to the bottom of the payload, which is what laziness costs when
+ * it doesn't pay.
+ * <p />
+ * On a typical desktop, with 64K of payload nested ten deep, the shallow
+ * lookup parsed lazily runs four to five times as fast as after a full
+ * parse (about 1 GB/s against 200 MB/s), skipping over the payload being
+ * all it does. Reaching the bottom, though, costs two to three times a
+ * full parse: the payload is skipped over again at each level on the way
+ * down. Laziness pays only when most of each document goes unread.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class LazyParsingBenchmark
+{
+  private static final int PAYLOAD   = 64 * 1024;
+  private static final int DEPTH     = 10;
+  private static final int DOCUMENTS = 2000;
+  private static final int ROUNDS    = 5;
+
+  public static void main( String[] args ) throws ParserBrokenException
+  {
+    String document = document();
+
+    for( int round = 0; round < ROUNDS; round++ )
+    {
+      measure( "full parse, shallow lookup", document, false, false );
+      measure( "lazy parse, shallow lookup", document, true,  false );
+      measure( "lazy parse, deep lookup   ", document, true,  true );
+    }
+  }
+
+  private static void measure( String name, String document, boolean lazily, boolean deep )
+      throws ParserBrokenException
+  {
+    long start = System.nanoTime();
+    int  found = 0;
+
+    for( int count = 0; count < DOCUMENTS; count++ )
+    {
+      JsonParser parser  = new JsonParser( document );
+      Element    element = ( lazily ) ? parser.parseLazily() : parser.parse();
+
+      if( element.get( "id" ).getValue() != null && element.get( "type" ).getValue() != null )
+        found++;
+
+      if( deep )
+      {
+        Element level = element.get( "payload" ).getElement();
+
+        for( int depth = 1; depth < DEPTH; depth++ )
+          level = level.get( "level" ).getElement();
+
+        if( level.get( "records" ).size() > 0 )
+          found++;
+      }
+    }
+
+    long millis = ( System.nanoTime() - start ) / 1000000;
+
+    System.out.println( String.format( "%s  %5d ms  %7.1f MB/s  (%d found)", name, millis,
+                            ( double ) document.length() * DOCUMENTS / 1024 / 1024 / millis * 1000, found ) );
+  }
+
+  /**
+   * @return a document of a couple of fields and a payload of request-log
+   *          records nested <tt>DEPTH</tt> deep.
+   */
+  private static String document()
+  {
+    String payload = JsonToXmlTestFodder.records( PAYLOAD );
+
+    for( int depth = 1; depth < DEPTH; depth++ )
+      payload = "{ \"depth\" : \"" + depth + "\", \"level\" : " + payload + " }";
+
+    return "{ \"id\" : \"4711\", \"type\" : \"request-log\", \"payload\" : " + payload + ", \"trailer\" : \"end\" }";
+  }
+}
@@ -0,0 +1,97 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import com.perfectsearchcorp.generator.XmlGenerator;
+import com.perfectsearchcorp.parser.Element;
+import com.perfectsearchcorp.parser.JsonParser;
+import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * Not a unit test (so not run by Maven): parses and generates XML from
+ * ordinary documents, flat request-log records and the glossary nested a
+ * few dozen deep, reporting how long each step took and, at the end, the
+ * best times, which are what to compare: the collector makes the others
+ * noisy.
+ * <p />
+ * Parsing has kept its own stack since the pull parser came in. Run
+ * before and after <tt>XmlGenerator</tt> stopped recursing, on one core
+ * with a 3G heap, the best generating times were within the run-to-run
+ * spread of each other: about 100 ms for the records and 170 ms for the
+ * nested documents (32M each).
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class NestingBenchmark
+{
+  private static final int SIZE   = 32 * 1024 * 1024;
+  private static final int DEPTH  = 40;
+  private static final int ROUNDS = 10;
+
+  private static long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+
+  public static void main( String[] args ) throws ParserBrokenException
+  {
+    String records = JsonToXmlTestFodder.records( SIZE );
+    String nested  = nested();
+
+    for( int round = 0; round < ROUNDS; round++ )
+    {
+      measure( "records", records, 0 );
+      measure( "nested ", nested, 2 );
+    }
+
+    System.out.println( String.format( "best: records parse %d ms, generate %d ms; nested parse %d ms, generate %d ms",
+                            best[ 0 ] / 1000000, best[ 1 ] / 1000000, best[ 2 ] / 1000000, best[ 3 ] / 1000000 ) );
+  }
+
+  private static void measure( String name, String content, int which ) throws ParserBrokenException
+  {
+    long    start   = System.nanoTime();
+    Element element = new JsonParser( content ).parse();
+    long    parsed  = System.nanoTime();
+    String  xml     = new XmlGenerator().generate( element );
+    long    done    = System.nanoTime();
+
+    best[ which ]   = Math.min( best[ which ], parsed - start );
+    best[ which+1 ] = Math.min( best[ which+1 ], done - parsed );
+
+    System.out.println( String.format( "%s  parse %5d ms  generate %5d ms  (%d chars out)", name,
+                            ( parsed - start ) / 1000000, ( done - parsed ) / 1000000, xml.length() ) );
+  }
+
+  /**
+   * @return a document about <tt>SIZE</tt> long of glossaries, each nested
+   *          in objects <tt>DEPTH</tt> deep.
+   */
+  private static String nested()
+  {
+    String glossary = JsonToXmlTestFodder.SERIOUS_CONTENT;
+
+    for( int depth = 0; depth < DEPTH; depth++ )
+      glossary = "{ \"level\" : " + glossary + ", \"depth\" : \"" + depth + "\" }";
+
+    StringBuilder sb = new StringBuilder( SIZE + glossary.length() + 32 ).append( "{ \"nested\" : [ " ).append( glossary );
+
+    while( sb.length() < SIZE )
+      sb.append( ",\n" ).append( glossary );
+
+    return sb.append( " ] }" ).toString();
+  }
+}
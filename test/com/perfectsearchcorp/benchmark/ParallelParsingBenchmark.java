@@ -0,0 +1,73 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import com.perfectsearchcorp.parser.JsonParser;
+import com.perfectsearchcorp.parser.ParallelJsonParser;
+import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * Not a unit test (so not run by Maven): parses one big document of
+ * request-log records, an array of them in the outermost object, first on
+ * one thread, then in parallel on all the machine's cores. Run it with a
+ * heap of a few gigabytes.
+ * <p />
+ * How close the parallel parse comes to N times as fast depends on the
+ * first pass, which skips over the records on one thread, several times
+ * faster than parsing them but not N times, and on how the garbage
+ * collector copes with as many threads allocating at once. On a machine
+ * with a single core, where there's nothing to gain, the two take the
+ * same time within the noise the collector makes (1.1 to 1.6 seconds for
+ * 64 MB with a 3 GB heap): the first pass costs little.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class ParallelParsingBenchmark
+{
+  private static final int SIZE   = 64 * 1024 * 1024;
+  private static final int ROUNDS = 5;
+
+  public static void main( String[] args ) throws ParserBrokenException
+  {
+    String content = JsonToXmlTestFodder.records( SIZE );
+
+    System.out.println( Runtime.getRuntime().availableProcessors() + " cores" );
+
+    for( int round = 0; round < ROUNDS; round++ )
+    {
+      measure( "one thread", content, false );
+      measure( "parallel  ", content, true );
+    }
+  }
+
+  private static void measure( String name, String content, boolean parallel ) throws ParserBrokenException
+  {
+    long start = System.nanoTime();
+
+    if( parallel )
+      new ParallelJsonParser( content ).parse();
+    else
+      new JsonParser( content ).parse();
+
+    long millis = ( System.nanoTime() - start ) / 1000000;
+
+    System.out.println( String.format( "%s  %5d ms  %7.1f MB/s", name, millis,
+                            ( double ) content.length() / 1024 / 1024 / millis * 1000 ) );
+  }
+}
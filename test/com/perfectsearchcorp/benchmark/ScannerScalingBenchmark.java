@@ -0,0 +1,81 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import com.perfectsearchcorp.scanner.IllegalCharacterOutsideOfTokenException;
+import com.perfectsearchcorp.scanner.JsonScanner;
+import com.perfectsearchcorp.scanner.NoMoreTokensException;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * Not a unit test (so not run by Maven): tokenizes documents from 1 Kb up
+ * to 100 Mb and prints the time spent per character, which should hold
+ * steady if scanning is linear. Run it from the IDE or, after
+ * <tt>mvn test-compile</tt>, with something like:
+ *
+ * <pre>
+ *   java -Xmx2g -cp target/classes:target/test-classes:... \
+ *       com.perfectsearchcorp.benchmark.ScannerScalingBenchmark
+ * </pre>
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class ScannerScalingBenchmark
+{
+  private static final int[] SIZES = { 1024, 10*1024, 100*1024, 1024*1024, 10*1024*1024, 100*1024*1024 };
+
+  public static void main( String[] args ) throws IllegalCharacterOutsideOfTokenException
+  {
+    // (warm up)
+    scanAll( JsonToXmlTestFodder.records( 1024*1024 ) );
+
+    System.out.println( "      size   tokens         ms    ns/char" );
+
+    for( int size : SIZES )
+    {
+      String input  = JsonToXmlTestFodder.records( size );
+      long   start  = System.nanoTime();
+      long   tokens = scanAll( input );
+      long   nanos  = System.nanoTime() - start;
+
+      System.out.println( String.format( "%10d %8d %10.2f %10.2f",
+                              input.length(), tokens, nanos / 1e6, ( double ) nanos / input.length() ) );
+    }
+  }
+
+  private static long scanAll( String input ) throws IllegalCharacterOutsideOfTokenException
+  {
+    JsonScanner scanner = new JsonScanner( input );
+    long        tokens  = 0;
+
+    try
+    {
+      while( true )
+      {
+        scanner.getNextToken();
+        tokens++;
+      }
+    }
+    catch( NoMoreTokensException e )
+    {
+      ;
+    }
+
+    return tokens;
+  }
+}
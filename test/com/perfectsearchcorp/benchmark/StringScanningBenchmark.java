@@ -0,0 +1,125 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import com.perfectsearchcorp.scanner.IllegalCharacterOutsideOfTokenException;
+import com.perfectsearchcorp.scanner.JsonScanner;
+import com.perfectsearchcorp.scanner.NoMoreTokensException;
+import com.perfectsearchcorp.scanner.Token;
+
+/**
+ * Not a unit test (so not run by Maven): compares scanning and
+ * materializing long user-agent strings like the "client" value of
+ * <tt>JsonToXmlTestFodder.PERFECTSEARCH_CONTENT</tt> when they contain no
+ * backslash (the fast path) and when each slash is escaped (the decoding
+ * path). For reference, it also times the character-at-a-time copy the
+ * scanner used to make.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class StringScanningBenchmark
+{
+  private static final String USER_AGENT =
+        "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/35.0.1916.153 Safari/537.36";
+  private static final int    STRINGS    = 200000;
+  private static final int    ROUNDS     = 10;
+
+  public static void main( String[] args ) throws IllegalCharacterOutsideOfTokenException
+  {
+    String plain   = document( USER_AGENT );
+    String escaped = document( USER_AGENT.replace( "/", "\\/" ) );
+
+    for( int round = 0; round < ROUNDS; round++ )
+    {
+      long fast = time( plain );
+      long slow = time( escaped );
+      long old  = timeCharacterAtATime( plain );
+
+      System.out.println( String.format( "plain %6.1f ns/string   escaped %6.1f ns/string   (char-at-a-time %6.1f ns/string)",
+                              ( double ) fast / STRINGS, ( double ) slow / STRINGS, ( double ) old / STRINGS ) );
+    }
+  }
+
+  private static String document( String value )
+  {
+    StringBuilder sb = new StringBuilder( "[ " );
+
+    for( int count = 0; count < STRINGS; count++ )
+      sb.append( ( count > 0 ) ? ", \"" : "\"" ).append( value ).append( '"' );
+
+    return sb.append( " ]" ).toString();
+  }
+
+  private static long time( String input ) throws IllegalCharacterOutsideOfTokenException
+  {
+    JsonScanner scanner = new JsonScanner( input );
+    long        length  = 0;
+    long        start   = System.nanoTime();
+
+    try
+    {
+      while( true )
+      {
+        Token token = scanner.getNextToken();
+        length += token.getToken().length();
+      }
+    }
+    catch( NoMoreTokensException e )
+    {
+      ;
+    }
+
+    long elapsed = System.nanoTime() - start;
+
+    if( length == 0 )
+      System.out.println( "(nothing scanned)" );
+
+    return elapsed;
+  }
+
+  /**
+   * What eatToDoubleQuote() used to do for every string.
+   */
+  private static long timeCharacterAtATime( String input )
+  {
+    long length = 0;
+    long start  = System.nanoTime();
+
+    for( int pos = input.indexOf( '"' ); pos >= 0; pos = input.indexOf( '"', pos+1 ) )
+    {
+      StringBuilder accepted = new StringBuilder();
+      char          character;
+
+      while( ( character = input.charAt( ++pos ) ) != '"' )
+      {
+        if( character == '\\' )
+          character = input.charAt( ++pos );
+        accepted.append( character );
+      }
+
+      length += accepted.toString().length();
+    }
+
+    long elapsed = System.nanoTime() - start;
+
+    if( length == 0 )
+      System.out.println( "(nothing scanned)" );
+
+    return elapsed;
+  }
+}
@@ -0,0 +1,80 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import com.perfectsearchcorp.parser.JsonParser;
+import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.parser.Tape;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * Not a unit test (so not run by Maven): parses the same document of
+ * request-log records into an <tt>Element</tt> tree and onto a
+ * <tt>Tape</tt>, reporting for each how long it took, how much of that
+ * the garbage collector spent and how much heap the result retains.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class TapeBenchmark
+{
+  private static final int SIZE   = 64 * 1024 * 1024;
+  private static final int ROUNDS = 5;
+
+  public static void main( String[] args ) throws ParserBrokenException
+  {
+    String content = JsonToXmlTestFodder.records( SIZE );
+
+    for( int round = 0; round < ROUNDS; round++ )
+    {
+      measure( "element", content, false );
+      measure( "tape   ", content, true );
+    }
+  }
+
+  private static void measure( String name, String content, boolean tape ) throws ParserBrokenException
+  {
+    long   before = Benchmarks.retainedHeap();
+    long   gc     = gcMillis();
+    long   start  = System.nanoTime();
+    Object result = ( tape ) ? new Tape( new JsonParser( content ) ) : new JsonParser( content ).parse();
+    long   millis = ( System.nanoTime() - start ) / 1000000;
+
+    gc = gcMillis() - gc;
+
+    long retained = Benchmarks.retainedHeap() - before;
+
+    System.out.println( String.format( "%s  %5d ms (gc %5d ms)   %5d MB retained",
+                            name, millis, gc, retained >> 20 ) );
+
+    if( result == null )
+      System.out.println( "(nothing parsed)" );
+  }
+
+  private static long gcMillis()
+  {
+    long millis = 0;
+
+    for( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() )
+      millis += collector.getCollectionTime();
+
+    return millis;
+  }
+}
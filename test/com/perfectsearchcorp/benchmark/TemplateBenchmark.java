@@ -0,0 +1,113 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import java.io.IOException;
+
+import com.perfectsearchcorp.generator.XmlGenerator;
+import com.perfectsearchcorp.parser.Element;
+import com.perfectsearchcorp.parser.JsonParser;
+import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * Not a unit test (so not run by Maven): generates 32 MB of log records,
+ * parsed beforehand, with and without record templates, into a string and
+ * as UTF-8 bytes. To show what it costs when records don't recur, it also
+ * generates documents whose records alternate between two shapes and
+ * in which every other record has a shape of its own.
+ * <p />
+ * Run to run, the timings vary a lot on the machine measured, even taking
+ * the best of ten rounds. Into a string, recurring records took 65 to 80
+ * ms with templates and 95 to 140 ms without; as bytes, 45 to 80 ms
+ * against 60 to 135. Records alternating between two shapes, both of
+ * which are compiled, took 70 to 110 ms against 90 to 145. When every
+ * other record has a shape of its own, there was no difference beyond
+ * the noise: 145 to 190 ms either way, measured taking turns.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class TemplateBenchmark
+{
+  private static final int SIZE   = 32 * 1024 * 1024;
+  private static final int ROUNDS = 10;
+
+  public static void main( String[] args ) throws ParserBrokenException, IOException
+  {
+    Element records     = new JsonParser( JsonToXmlTestFodder.records( SIZE ) ).parse();
+    Element alternating = new JsonParser( varied( SIZE, false ) ).parse();
+    Element distinct    = new JsonParser( varied( SIZE, true ) ).parse();
+
+    measure( "string, without templates     ", records, false, false );
+    measure( "string, with templates        ", records, true,  false );
+    measure( "bytes,  without templates     ", records, false, true );
+    measure( "bytes,  with templates        ", records, true,  true );
+    measure( "alternating, without templates", alternating, false, false );
+    measure( "alternating, with templates   ", alternating, true,  false );
+    measure( "distinct, without templates   ", distinct, false, false );
+    measure( "distinct, with templates      ", distinct, true,  false );
+  }
+
+  /**
+   * Reports the best of the rounds, as collecting the garbage of the
+   * previous one sometimes lands in the middle of one.
+   */
+  private static void measure( String name, Element root, boolean templates, boolean bytes ) throws IOException
+  {
+    XmlGenerator generator = new XmlGenerator();
+    long         best      = Long.MAX_VALUE;
+
+    generator.configurePrettyPrinter( true );
+    generator.setRecordTemplates( templates );
+
+    for( int round = 0; round < ROUNDS; round++ )
+    {
+      long start = System.nanoTime();
+
+      if( bytes )
+        generator.generate( root, new Benchmarks.NullOutputStream() );
+      else
+        generator.generate( root );
+
+      best = Math.min( best, System.nanoTime() - start );
+    }
+
+    System.out.println( String.format( "%s  %5d ms", name, best / 1000000 ) );
+  }
+
+  /**
+   * @return log records, every other one with a key more or, if
+   *          <tt>distinct</tt>, each one with a key of its own more.
+   */
+  private static String varied( int size, boolean distinct )
+  {
+    String        record = JsonToXmlTestFodder.PERFECTSEARCH_CONTENT;
+    StringBuilder sb     = new StringBuilder( size + 1024 );
+
+    sb.append( "{ \"records\" : [ " ).append( record );
+
+    for( int count = 1; sb.length() < size; count++ )
+    {
+      String key = ( distinct ) ? "host" + count : "host";
+
+      sb.append( ",\n" ).append( ( count % 2 == 0 ) ? record : record.replaceFirst( "\\{", "{ \"" + key + "\" : \"localhost\"," ) );
+    }
+
+    return sb.append( " ] }" ).toString();
+  }
+}
@@ -0,0 +1,126 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.perfectsearchcorp.generator.XmlGenerator;
+import com.perfectsearchcorp.parser.Element;
+import com.perfectsearchcorp.parser.JsonParser;
+import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.scanner.Utf8JsonScanner;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * Not a unit test (so not run by Maven): converts a file of request-log
+ * records, as the filter does, once by building the <tt>Element</tt> tree
+ * and generating from it, once by transcoding straight from parser events,
+ * and reports throughput and peak heap for each. The XML is thrown away.
+ * <p />
+ * The size of the file, in megabytes, may be given (default 256); with
+ * 1024, the tree path needs a heap of many gigabytes (-Xmx) and, if it
+ * runs out, says so. Peak heap counts garbage not yet collected, so with
+ * a large heap it overstates what the transcoder needs: run with, e.g.:
+ * -Xmx24m to see it get by in that while the tree path can't.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class TranscoderBenchmark
+{
+  public static void main( String[] args ) throws IOException, ParserBrokenException
+  {
+    long megabytes = ( args.length > 0 ) ? Long.parseLong( args[ 0 ] ) : 256;
+    File file      = File.createTempFile( "records", ".json" );
+
+    file.deleteOnExit();
+    writeRecords( file, megabytes * 1024 * 1024 );
+    System.out.println( String.format( "%d MB of records in %s", file.length() >> 20, file ) );
+
+    for( int round = 0; round < 3; round++ )
+    {
+      measure( "transcode", file, false );
+      measure( "tree     ", file, true );
+    }
+  }
+
+  private static void measure( String name, File file, boolean tree ) throws IOException, ParserBrokenException
+  {
+    System.gc();
+    Benchmarks.resetPeakHeap();
+
+    long start = System.nanoTime();
+
+    try( RandomAccessFile input = new RandomAccessFile( file, "r" ) )
+    {
+      FileChannel  channel   = input.getChannel();
+      ByteBuffer   content   = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+      JsonParser   parser    = new JsonParser( new Utf8JsonScanner( content ) );
+      XmlGenerator generator = new XmlGenerator();
+      Writer       out       = new Benchmarks.NullWriter();
+
+      if( tree )
+      {
+        Element root = parser.parse();
+        out.write( generator.generate( root ) );
+      }
+      else
+      {
+        generator.transcode( parser, out );
+      }
+    }
+    catch( OutOfMemoryError e )
+    {
+      System.out.println( name + "  ran out of heap" );
+      return;
+    }
+
+    double seconds = ( System.nanoTime() - start ) / 1e9;
+
+    System.out.println( String.format( "%s  %7.1f MB/s   peak heap %6d MB",
+                            name, file.length() / seconds / ( 1 << 20 ), Benchmarks.peakHeap() >> 20 ) );
+  }
+
+  private static void writeRecords( File file, long size ) throws IOException
+  {
+    String record = JsonToXmlTestFodder.PERFECTSEARCH_CONTENT;
+    long   length = 0;
+
+    try( Writer out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ), 1 << 16 ) )
+    {
+      out.write( "{ \"records\" : [ " );
+      out.write( record );
+
+      for( length = record.length(); length < size; length += record.length() + 2 )
+      {
+        out.write( ",\n" );
+        out.write( record );
+      }
+
+      out.write( " ] }" );
+    }
+  }
+}
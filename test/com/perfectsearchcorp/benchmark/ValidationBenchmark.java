@@ -0,0 +1,77 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.perfectsearchcorp.generator.XmlGenerator;
+import com.perfectsearchcorp.parser.JsonParser;
+import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.scanner.Utf8JsonScanner;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * Not a unit test (so not run by Maven): converts a document of request-
+ * log records to XML (thrown away as it's written), then only validates
+ * it, first as UTF-8 bytes, then as a <tt>String</tt>.
+ * <p />
+ * Validating runs about one and a half times as fast as converting:
+ * roughly 200 to 230 MB/s against 130 to 160 MB/s on a modest single-core
+ * machine. No element is built and no XML written, but every token must
+ * still be scanned, and scanning is most of what's left; strings without
+ * escapes are checked for control characters eight bytes at a time.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class ValidationBenchmark
+{
+  private static final int SIZE   = 64 * 1024 * 1024;
+  private static final int ROUNDS = 5;
+
+  public static void main( String[] args ) throws ParserBrokenException, IOException
+  {
+    String     content = JsonToXmlTestFodder.records( SIZE );
+    ByteBuffer bytes   = ByteBuffer.wrap( content.getBytes( StandardCharsets.UTF_8 ) );
+
+    for( int round = 0; round < ROUNDS; round++ )
+    {
+      measure( "convert  (UTF-8) ", bytes.capacity(), new JsonParser( new Utf8JsonScanner( bytes ) ), false );
+      measure( "validate (UTF-8) ", bytes.capacity(), new JsonParser( new Utf8JsonScanner( bytes ) ), true );
+      measure( "convert  (String)", content.length(), new JsonParser( content ), false );
+      measure( "validate (String)", content.length(), new JsonParser( content ), true );
+    }
+  }
+
+  private static void measure( String name, int size, JsonParser parser, boolean validate )
+      throws ParserBrokenException, IOException
+  {
+    long start = System.nanoTime();
+
+    if( validate )
+      parser.validate();
+    else
+      new XmlGenerator().transcode( parser, new Benchmarks.NullWriter() );
+
+    long millis = ( System.nanoTime() - start ) / 1000000;
+
+    System.out.println( String.format( "%s  %5d ms  %7.1f MB/s", name, millis,
+                            ( double ) size / 1024 / 1024 / millis * 1000 ) );
+  }
+}
@@ -124,6 +124,31 @@ public class JsonToXmlFilterTest
     JsonToXmlFilter.main( args );
   }
 
+  @Test
+  public void testSelect() throws IOException
+  {
+    log.info( "Test: testSelect ----------------------------------------" );
+
+    String[] args =
+      {
+        "--select", "key",
+        "--exclude", "key.nothing",
+        jsonFilename
+      };
+
+    JsonToXmlFilter.main( args );
+  }
+
+  @Test
+  public void testValidate()
+  {
+    log.info( "Test: testValidate ----------------------------------------" );
+
+    String[] args = { "--validate", jsonFilename };
+
+    JsonToXmlFilter.main( args );
+  }
+
   private static void createJsonFileForTesting( String filename, String content ) throws IOException
   {
     deleteJsonFileCreatedForTesting( filename );
@@ -0,0 +1,80 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.generator;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class TagCacheTest
+{
+  @Test
+  public void testLegalNamesKept()
+  {
+    assertEquals( TagCache.toXmlName( "records" ), "records" );
+    assertEquals( TagCache.toXmlName( "_a-b.c9" ), "_a-b.c9" );
+    assertEquals( TagCache.toXmlName( "xs:date" ), "xs:date" );
+    assertEquals( TagCache.toXmlName( "\u00e9t\u00e9" ), "\u00e9t\u00e9" );
+    assertEquals( TagCache.toXmlName( "\ud800\udc00x" ), "\ud800\udc00x" );
+  }
+
+  @Test
+  public void testIllegalNamesMadeLegal()
+  {
+    assertEquals( TagCache.toXmlName( "" ), "_" );
+    assertEquals( TagCache.toXmlName( "a b" ), "a_b" );
+    assertEquals( TagCache.toXmlName( "1st" ), "_1st" );
+    assertEquals( TagCache.toXmlName( "-x" ), "_-x" );
+    assertEquals( TagCache.toXmlName( "<a>" ), "_a_" );
+    assertEquals( TagCache.toXmlName( "a&b\"c" ), "a_b_c" );
+    assertEquals( TagCache.toXmlName( "a\u00d7b" ), "a_b" );      // (a multiplication sign)
+  }
+
+  @Test
+  public void testTags()
+  {
+    TagCache.Tag tag = new TagCache().get( "\u00e9 1" );
+
+    assertEquals( tag.opening, "<\u00e9_1>" );
+    assertEquals( tag.closing, "</\u00e9_1>" );
+    assertEquals( new String( tag.openingBytes, StandardCharsets.UTF_8 ), tag.opening );
+    assertEquals( new String( tag.closingBytes, StandardCharsets.UTF_8 ), tag.closing );
+  }
+
+  @Test
+  public void testBounded()
+  {
+    TagCache     cache = new TagCache( 4 );
+    TagCache.Tag first = cache.get( new String( "a" ) );
+
+    assertSame( cache.get( new String( "a" ) ), first );
+
+    for( int key = 0; key < 100; key++ )
+      cache.get( "k" + key );
+
+    assertEquals( cache.size(), 4 );
+    assertNotSame( cache.get( "a" ), first );
+  }
+}
@@ -16,10 +16,29 @@
  */
 package com.perfectsearchcorp.generator;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
 import org.junit.Test;
+import org.xml.sax.InputSource;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -27,6 +46,7 @@ import org.apache.logging.log4j.Logger;
 import com.perfectsearchcorp.parser.Element;
 import com.perfectsearchcorp.parser.JsonParser;
 import com.perfectsearchcorp.parser.ParserBrokenException;
+import com.perfectsearchcorp.scanner.Utf8JsonScanner;
 import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
 
 public class XmlGeneratorTest
@@ -173,6 +193,491 @@ public class XmlGeneratorTest
     assertNotNull( xml );
   }
 
+  @Test
+  public void testTranscodeLikeGenerate() throws ParserBrokenException, IOException
+  {
+    String[] documents =
+    {
+      JsonToXmlTestFodder.SIMPLE_JSON,
+      JsonToXmlTestFodder.SIMPLE_ARRAY,
+      JsonToXmlTestFodder.COMPLEX_JSON,
+      JsonToXmlTestFodder.ARRAY_CONTENT2,
+      JsonToXmlTestFodder.SERIOUS_CONTENT,
+      JsonToXmlTestFodder.SERIOUS_CONTENT3,
+      JsonToXmlTestFodder.PERFECTSEARCH_CONTENT,
+      JsonToXmlTestFodder.records( 100000 )
+    };
+
+    for( String document : documents )
+    {
+      String expected = configureGenerator().generate( doParse( document ) );
+
+      assertEquals( expected, transcode( document ) );
+    }
+  }
+
+  @Test
+  public void testGenerateLazilyParsed() throws ParserBrokenException
+  {
+    String[] documents =
+    {
+      JsonToXmlTestFodder.SIMPLE_ARRAY,
+      JsonToXmlTestFodder.COMPLEX_JSON,
+      JsonToXmlTestFodder.ARRAY_CONTENT2,
+      JsonToXmlTestFodder.SERIOUS_CONTENT,
+      JsonToXmlTestFodder.PERFECTSEARCH_CONTENT,
+      "{ \"a\" : { \"b\" : { } }, \"c\" : [ { } ], \"h\" : [ ], \"d\" : \"1\", \"e\" : { \"f\" : [ ], \"g\" : \"2\" } }",
+      JsonToXmlTestFodder.records( 100000 )
+    };
+
+    for( String document : documents )
+    {
+      String expected = configureGenerator().generate( doParse( document ) );
+
+      assertEquals( configureGenerator().generate( new JsonParser( document ).parseLazily() ), expected );
+    }
+  }
+
+  @Test
+  public void testDeepNesting() throws ParserBrokenException, IOException
+  {
+    StringBuilder content = new StringBuilder();
+    StringBuilder xml     = new StringBuilder();
+    int           depth   = 100000;
+
+    for( int level = 0; level < depth; level++ )
+    {
+      content.append( ( level > 0 ) ? "\"a\":[{" : "{" );
+      xml.append( ( level > 0 ) ? "<a>" : "" );
+    }
+
+    xml.append( "<b>1</b>" );
+    content.append( "\"b\":\"1\"" );
+
+    for( int level = 0; level < depth; level++ )
+    {
+      content.append( ( level < depth-1 ) ? "}]" : "}" );
+      xml.append( ( level < depth-1 ) ? "</a>" : "" );
+    }
+
+    JsonParser   parser    = new JsonParser( content.toString() );
+    XmlGenerator generator = new XmlGenerator();
+    StringWriter out       = new StringWriter();
+
+    generator.setXmlDeclaration( null );
+    parser.setMaxDepth( 2 * depth );
+
+    assertEquals( generator.generate( parser.parse() ), xml.toString() );
+
+    parser = new JsonParser( content.toString() );
+    parser.setMaxDepth( 2 * depth );
+    generator.transcode( parser, out );
+
+    assertEquals( out.toString(), xml.toString() );
+  }
+
+  @Test
+  public void testGenerateInParallel() throws ParserBrokenException
+  {
+    ForkJoinPool pool = new ForkJoinPool( 4 );
+    String[] documents =
+    {
+      JsonToXmlTestFodder.SIMPLE_ARRAY,
+      JsonToXmlTestFodder.COMPLEX_JSON,
+      JsonToXmlTestFodder.ARRAY_CONTENT2,
+      JsonToXmlTestFodder.SERIOUS_CONTENT,
+      JsonToXmlTestFodder.PERFECTSEARCH_CONTENT,
+      "{ \"a\" : { \"b\" : { } }, \"c\" : [ { } ], \"h\" : [ ], \"d\" : \"1\", \"e\" : { \"f\" : [ ], \"g\" : \"2\" } }",
+      JsonToXmlTestFodder.records( 256 * 1024 )
+    };
+
+    try
+    {
+      for( String document : documents )
+      {
+        for( boolean pretty : new boolean[] { true, false } )
+        {
+          XmlGenerator sequential = configureGenerator();
+
+          sequential.configurePrettyPrinter( pretty );
+
+          String expected = sequential.generate( doParse( document ) );
+
+          for( int threshold : new int[] { 1, 3, 50, XmlGenerator.DEFAULT_PARALLEL_THRESHOLD } )
+          {
+            XmlGenerator parallel = configureGenerator();
+
+            parallel.configurePrettyPrinter( pretty );
+            parallel.configureParallelism( pool, threshold );
+
+            assertEquals( parallel.generate( doParse( document ) ), expected );
+            assertEquals( parallel.generate( new JsonParser( document ).parseLazily() ), expected );
+          }
+        }
+      }
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testGenerateDeeplyNestedInParallel() throws ParserBrokenException
+  {
+    ForkJoinPool  pool    = new ForkJoinPool( 4 );
+    StringBuilder content = new StringBuilder();
+    int           depth   = 1000;
+
+    for( int level = 0; level < depth; level++ )
+      content.append( ( level > 0 ) ? "\"a\":[{\"c\":\"x\"," : "{" );
+    content.append( "\"b\":\"1\"" );
+    for( int level = 0; level < depth; level++ )
+      content.append( ( level < depth-1 ) ? "}]" : "}" );
+
+    JsonParser   parser     = new JsonParser( content.toString() );
+    XmlGenerator sequential = configureGenerator();
+    XmlGenerator parallel   = configureGenerator();
+
+    parser.setMaxDepth( 2 * depth );
+
+    Element root = parser.parse();
+
+    parallel.configureParallelism( pool, 1 );
+
+    try
+    {
+      assertEquals( parallel.generate( root ), sequential.generate( root ) );
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testGenerateStreaming() throws ParserBrokenException, IOException
+  {
+    String[] documents =
+    {
+      JsonToXmlTestFodder.SIMPLE_ARRAY,
+      JsonToXmlTestFodder.COMPLEX_JSON,
+      JsonToXmlTestFodder.SERIOUS_CONTENT,
+      JsonToXmlTestFodder.PERFECTSEARCH_CONTENT,
+      "{ \"a\" : { \"b\" : { } }, \"c\" : [ { } ], \"d\" : \"1\", \"e\" : { \"x\" : { }, \"g\" : \"2\", \"y\" : { \"z\" : { } } } }",
+      "{ \"\u00e9t\u00e9\" : \"\u65e5\u672c \ud83d\ude00\", \"b\" : [ \"\u00fc\", \"\u00df\" ] }",
+      JsonToXmlTestFodder.records( 256 * 1024 )
+    };
+    XmlGenerator generator = configureGenerator();   // (kept from one document to the next)
+
+    for( String document : documents )
+    {
+      String expected = configureGenerator().generate( doParse( document ) );
+
+      for( int threshold : new int[] { 1, 100, XmlGenerator.DEFAULT_FLUSH_THRESHOLD } )
+      {
+        StringWriter          writer = new StringWriter();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ByteArrayOutputStream bytes  = new ByteArrayOutputStream();
+
+        generator.configureFlushing( threshold, false );
+        generator.generate( doParse( document ), writer );
+        generator.generate( new JsonParser( document ).parseLazily(), stream );
+        generator.generate( doParse( document ), Channels.newChannel( bytes ) );
+
+        assertEquals( writer.toString(), expected );
+        assertEquals( new String( stream.toByteArray(), StandardCharsets.UTF_8 ), expected );
+        assertEquals( new String( bytes.toByteArray(), StandardCharsets.UTF_8 ), expected );
+      }
+    }
+  }
+
+  @Test
+  public void testGenerateStreamingWritesOutAsItGoes() throws IOException
+  {
+    final List< Integer > flushedAt = new ArrayList<>();   // length of the XML at each flush
+    final StringWriter    writer    = new StringWriter();
+    Writer out = new FilterWriter( writer )
+    {
+      @Override
+      public void flush() { flushedAt.add( writer.getBuffer().length() ); }
+    };
+    XmlGenerator generator = configureGenerator();
+
+    generator.configureFlushing( 1024, true );
+    generator.generate( doParse( JsonToXmlTestFodder.records( 64 * 1024 ) ), out );
+
+    assertTrue( flushedAt.size() > 10 );
+    assertTrue( flushedAt.get( 0 ) < 2048 );
+    assertEquals( writer.toString(), configureGenerator().generate( doParse( JsonToXmlTestFodder.records( 64 * 1024 ) ) ) );
+  }
+
+  @Test
+  public void testKeysMadeLegalNames() throws IOException
+  {
+    XmlGenerator          generator = new XmlGenerator();
+    ByteArrayOutputStream bytes     = new ByteArrayOutputStream();
+    Element               root      = doParse( "{ \"1a\" : \"x\", \"a b\" : [ \"y\" ], \"\u00e9\" : { \"<\" : \"z\" } }" );
+    String                expected  = "<_1a>x</_1a><a_b>y</a_b><\u00e9><_>z</_></\u00e9>";
+
+    generator.setXmlDeclaration( null );
+    generator.generate( root, bytes );
+
+    assertEquals( generator.generate( root ), expected );
+    assertEquals( new String( bytes.toByteArray(), StandardCharsets.UTF_8 ), expected );
+  }
+
+  @Test
+  public void testEscaping() throws ParserBrokenException, IOException
+  {
+    String document = "{ \"a\" : \"x & y < z\", \"b\" : [ \"]]>\", \"R&D\" ], \"c\" : \"<p>&amp;</p>\", \"d\" : \"plain\" }";
+
+    assertEscaped( document, false,
+        "<a>x &amp; y &lt; z</a><b>]]&gt;</b><b>R&amp;D</b><c>&lt;p&gt;&amp;amp;&lt;/p&gt;</c><d>plain</d>" );
+    assertEscaped( document, true,
+        "<a>x &amp; y &lt; z</a><b>]]&gt;</b><b>R&amp;D</b><c><![CDATA[<p>&amp;</p>]]></c><d>plain</d>" );
+  }
+
+  @Test
+  public void testIllegalCharactersReplaced() throws Exception
+  {
+    String document = "{ \"a\" : \"x\\u0001y\\u0000z\\uFFFE\\uFFFF\", \"b\" : \"tab\\tlf\\ncr\\r.\", "
+                    + "\"c\" : \"<<<<\\u001f]]>>>>>\", \"d\" : \"R&D\\u0008\" }";
+
+    assertEscaped( document, false,
+        "<a>x\uFFFDy\uFFFDz\uFFFD\uFFFD</a><b>tab\tlf\ncr\r.</b><c>&lt;&lt;&lt;&lt;\uFFFD]]&gt;&gt;&gt;&gt;&gt;</c>"
+      + "<d>R&amp;D\uFFFD</d>" );
+    assertEscaped( document, true,
+        "<a>x\uFFFDy\uFFFDz\uFFFD\uFFFD</a><b>tab\tlf\ncr\r.</b><c><![CDATA[<<<<\uFFFD]]]]><![CDATA[>>>>>]]></c>"
+      + "<d>R&amp;D\uFFFD</d>" );
+
+    // what a real XML parser makes of it (a carriage return is read as a line feed)...
+    for( boolean cdata : new boolean[] { false, true } )
+    {
+      XmlGenerator generator = configureGenerator();
+
+      generator.setDocType( null );
+      generator.setAdaptiveCdata( cdata );
+
+      String                 xml     = generator.generate( doParse( document ) );
+      DocumentBuilder        builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+      org.w3c.dom.Element    root    = builder.parse( new InputSource( new StringReader( xml ) ) ).getDocumentElement();
+
+      assertEquals( root.getElementsByTagName( "a" ).item( 0 ).getTextContent(), "x\uFFFDy\uFFFDz\uFFFD\uFFFD" );
+      assertEquals( root.getElementsByTagName( "b" ).item( 0 ).getTextContent(), "tab\tlf\ncr\n." );
+      assertEquals( root.getElementsByTagName( "c" ).item( 0 ).getTextContent(), "<<<<\uFFFD]]>>>>>" );
+      assertEquals( root.getElementsByTagName( "d" ).item( 0 ).getTextContent(), "R&D\uFFFD" );
+    }
+  }
+
+  /**
+   * Left as they are in the content, which a lenient scan lets by, the
+   * characters are found by the scanner, not looked for in every value.
+   */
+  @Test
+  public void testRawIllegalCharactersReplaced() throws ParserBrokenException, IOException
+  {
+    String document = "{ \"a\" : \"x\u0001y\uFFFEz\", \"b\" : \"clean\", "
+                    + "\"c\" : [ { \"d\" : \"<\u001f>\" }, { \"d\" : \"\u0000\" }, { \"d\" : \"ok\" } ] }";
+
+    assertEscaped( document, false,
+        "<a>x\uFFFDy\uFFFDz</a><b>clean</b><c><d>&lt;\uFFFD&gt;</d></c><c><d>\uFFFD</d></c><c><d>ok</d></c>" );
+  }
+
+  @Test
+  public void testCdataSplitAroundItsEnd() throws ParserBrokenException, IOException
+  {
+    assertEscaped( "{ \"a\" : \"<<<<a]]>b>>>>\" }", true, "<a><![CDATA[<<<<a]]]]><![CDATA[>b>>>>]]></a>" );
+    assertEscaped( "{ \"a\" : \"]]>]]>]]>&\" }", true, "<a>]]&gt;]]&gt;]]&gt;&amp;</a>" );
+  }
+
+  /**
+   * Every way of generating must escape alike.
+   */
+  private void assertEscaped( String document, boolean cdata, String expected )
+      throws ParserBrokenException, IOException
+  {
+    XmlGenerator          generator = new XmlGenerator();
+    ByteArrayOutputStream bytes     = new ByteArrayOutputStream();
+    StringWriter          out       = new StringWriter();
+    ForkJoinPool          pool      = new ForkJoinPool( 2 );
+
+    generator.setXmlDeclaration( null );
+    generator.setAdaptiveCdata( cdata );
+
+    assertEquals( generator.generate( doParse( document ) ), expected );
+
+    generator.generate( doParse( document ), bytes );
+    assertEquals( new String( bytes.toByteArray(), StandardCharsets.UTF_8 ), expected );
+
+    generator.transcode( new JsonParser( document ), out );
+    assertEquals( out.toString(), expected );
+
+    out.getBuffer().setLength( 0 );
+    generator.transcode( new JsonParser( new Utf8JsonScanner( document.getBytes( StandardCharsets.UTF_8 ) ) ), out );
+    assertEquals( out.toString(), expected );
+
+    generator.setRecordTemplates( true );
+    assertEquals( generator.generate( doParse( document ) ), expected );
+    generator.setRecordTemplates( false );
+
+    try
+    {
+      generator.configureParallelism( pool, 1 );
+      assertEquals( generator.generate( doParse( document ) ), expected );
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testTranscodeLargeValues() throws ParserBrokenException, IOException
+  {
+    StringBuilder value = new StringBuilder();
+
+    while( value.length() < 300000 )
+      value.append( "R&D <b> \\\"quoted\\\" \\u00e9t\\u00e9 \u65e5\u672c \ud83d\ude00 ]]> \\\\ \\n" );
+
+    String document = "{ \"big\" : \"" + value + "\", \"a\" : [ \"small\", \"" + value + "\" ] }";
+    byte[] bytes    = document.getBytes( StandardCharsets.UTF_8 );
+
+    for( boolean cdata : new boolean[] { false, true } )
+    {
+      XmlGenerator generator = configureGenerator();
+
+      generator.setAdaptiveCdata( cdata );
+
+      String expected = generator.generate( doParse( document ) );
+
+      for( int threshold : new int[] { 100, XmlGenerator.DEFAULT_LARGE_VALUE_THRESHOLD } )
+      {
+        StringWriter          out    = new StringWriter();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        generator.setLargeValueThreshold( threshold );
+        generator.transcode( new JsonParser( document ), out );
+        generator.transcode( new JsonParser( new Utf8JsonScanner( ByteBuffer.wrap( bytes ) ) ), stream );
+
+        // (a piece at a time, whether each is made CDATA is up to that piece)
+        assertEquals( withoutCdata( out.toString() ), withoutCdata( expected ) );
+        assertEquals( withoutCdata( new String( stream.toByteArray(), StandardCharsets.UTF_8 ) ), withoutCdata( expected ) );
+      }
+    }
+  }
+
+  /**
+   * @return the XML with each CDATA section made escaped text.
+   */
+  private static String withoutCdata( String xml )
+  {
+    StringBuilder text = new StringBuilder();
+    int           from = 0;
+    int           open;
+
+    while( ( open = xml.indexOf( "<![CDATA[", from ) ) >= 0 )
+    {
+      int close = xml.indexOf( "]]>", open );
+
+      text.append( xml, from, open );
+      text.append( xml.substring( open + 9, close ).replace( "&", "&amp;" ).replace( "<", "&lt;" ).replace( ">", "&gt;" ) );
+      from = close + 3;
+    }
+
+    return text.append( xml, from, xml.length() ).toString();
+  }
+
+  @Test
+  public void testRecordTemplates() throws ParserBrokenException, IOException
+  {
+    String shaped = "{ \"a\" : \"1\", \"b\" : { \"c\" : \"x<y\", \"d\" : { \"e\" : true } }, \"f\" : 2 }";
+    String[] records =
+    {
+      shaped, shaped, shaped,
+      "{ \"b\" : { \"c\" : \"3\", \"d\" : { \"e\" : true } }, \"a\" : \"1\", \"f\" : 2 }",  // (keys in another order)
+      "{ \"a\" : \"1\", \"b\" : { \"c\" : \"3\", \"d\" : { \"e\" : true, \"g\" : 4 } }, \"f\" : 2 }",
+      "{ \"a\" : \"1\", \"b\" : { \"c\" : [ 1, 2 ], \"d\" : { \"e\" : true } }, \"f\" : 2 }",
+      "{ \"a\" : \"1\", \"b\" : { \"c\" : \"3\", \"d\" : { } }, \"f\" : 2 }",
+      "{ \"a\" : \"1\", \"b\" : { \"c\" : \"3\", \"d\" : { \"e\" : true } } }",
+      shaped, "{ \"a\" : \"\u00e9t\u00e9 & co\" }", "{ \"a\" : \"R&D\" }", shaped, shaped
+    };
+    StringBuilder document = new StringBuilder( "{ \"records\" : [ " );
+
+    for( int record = 0; record < records.length; record++ )
+      document.append( ( record > 0 ) ? ", " : "" ).append( records[ record ] );
+    document.append( " ], \"more\" : [ " ).append( shaped ).append( ", " ).append( shaped ).append( " ] }" );
+
+    for( boolean pretty : new boolean[] { true, false } )
+    {
+      XmlGenerator plain     = configureGenerator();
+      XmlGenerator templated = configureGenerator();
+
+      plain.configurePrettyPrinter( pretty );
+      plain.setRecordTemplates( false );
+      templated.configurePrettyPrinter( pretty );
+
+      String expected = plain.generate( doParse( document.toString() ) );
+
+      assertEquals( templated.generate( doParse( document.toString() ) ), expected );
+      assertEquals( templated.generate( new JsonParser( document.toString() ).parseLazily() ), expected );
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      templated.configureFlushing( 100, false );
+      templated.generate( doParse( document.toString() ), bytes );
+      assertEquals( new String( bytes.toByteArray(), StandardCharsets.UTF_8 ), expected );
+
+      // each record a document of its own, as from a log...
+      for( String record : records )
+        assertEquals( templated.generate( doParse( record ) ), plain.generate( doParse( record ) ) );
+    }
+  }
+
+  @Test
+  public void testDocumentOrder()
+  {
+    XmlGenerator generator = new XmlGenerator();
+
+    generator.setXmlDeclaration( null );
+
+    String xml = generator.generate( doParse( "{ \"z\" : \"1\", \"m\" : { \"y\" : \"2\", \"b\" : \"3\" }, \"a\" : [ \"4\", \"5\" ] }" ) );
+
+    assertEquals( xml, "<z>1</z><m><y>2</y><b>3</b></m><a>4</a><a>5</a>" );
+  }
+
+  @Test
+  public void testTranscodeDropsEmptyObjects() throws ParserBrokenException, IOException
+  {
+    XmlGenerator generator = new XmlGenerator();
+    StringWriter out       = new StringWriter();
+
+    generator.setXmlDeclaration( null );
+    generator.transcode( new JsonParser( "{ \"a\" : {}, \"b\" : { \"c\" : { \"d\" : [] } }, \"e\" : { \"f\" : [ {}, 1 ] } }" ), out );
+
+    assertEquals( out.toString(), "<e><f>1</f></e>" );
+  }
+
+  @Test( expected = ParserBrokenException.class )
+  public void testTranscodeArrayInArray() throws ParserBrokenException, IOException
+  {
+    transcode( "{ \"a\" : [ [ 1 ] ] }" );
+  }
+
+  @Test( expected = ParserBrokenException.class )
+  public void testTranscodeNeedsObject() throws ParserBrokenException, IOException
+  {
+    transcode( "[ 1 ]" );
+  }
+
+  private String transcode( String content ) throws ParserBrokenException, IOException
+  {
+    StringWriter out = new StringWriter();
+
+    configureGenerator().transcode( new JsonParser( content ), out );
+
+    return out.toString();
+  }
+
   private Element doParse( String content )
   {
     JsonParser parser = new JsonParser( content );
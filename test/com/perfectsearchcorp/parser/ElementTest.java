@@ -0,0 +1,143 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class ElementTest
+{
+  @Test
+  public void testInsertionOrder()
+  {
+    Element element = new Element();
+
+    for( int pair = 0; pair < 100; pair++ )
+      element.addKeyValuePair( new Key( "k" + ( 99 - pair ) ), new Value( "v" + pair ) );
+
+    assertEquals( element.size(), 100 );
+
+    int pair = 0;
+
+    for( Map.Entry< Key, Value > entry : element.getKeyValuePairs() )
+    {
+      assertEquals( entry.getKey().getKey(), "k" + ( 99 - pair ) );
+      assertEquals( entry.getValue().getValue(), "v" + pair );
+      pair++;
+    }
+
+    assertEquals( pair, 100 );
+  }
+
+  @Test
+  public void testArrayIsOnePair() throws ParserBrokenException
+  {
+    Element element = new JsonParser( "{ \"a\" : [ \"1\", { \"c\" : \"2\" }, {}, \"3\" ], \"b\" : \"4\", \"d\" : [] }" ).parse();
+    Value   array   = element.get( "a" );
+
+    assertEquals( element.size(), 2 );
+    assertTrue( array.isArray() );
+    assertEquals( array.size(), 3 );
+    assertEquals( array.getMember( 0 ).getValue(), "1" );
+    assertEquals( array.getMember( 1 ).getElement().get( "c" ).getValue(), "2" );
+    assertEquals( array.getMember( 2 ).getValue(), "3" );
+    assertEquals( element.get( "b" ).getValue(), "4" );
+    assertNull( element.get( "d" ) );
+    assertEquals( array.toString(), "[ \"1\", {\n  c : \"2\"\n}, \"3\" ]" );
+  }
+
+  @Test
+  public void testArrayGrows()
+  {
+    Value array = new Value( new Value[ 0 ] );
+
+    for( int member = 0; member < 100; member++ )
+      array.addMember( new Value( "m" + member ) );
+
+    assertEquals( array.size(), 100 );
+    assertEquals( array.getMember( 99 ).getValue(), "m99" );
+    assertFalse( new Value( "scalar" ).isArray() );
+    assertEquals( new Value( "scalar" ).size(), 0 );
+  }
+
+  @Test
+  public void testLookUpInLargeElement()
+  {
+    Element element = new Element();
+
+    for( int pair = 0; pair < 1000; pair++ )
+    {
+      element.addKeyValuePair( new Key( "k" + pair ), new Value( "v" + pair ) );
+
+      // (build the index early and see it kept up as the element grows)
+      if( pair == 20 )
+        assertEquals( element.get( "k7" ).getValue(), "v7" );
+    }
+
+    element.addKeyValuePair( new Key( "k500" ), new Value( "later" ) );
+    element.addKeyValuePair( null, new Value( "no key" ) );
+
+    for( int pair = 0; pair < 1000; pair++ )
+      assertEquals( element.get( "k" + pair ).getValue(), "v" + pair );
+
+    assertNull( element.get( "k1000" ) );
+    assertNull( element.get( null ) );
+  }
+
+  @Test
+  public void testAddElementContents()
+  {
+    Element first  = new Element( new Key( "a" ), new Value( "1" ) );
+    Element second = new Element( new Key( "b" ), new Value( "2" ) );
+    Value   value  = new Value( "3" );
+
+    second.addKeyValuePair( new Key( "c" ), value );
+    first.addElementContents( second );
+
+    assertEquals( first.size(), 3 );
+    assertEquals( first.getKey( 1 ).getKey(), "b" );
+    assertSame( first.get( "c" ), value );
+  }
+
+  @Test( expected = IndexOutOfBoundsException.class )
+  public void testNoSuchPair()
+  {
+    new Element( new Key( "a" ), new Value( "1" ) ).getKey( 1 );
+  }
+
+  @Test
+  public void testKeyEquality()
+  {
+    assertEquals( new Key( "a" ), new Key( "a" ) );
+    assertEquals( new Key( "a" ).hashCode(), new Key( "a" ).hashCode() );
+    assertEquals( new Key(), new Key() );
+    assertFalse( new Key( "a" ).equals( new Key( "b" ) ) );
+    assertFalse( new Key( "a" ).equals( new Key() ) );
+    assertFalse( new Key( "a" ).equals( "a" ) );
+  }
+}
@@ -0,0 +1,339 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * However the input is cut into chunks, the incremental parser must come
+ * up with what <tt>JsonParser</tt> does given it all at once.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class IncrementalJsonParserTest
+{
+  private static final String NON_ASCII =
+      "{ \"café\" : \"naïve 日本 \\u00e9\\n\\\"q\\\"\", \"n\" : -1.5e3, \"smile\" : [ \"😀\", \"\\uD83D\\uDE00\", true, null ] }";
+
+  @Test
+  public void testChunkSizes() throws ParserBrokenException
+  {
+    String[] documents =
+    {
+      JsonToXmlTestFodder.SIMPLE_CONTENT,
+      JsonToXmlTestFodder.ARRAY_CONTENT2,
+      JsonToXmlTestFodder.SERIOUS_CONTENT,
+      JsonToXmlTestFodder.PERFECTSEARCH_CONTENT,
+      NON_ASCII
+    };
+
+    for( String document : documents )
+    {
+      String expected = canonical( new JsonParser( document ).parse() );
+
+      for( int size = 1; size <= 17; size++ )
+        assertEquals( expected, canonical( parseInChunks( document, size ) ) );
+    }
+  }
+
+  @Test
+  public void testRandomChunks() throws ParserBrokenException
+  {
+    Random random   = new Random( 42 );
+    String document = JsonToXmlTestFodder.records( 50000 );
+    String expected = canonical( new JsonParser( document ).parse() );
+    byte[] bytes    = document.getBytes( StandardCharsets.UTF_8 );
+
+    for( int round = 0; round < 10; round++ )
+    {
+      IncrementalJsonParser parser = new IncrementalJsonParser();
+
+      for( int offset = 0; offset < bytes.length; )
+      {
+        int length = Math.min( bytes.length - offset, 1 + random.nextInt( 300 ) );
+        parser.feed( bytes, offset, length );
+        offset += length;
+      }
+
+      parser.finish();
+      assertEquals( expected, canonical( parser.getDocument() ) );
+    }
+  }
+
+  @Test
+  public void testByteOrderMarkSplit() throws ParserBrokenException
+  {
+    String expected = canonical( new JsonParser( NON_ASCII ).parse() );
+
+    for( int size = 1; size <= 4; size++ )
+      assertEquals( expected, canonical( parseInChunks( "\uFEFF" + NON_ASCII, size ) ) );
+
+    // the beginning of one, but not one...
+    for( byte[] bytes : new byte[][] { { ( byte ) 0xEF, ( byte ) 0xBB, '{', '}' }, { ( byte ) 0xEF, ( byte ) 0xBB } } )
+    {
+      IncrementalJsonParser parser = new IncrementalJsonParser();
+
+      try
+      {
+        for( int offset = 0; offset < bytes.length; offset++ )
+          parser.feed( bytes, offset, 1 );
+
+        parser.finish();
+        fail( "Should not have parsed" );
+      }
+      catch( ParserBrokenException e )
+      {
+        assertTrue( e.getMessage().contains( " at offset " ) );
+      }
+    }
+  }
+
+  @Test
+  public void testHandlerTakesPairsAsTheyClose() throws ParserBrokenException
+  {
+    final List< String > records = new ArrayList<>();
+    final int[]          roots   = new int[ 1 ];
+
+    IncrementalJsonParser parser = new IncrementalJsonParser( new JsonHandler()
+    {
+      @Override
+      public boolean pair( int depth, Key key, Value value )
+      {
+        if( depth > 1 )
+          return true;
+
+        records.add( key.getKey() + " " + value.getElement().size() );
+        return false;
+      }
+
+      @Override
+      public void document( Element root ) { roots[ 0 ]++; }
+    } );
+
+    byte[] bytes = JsonToXmlTestFodder.records( 5000 ).getBytes( StandardCharsets.UTF_8 );
+    int    half  = bytes.length / 2;
+
+    parser.feed( bytes, 0, half );
+    int before = records.size();
+    assertTrue( before > 0 );
+    assertEquals( roots[ 0 ], 0 );
+
+    parser.feed( bytes, half, bytes.length - half );
+    parser.finish();
+    assertTrue( records.size() > before );
+    assertEquals( records.get( 0 ), "records 13" );
+    assertEquals( roots[ 0 ], 1 );
+    assertEquals( parser.getDocument().size(), 0 );
+  }
+
+  @Test
+  public void testDocumentsOneAfterAnother() throws ParserBrokenException
+  {
+    final List< Element > documents = new ArrayList<>();
+
+    IncrementalJsonParser parser = new IncrementalJsonParser( new JsonHandler()
+    {
+      @Override
+      public boolean pair( int depth, Key key, Value value ) { return true; }
+
+      @Override
+      public void document( Element root ) { documents.add( root ); }
+    } );
+
+    feed( parser, JsonToXmlTestFodder.SIMPLE_CONTENT + "\n" + JsonToXmlTestFodder.COMPLEX_CONTENT + "\n", 5 );
+    parser.finish();
+
+    assertEquals( documents.size(), 2 );
+    assertEquals( canonical( documents.get( 1 ) ), canonical( new JsonParser( JsonToXmlTestFodder.COMPLEX_CONTENT ).parse() ) );
+  }
+
+  @Test
+  public void testKeyIsSpentByArray() throws ParserBrokenException
+  {
+    Element element = parseInChunks( "{ \"a\" : [ 1, 2 ], \"b\" : {}, \"c\" : \"d\" }", 3 );
+
+    assertEquals( canonical( element ), "{a=1,a=2,c=d}" );
+  }
+
+  @Test
+  public void testEndedInMidDocument()
+  {
+    assertBroken( "{ \"key\" : \"val" );
+    assertBroken( "{ \"key\" : [ 1, 2" );
+    assertBroken( "{ \"key\" : 12" );
+  }
+
+  @Test
+  public void testIllFormed()
+  {
+    assertBroken( "[ \"key\" ]" );
+    assertBroken( "{ \"key\" : [ [ 1 ] ] }" );
+    assertBroken( "{ \"key\" : 12x }" );
+    assertBroken( "{ \"key\" : nul }" );
+    assertBroken( "{ [ 1 ] }" );
+  }
+
+  @Test
+  public void testMaxPending() throws ParserBrokenException
+  {
+    IncrementalJsonParser parser = new IncrementalJsonParser();
+
+    parser.setMaxPending( 16 );
+    parser.feed( bytes( "{ \"key\" : \"a short one\", \"long\" : \"" ) );
+
+    try
+    {
+      parser.feed( bytes( "and this one just keeps on going" ) );
+      fail( "Should have been refused" );
+    }
+    catch( ParserBrokenException e )
+    {
+      assertTrue( e.getMessage().startsWith( "Token longer than 16 bytes" ) );
+    }
+
+    // all in one chunk...
+    char[] value = new char[ 1024 * 1024 ];
+
+    Arrays.fill( value, 'a' );
+    parser = new IncrementalJsonParser();
+    parser.setMaxPending( 16 );
+
+    try
+    {
+      parser.feed( bytes( "{ \"long\" : \"" + new String( value ) ) );
+      fail( "Should have been refused" );
+    }
+    catch( ParserBrokenException e )
+    {
+      assertTrue( e.getMessage().startsWith( "Token longer than 16 bytes" ) );
+    }
+  }
+
+  @Test
+  public void testNothingYet() throws ParserBrokenException
+  {
+    IncrementalJsonParser parser = new IncrementalJsonParser();
+
+    parser.feed( bytes( "  " ) );
+    parser.finish();
+    assertNull( parser.getDocument() );
+  }
+
+  @Test
+  public void testMaxDepth() throws ParserBrokenException
+  {
+    IncrementalJsonParser parser = new IncrementalJsonParser();
+
+    parser.setMaxDepth( 100000 );
+    parser.feed( bytes( JsonParserTest.nested( 100000 ) ) );
+    parser.finish();
+    assertEquals( parser.getDocument().size(), 1 );
+
+    assertBroken( JsonParserTest.nested( JsonParser.DEFAULT_MAX_DEPTH + 1 ) );
+  }
+
+  private static void assertBroken( String document )
+  {
+    try
+    {
+      parseInChunks( document, 4 );
+      fail( "Should not have parsed " + document );
+    }
+    catch( ParserBrokenException e )
+    {
+      assertTrue( e.getMessage().contains( " at offset " ) );
+    }
+  }
+
+  private static Element parseInChunks( String document, int size ) throws ParserBrokenException
+  {
+    IncrementalJsonParser parser = new IncrementalJsonParser();
+
+    feed( parser, document, size );
+    parser.finish();
+
+    return parser.getDocument();
+  }
+
+  private static void feed( IncrementalJsonParser parser, String document, int size ) throws ParserBrokenException
+  {
+    byte[] bytes = document.getBytes( StandardCharsets.UTF_8 );
+
+    for( int offset = 0; offset < bytes.length; offset += size )
+      parser.feed( bytes, offset, Math.min( size, bytes.length - offset ) );
+  }
+
+  private static ByteBuffer bytes( String string )
+  {
+    return ByteBuffer.wrap( string.getBytes( StandardCharsets.UTF_8 ) );
+  }
+
+  private static String canonical( Value value )
+  {
+    return ( value.getValue() != null ) ? value.getValue() : canonical( value.getElement() );
+  }
+
+  /**
+   * Arrays are spelled out a pair per member, pairs sorted, so that any
+   * way of keeping them compares the same.
+   */
+  private static String canonical( Element element )
+  {
+    List< String > pairs = new ArrayList<>();
+
+    for( Map.Entry< Key, Value > pair : element.getKeyValuePairs() )
+    {
+      Value value = pair.getValue();
+
+      if( value.isArray() )
+      {
+        for( int member = 0; member < value.size(); member++ )
+          pairs.add( pair.getKey().getKey() + "=" + canonical( value.getMember( member ) ) );
+      }
+      else
+      {
+        pairs.add( pair.getKey().getKey() + "=" + canonical( value ) );
+      }
+    }
+
+    Collections.sort( pairs );
+
+    StringBuilder sb = new StringBuilder( "{" );
+
+    for( String pair : pairs )
+      sb.append( ( sb.length() > 1 ) ? "," : "" ).append( pair );
+
+    return sb.append( "}" ).toString();
+  }
+}
@@ -20,6 +20,16 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import com.perfectsearchcorp.scanner.IndexedJsonScanner;
+import com.perfectsearchcorp.scanner.Utf8JsonScanner;
 import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
 
 public class JsonParserTest
@@ -62,6 +72,419 @@ public class JsonParserTest
     tryParse( "PERFECTSEARCH_CONTENT  ", new JsonParser( JsonToXmlTestFodder.PERFECTSEARCH_CONTENT ) );
   }
 
+  @Test
+  public void testIndexedScanner()
+  {
+    tryParse( "SERIOUS_CONTENT (indexed) ", new JsonParser( new IndexedJsonScanner( JsonToXmlTestFodder.SERIOUS_CONTENT ) ) );
+  }
+
+  @Test
+  public void testUtf8Scanner()
+  {
+    byte[] bytes = JsonToXmlTestFodder.SERIOUS_CONTENT.getBytes( StandardCharsets.UTF_8 );
+    tryParse( "SERIOUS_CONTENT (UTF-8) ", new JsonParser( new Utf8JsonScanner( bytes ) ) );
+  }
+
+  @Test
+  public void testPullEvents() throws ParserBrokenException
+  {
+    JsonParser    parser = new JsonParser( JsonToXmlTestFodder.ARRAY_CONTENT2 );
+    StringBuilder events = new StringBuilder();
+    JsonEvent     event;
+
+    while( ( event = parser.next() ) != null )
+    {
+      events.append( event );
+
+      if( parser.getText() != null )
+        events.append( '(' ).append( parser.getText() ).append( ')' );
+
+      events.append( parser.getDepth() ).append( ' ' );
+    }
+
+    assertEquals( events.toString(),
+        "START_OBJECT1 KEY(rgb-color)1 START_ARRAY2 VALUE(red)2 VALUE(blue)2 START_OBJECT3 "
+      + "KEY(color)3 VALUE(purple)3 END_OBJECT2 END_ARRAY1 END_OBJECT0 " );
+    assertNull( parser.next() );
+  }
+
+  @Test
+  public void testPullNestedArrays() throws ParserBrokenException
+  {
+    JsonParser parser = new JsonParser( "[ [ 1, 2 ], [], { \"a\" : [ true ] } ]" );
+    int        values = 0;
+    JsonEvent  event;
+
+    while( ( event = parser.next() ) != null )
+    {
+      if( event == JsonEvent.VALUE )
+        values++;
+    }
+
+    assertEquals( values, 3 );
+  }
+
+  @Test
+  public void testPullKeepsNoTree() throws ParserBrokenException
+  {
+    String     content = JsonToXmlTestFodder.records( 1000000 );
+    JsonParser parser  = new JsonParser( content );
+    int        keys    = 0;
+    int        deepest = 0;
+    JsonEvent  event;
+
+    while( ( event = parser.next() ) != null )
+    {
+      if( event == JsonEvent.KEY )
+        keys++;
+      deepest = Math.max( deepest, parser.getDepth() );
+    }
+
+    assertTrue( keys > 10000 );
+    assertEquals( deepest, 4 );
+    assertEquals( parser.getOffset(), content.length() );
+  }
+
+  @Test( expected = ParserBrokenException.class )
+  public void testPullEndsTooSoon() throws ParserBrokenException
+  {
+    JsonParser parser = new JsonParser( "{ \"a\" : { \"b\" : 1 }" );
+
+    while( parser.next() != null )
+      ;
+  }
+
+  @Test
+  public void testKeySpentByArray() throws ParserBrokenException
+  {
+    Element element = new JsonParser( "{ \"a\" : [ 1 ], \"b\" : \"c\" }" ).parse();
+
+    assertEquals( element.size(), 2 );
+  }
+
+  @Test( expected = ParserBrokenException.class )
+  public void testTreeNeedsObject() throws ParserBrokenException
+  {
+    new JsonParser( "[ 1, 2 ]" ).parse();
+  }
+
+  @Test( expected = ParserBrokenException.class )
+  public void testTreeRefusesArrayInArray() throws ParserBrokenException
+  {
+    new JsonParser( "{ \"a\" : [ [ 1 ] ] }" ).parse();
+  }
+
+  @Test
+  public void testSkipValue() throws ParserBrokenException
+  {
+    JsonParser    parser = new JsonParser( "{ \"a\" : { \"b\" : \"}\" }, \"c\" : [ 1, [ 2 ] ], \"d\" : 3 }" );
+    StringBuilder events = new StringBuilder();
+    JsonEvent     event;
+
+    while( ( event = parser.next() ) != null )
+    {
+      if( parser.getDepth() > 1 )
+        parser.skipValue();
+
+      events.append( parser.getEvent() ).append( parser.getDepth() ).append( ' ' );
+    }
+
+    assertEquals( events.toString(),
+        "START_OBJECT1 KEY1 END_OBJECT1 KEY1 END_ARRAY1 KEY1 VALUE1 END_OBJECT0 " );
+  }
+
+  @Test
+  public void testLazyParseLikeParse() throws ParserBrokenException
+  {
+    String[] documents =
+    {
+      JsonToXmlTestFodder.ARRAY_CONTENT2,
+      JsonToXmlTestFodder.COMPLEX_CONTENT,
+      JsonToXmlTestFodder.SERIOUS_CONTENT,
+      JsonToXmlTestFodder.PERFECTSEARCH_CONTENT,
+      JsonToXmlTestFodder.records( 10000 )
+    };
+
+    for( String document : documents )
+    {
+      String expected = new JsonParser( document ).parse().toString();
+      byte[] bytes    = document.getBytes( StandardCharsets.UTF_8 );
+
+      assertEquals( new JsonParser( document ).parseLazily().toString(), expected );
+      assertEquals( new JsonParser( new IndexedJsonScanner( document ) ).parseLazily().toString(), expected );
+      assertEquals( new JsonParser( new Utf8JsonScanner( bytes ) ).parseLazily().toString(), expected );
+    }
+  }
+
+  @Test
+  public void testLazyParseDefersSubtrees() throws ParserBrokenException
+  {
+    Element element = new JsonParser( "{ \"a\" : \"1\", \"b\" : { \"c\" : nul }, \"d\" : [ 2, [ 3 ] ] }" ).parseLazily();
+
+    assertEquals( element.size(), 3 );
+    assertEquals( element.get( "a" ).getValue(), "1" );
+    assertTrue( element.get( "d" ).isArray() );
+    assertFalse( element.get( "b" ).isArray() );
+
+    try
+    {
+      element.get( "b" ).getElement();
+      fail( "Ill-formed subtree parsed" );
+    }
+    catch( IllegalStateException e )
+    {
+      assertTrue( e.getCause() instanceof ParserBrokenException );
+    }
+
+    try
+    {
+      element.get( "d" ).size();
+      fail( "Array in an array parsed" );
+    }
+    catch( IllegalStateException e )
+    {
+      assertTrue( e.getCause() instanceof ParserBrokenException );
+    }
+  }
+
+  @Test
+  public void testLazyParseNested() throws ParserBrokenException
+  {
+    Element element = new JsonParser( "{ \"a\" : { \"b\" : { \"c\" : [ \"x\", { \"d\" : \"y\" } ] } } }" ).parseLazily();
+    Value   array   = element.get( "a" ).getElement().get( "b" ).getElement().get( "c" );
+
+    assertEquals( array.size(), 2 );
+    assertEquals( array.getMember( 0 ).getValue(), "x" );
+    assertEquals( array.getMember( 1 ).getElement().get( "d" ).getValue(), "y" );
+  }
+
+  @Test( expected = ParserBrokenException.class )
+  public void testLazyParseNeverClosed() throws ParserBrokenException
+  {
+    new JsonParser( "{ \"a\" : { \"b\" : \"}\" }" ).parseLazily();
+  }
+
+  @Test
+  public void testDeepNesting() throws ParserBrokenException
+  {
+    JsonParser parser = new JsonParser( nested( 100000 ) );
+
+    parser.setMaxDepth( 200000 );
+
+    Element element = parser.parse();
+
+    for( int depth = 1; depth < 100000; depth++ )
+      element = element.get( "a" ).getElement();
+
+    assertEquals( element.get( "a" ).getValue(), "1" );
+  }
+
+  @Test
+  public void testMaxDepth() throws ParserBrokenException
+  {
+    assertEquals( new JsonParser( nested( JsonParser.DEFAULT_MAX_DEPTH ) ).parse().size(), 1 );
+
+    try
+    {
+      new JsonParser( nested( JsonParser.DEFAULT_MAX_DEPTH + 1 ) ).parse();
+      fail( "Nested too deep" );
+    }
+    catch( ParserBrokenException e )
+    {
+      assertTrue( e.getMessage().startsWith( "Nested deeper than 1000" ) );
+    }
+
+    JsonParser parser = new JsonParser( "{ \"a\" : [ { \"b\" : 1 } ] }" );
+
+    parser.setMaxDepth( 2 );
+
+    try
+    {
+      parser.parse();
+      fail( "Nested too deep" );
+    }
+    catch( ParserBrokenException e )
+    {
+      assertTrue( e.getMessage().startsWith( "Nested deeper than 2" ) );
+    }
+  }
+
+  @Test
+  public void testValidate() throws ParserBrokenException
+  {
+    String[] documents =
+    {
+      JsonToXmlTestFodder.ARRAY_CONTENT2,
+      JsonToXmlTestFodder.SERIOUS_CONTENT,
+      JsonToXmlTestFodder.PERFECTSEARCH_CONTENT,
+      JsonToXmlTestFodder.records( 10000 ),
+      "[ [ 1, -0.5e+10, 0, 2E3 ], [], {}, { \"a\" : null, \"b\" : [ true, false ] } ]\n",
+      "{ \"caf\\u00e9\" : \"\\\"\\\\\\/\\b\\f\\n\\r\\t\", \"naïve\" : \"\" }  "
+    };
+
+    for( String document : documents )
+    {
+      new JsonParser( document ).validate();
+      new JsonParser( new IndexedJsonScanner( document ) ).validate();
+      new JsonParser( new Utf8JsonScanner( document.getBytes( StandardCharsets.UTF_8 ) ) ).validate();
+    }
+  }
+
+  @Test
+  public void testValidateRefuses()
+  {
+    String[] documents =
+    {
+      JsonToXmlTestFodder.SERIOUS_CONTENT3,     // (a trailing comma)
+      "{ \"a\" : 1 \"b\" : 2 }",
+      "{ \"a\" 1 }",
+      "{ \"a\" : 1, }",
+      "[ 1, 2, ]",
+      "[ , 1 ]",
+      "{ \"a\" : 1 ]",
+      "{ { \"a\" : 1 } }",
+      "{ 1 : 2 }",
+      "{ \"a\" : 0x1F }",
+      "{ \"a\" : +1 }",
+      "{ \"a\" : 01 }",
+      "{ \"a\" : 1. }",
+      "{ \"a\" : .5 }",
+      "{ \"a\" : 1e }",
+      "{ \"a\" : \"tab\there\" }",
+      "{ \"a\" : \"\\q\" }",
+      "{ \"a\" : \"\\u12\" }",
+      "{ \"a\" : 1 } x",
+      "{ \"a\" : 1 } {}",
+      "{ \"a\" : 1 } \"b",
+      "{ \"a\" : [ 1 }",
+      "\"a\"",
+      ""
+    };
+
+    for( String document : documents )
+    {
+      assertInvalid( document, new JsonParser( document ) );
+      assertInvalid( document, new JsonParser( new IndexedJsonScanner( document ) ) );
+      assertInvalid( document, new JsonParser( new Utf8JsonScanner( document.getBytes( StandardCharsets.UTF_8 ) ) ) );
+    }
+  }
+
+  @Test
+  public void testValidateSaysWhere()
+  {
+    try
+    {
+      new JsonParser( "{ \"a\" : 1 \"b\" : 2 }" ).validate();
+      fail( "Missing comma" );
+    }
+    catch( ParserBrokenException e )
+    {
+      assertEquals( e.getOffset(), 13 );
+      assertEquals( e.getMessage(), "Unexpected IDENT at offset 13" );
+    }
+  }
+
+  private static void assertInvalid( String document, JsonParser parser )
+  {
+    try
+    {
+      parser.validate();
+      fail( "Validated " + document );
+    }
+    catch( ParserBrokenException e )
+    {
+      assertTrue( e.getOffset() >= 0 );
+    }
+  }
+
+  @Test
+  public void testPredictKeysLikeParse() throws ParserBrokenException
+  {
+    String record = "{ \"a\" : 1, \"b\" : { \"c\" : \"x\", \"d\" : [ { \"e\" : 1 }, { \"e\" : 2, \"f\" : 3 } ] }, \"g\" : true }";
+    String[] documents =
+    {
+      JsonToXmlTestFodder.SERIOUS_CONTENT,
+      JsonToXmlTestFodder.records( 10000 ),
+      "{ \"r\" : [ " + record + ", " + record + ", "
+          + "{ \"b\" : { \"c\" : \"x\" }, \"a\" : 1, \"g\" : true }, "       // (keys in another order)
+          + "{ \"a\" : 1 }, " + record + ", "                                   // (keys missing)
+          + "{ \"a\" : 1, \"b\" : { \"c\" : \"x\", \"d\" : { } }, \"g\" : true, \"h\" : 0 }, "
+          + "{ \"a\\\"\" : 1, \"\\u0062\" : 2 }, { \"a\\\"\" : 1, \"\\u0062\" : 2 }, "  // (escapes)
+          + "{ \"\u00e9t\u00e9\" : 1 }, { \"\u00e9t\u00e9\" : 2 }, " + record + " ] }",
+      "{ \"a\" : { \"b\" : 1 } }  { \"a\" : { \"b\" : 2 } }  { \"a\" : { \"c\" : 3, \"b\" : 4 } }"
+    };
+
+    for( String document : documents )
+    {
+      String expected = new JsonParser( document ).parse().toString();
+      byte[] bytes    = document.getBytes( StandardCharsets.UTF_8 );
+
+      assertEquals( predicting( new JsonParser( document ) ).parse().toString(), expected );
+      assertEquals( predicting( new JsonParser( new IndexedJsonScanner( document ) ) ).parse().toString(), expected );
+      assertEquals( predicting( new JsonParser( new Utf8JsonScanner( bytes ) ) ).parse().toString(), expected );
+      assertEquals( predicting( new JsonParser( document ) ).parseLazily().toString(),
+                    new JsonParser( document ).parseLazily().toString() );
+    }
+  }
+
+  @Test
+  public void testPredictedKeysShared() throws ParserBrokenException
+  {
+    String  content = "{ \"r\" : [ { \"a\" : 1, \"b\" : 2 }, { \"a\" : 3, \"b\" : 4 }, { \"b\" : 5 } ] }";
+    Value   records = predicting( new JsonParser( content ) ).parse().getValue( 0 );
+    Element first   = records.getMember( 0 ).getElement();
+    Element second  = records.getMember( 1 ).getElement();
+
+    assertTrue( first.getKey( 0 ) == second.getKey( 0 ) );
+    assertTrue( first.getKey( 1 ) == second.getKey( 1 ) );
+    assertEquals( records.getMember( 2 ).getElement().getKey( 0 ).getKey(), "b" );
+  }
+
+  @Test
+  public void testPredictKeysValidating() throws ParserBrokenException
+  {
+    JsonParser parser = predicting( new JsonParser( JsonToXmlTestFodder.records( 10000 ) ) );
+
+    parser.validate();
+
+    parser = predicting( new JsonParser( "{ \"r\" : [ { \"a\" : 1, \"b\" : 2 }, { \"a\" : 1 \"b\" : 2 } ] }" ) );
+
+    try
+    {
+      parser.validate();
+      fail( "Refused no comma before a key predicted" );
+    }
+    catch( ParserBrokenException e )
+    {
+      assertTrue( e.getMessage().contains( "IDENT" ) );
+    }
+  }
+
+  private static JsonParser predicting( JsonParser parser )
+  {
+    parser.setPredictingKeys( true );
+    return parser;
+  }
+
+  /**
+   * @return objects nested <tt>depth</tt> deep, each the value of key
+   *          "a", the innermost holding "a" : "1".
+   */
+  static String nested( int depth )
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for( int level = 0; level < depth; level++ )
+      sb.append( ( level > 0 ) ? "\"a\":{" : "{" );
+
+    sb.append( "\"a\":\"1\"" );
+
+    for( int level = 0; level < depth; level++ )
+      sb.append( '}' );
+
+    return sb.toString();
+  }
+
   private Element tryParse( String testName, JsonParser parser )
   {
     log.info( "Test: " + testName + "----------------------------------------" );
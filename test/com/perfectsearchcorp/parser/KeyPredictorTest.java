@@ -0,0 +1,98 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The predictor is driven here as <tt>JsonParser</tt> drives it, key by
+ * key, taking the key predicted whenever it's the one come upon.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class KeyPredictorTest
+{
+  @Test
+  public void testPredictsRecordsAlike()
+  {
+    KeyPredictor predictor = new KeyPredictor();
+
+    predictor.start( false );
+    key( predictor, "records" );
+    predictor.start( true );
+
+    assertNull( record( predictor, "a", "b" ) );
+    assertEquals( record( predictor, "a", "b" ), "b" );
+    assertEquals( record( predictor, "a", "b" ), "b" );
+  }
+
+  @Test
+  public void testKeepsPredictingAfterManyShapes()
+  {
+    KeyPredictor predictor = new KeyPredictor();
+
+    predictor.start( false );
+    key( predictor, "records" );
+    predictor.start( true );
+
+    // each record's key is another, so what was learned within the last is forgotten...
+    for( int record = 0; record < 2 * KeyPredictor.MAX_SHAPES; record++ )
+      record( predictor, "k" + record, "x" );
+
+    assertTrue( predictor.size() < 8 );
+
+    record( predictor, "a", "b" );
+    assertEquals( record( predictor, "a", "b" ), "b" );
+  }
+
+  /**
+   * A record of one key whose value is an object of one key.
+   *
+   * @return the key predicted within the inner object.
+   */
+  private static String record( KeyPredictor predictor, String outer, String inner )
+  {
+    predictor.start( false );
+    key( predictor, outer );
+    predictor.start( false );
+
+    Key predicted = key( predictor, inner );
+
+    predictor.value();
+    predictor.end();
+    predictor.end();
+
+    return ( predicted != null ) ? predicted.getKey() : null;
+  }
+
+  /**
+   * @return the key that was predicted.
+   */
+  private static Key key( KeyPredictor predictor, String text )
+  {
+    Key predicted = predictor.predict();
+
+    predictor.key( ( predicted != null && predicted.getKey().equals( text ) ) ? predicted : new Key( text ) );
+
+    return predicted;
+  }
+}
@@ -0,0 +1,141 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.perfectsearchcorp.scanner.IndexedJsonScanner;
+import com.perfectsearchcorp.scanner.JsonScanner;
+import com.perfectsearchcorp.scanner.Utf8JsonScanner;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * Parsed in parallel, a document must come out just as <tt>JsonParser</tt>
+ * parses it. A tiny grain makes sure the work is really split.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class ParallelJsonParserTest
+{
+  private static final ForkJoinPool POOL = new ForkJoinPool( 4 );
+
+  private static final String MIXED =
+      "{ \"id\" : 7, \"empty\" : { }, \"none\" : [ ], \"tags\" : [ \"a\", \"b\" ],"
+    + "  \"records\" : [ { \"x\" : 1 }, { }, { \"y\" : { \"z\" : [ 1, 2 ] } }, \"loose\" ],"
+    + "  \"nested\" : { \"deeper\" : { \"deepest\" : true } }, \"last\" : null }";
+
+  @AfterClass
+  public static void shutDown()
+  {
+    POOL.shutdown();
+  }
+
+  @Test
+  public void testLikeParse() throws ParserBrokenException
+  {
+    String[] documents =
+    {
+      JsonToXmlTestFodder.SIMPLE_CONTENT,
+      JsonToXmlTestFodder.ARRAY_CONTENT2,
+      JsonToXmlTestFodder.SERIOUS_CONTENT,
+      JsonToXmlTestFodder.PERFECTSEARCH_CONTENT,
+      MIXED,
+      JsonToXmlTestFodder.records( 256 * 1024 )
+    };
+
+    for( String document : documents )
+    {
+      String expected = new JsonParser( document ).parse().toString();
+
+      assertEquals( parallel( new ParallelJsonParser( document ) ).toString(), expected );
+      assertEquals( parallel( new ParallelJsonParser( new IndexedJsonScanner( document ), POOL ) ).toString(), expected );
+      assertEquals( parallel( new ParallelJsonParser( new Utf8JsonScanner(
+                        document.getBytes( StandardCharsets.UTF_8 ) ), POOL ) ).toString(), expected );
+    }
+  }
+
+  @Test
+  public void testIllFormedObject()
+  {
+    assertRefused( "{ \"records\" : [ { \"x\" : 1 }, { \"y\" : nul }, { \"z\" : 3 } ] }" );
+    assertRefused( "{ \"records\" : [ { \"x\" : [ [ 1 ] ] } ] }" );
+    assertRefused( "{ \"records\" : [ { \"x\" : 1 }, [ 2 ] ] }" );
+    assertRefused( "{ \"records\" : [ { \"x\" : 1 }, { \"y\" : 2 " );
+  }
+
+  @Test
+  public void testFirstFailureReported() throws ParserBrokenException
+  {
+    String document = "{ \"a\" : { \"b\" : tru }, \"c\" : { \"d\" : fals } }";
+
+    try
+    {
+      parallel( new ParallelJsonParser( document ) );
+      fail( "Parsed " + document );
+    }
+    catch( ParserBrokenException e )
+    {
+      assertEquals( e.getOffset(), document.indexOf( "tru" ) - 1 );
+    }
+  }
+
+  @Test
+  public void testMaxDepth() throws ParserBrokenException
+  {
+    String             document = "{ \"a\" : [ { \"b\" : { \"c\" : 1 } } ] }";
+    ParallelJsonParser parser   = new ParallelJsonParser( document );
+
+    parser.setMaxDepth( 4 );
+    parallel( parser );
+
+    parser = new ParallelJsonParser( document );
+    parser.setMaxDepth( 3 );
+    assertRefused( parser );
+  }
+
+  private static Element parallel( ParallelJsonParser parser ) throws ParserBrokenException
+  {
+    parser.setGrain( 1 );
+    return parser.parse();
+  }
+
+  private static void assertRefused( String document )
+  {
+    assertRefused( new ParallelJsonParser( new JsonScanner( document ), POOL ) );
+  }
+
+  private static void assertRefused( ParallelJsonParser parser )
+  {
+    try
+    {
+      parallel( parser );
+      fail( "Should have been refused" );
+    }
+    catch( ParserBrokenException e )
+    {
+      ;
+    }
+  }
+}
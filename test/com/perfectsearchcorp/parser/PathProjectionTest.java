@@ -0,0 +1,172 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.perfectsearchcorp.generator.XmlGenerator;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class PathProjectionTest
+{
+  @Test
+  public void testSelect() throws ParserBrokenException
+  {
+    PathProjection projection = new PathProjection();
+
+    projection.select( "glossary.GlossDiv.GlossList.GlossEntry.GlossDef" );
+    projection.select( "glossary.title" );
+
+    assertEquals( events( projection, JsonToXmlTestFodder.SERIOUS_CONTENT ),
+        "{ KEY(glossary) { KEY(title) VALUE(example glossary) KEY(GlossDiv) { KEY(GlossList) { "
+      + "KEY(GlossEntry) { KEY(GlossDef) { KEY(para) VALUE(A meta-markup language.) "
+      + "KEY(GlossSeeAlso) [ VALUE(GML) VALUE(XML) ] } } } } } } " );
+  }
+
+  @Test
+  public void testExcludeWithinSelect() throws ParserBrokenException
+  {
+    PathProjection projection = new PathProjection();
+
+    projection.select( "glossary.GlossDiv.GlossList.GlossEntry.GlossDef" );
+    projection.exclude( "glossary.GlossDiv.GlossList.GlossEntry.GlossDef.para" );
+
+    assertEquals( events( projection, JsonToXmlTestFodder.SERIOUS_CONTENT ),
+        "{ KEY(glossary) { KEY(GlossDiv) { KEY(GlossList) { KEY(GlossEntry) { KEY(GlossDef) { "
+      + "KEY(GlossSeeAlso) [ VALUE(GML) VALUE(XML) ] } } } } } } " );
+  }
+
+  @Test
+  public void testExcludeOnly() throws ParserBrokenException
+  {
+    PathProjection projection = new PathProjection();
+
+    projection.exclude( "extraInfo" );
+    projection.exclude( "client" );
+
+    assertEquals( events( projection, JsonToXmlTestFodder.PERFECTSEARCH_CONTENT2 ), "{ } " );
+    assertEquals( events( projection, JsonToXmlTestFodder.COMPLEX_CONTENT ),
+        "{ KEY(monitor) { KEY(size) VALUE(2560x1440) KEY(brand) VALUE(Acer) } } " );
+  }
+
+  @Test
+  public void testArrayMembersAnswerToArrayKey() throws ParserBrokenException
+  {
+    PathProjection projection = new PathProjection();
+
+    projection.select( "a.b" );
+
+    assertEquals( events( projection, "{ \"a\" : [ \"1\", { \"b\" : \"2\", \"c\" : \"3\" } ], \"d\" : \"4\" }" ),
+        "{ KEY(a) [ { KEY(b) VALUE(2) } ] } " );
+  }
+
+  @Test
+  public void testUnselectedNotParsed() throws ParserBrokenException
+  {
+    PathProjection projection = new PathProjection();
+
+    projection.select( "b" );
+
+    assertEquals( events( projection, "{ \"a\" : { \"x\" : nul, \"y\" : [ [ ] ] }, \"b\" : \"1\" }" ),
+        "{ KEY(b) VALUE(1) } " );
+  }
+
+  @Test
+  public void testLikeElementProjection() throws ParserBrokenException, IOException
+  {
+    String[][] paths =
+    {
+      { "records.ip", "records.url" },
+      { "records.extraInfo.username", "-records.ip" },
+      { "-records.client", "-records.extraInfo" },
+      { "glossary.GlossDiv", "-glossary.GlossDiv.GlossList.GlossEntry.GlossDef.para" },
+      { "rgb-color.color" }
+    };
+    String[] documents =
+    {
+      JsonToXmlTestFodder.records( 5000 ),
+      JsonToXmlTestFodder.SERIOUS_CONTENT,
+      JsonToXmlTestFodder.ARRAY_CONTENT2
+    };
+
+    for( String[] set : paths )
+    {
+      PathProjection projection = new PathProjection();
+
+      for( String path : set )
+      {
+        if( path.startsWith( "-" ) )
+          projection.exclude( path.substring( 1 ) );
+        else
+          projection.select( path );
+      }
+
+      for( String document : documents )
+      {
+        Element      expected  = projection.project( new JsonParser( document ).parse() );
+        StringWriter actual    = new StringWriter();
+        XmlGenerator generator = new XmlGenerator();
+
+        generator.transcode( projection.project( new JsonParser( document ) ), actual );
+
+        assertEquals( actual.toString(), ( expected != null ) ? new XmlGenerator().generate( expected )
+                                                               : new XmlGenerator().generate( new Element() ) );
+      }
+    }
+  }
+
+  @Test
+  public void testNothingKept() throws ParserBrokenException
+  {
+    PathProjection projection = new PathProjection();
+
+    projection.select( "nowhere" );
+
+    assertNull( projection.project( new JsonParser( JsonToXmlTestFodder.SERIOUS_CONTENT ).parse() ) );
+  }
+
+  private static String events( PathProjection projection, String document ) throws ParserBrokenException
+  {
+    JsonEventReader reader = projection.project( new JsonParser( document ) );
+    StringBuilder   events = new StringBuilder();
+    JsonEvent       event;
+
+    while( ( event = reader.next() ) != null )
+    {
+      switch( event )
+      {
+        case START_OBJECT : events.append( "{ " ); break;
+        case END_OBJECT :   events.append( "} " ); break;
+        case START_ARRAY :  events.append( "[ " ); break;
+        case END_ARRAY :    events.append( "] " ); break;
+        default :           events.append( event ).append( '(' ).append( reader.getText() ).append( ") " );
+      }
+    }
+
+    return events.toString();
+  }
+}
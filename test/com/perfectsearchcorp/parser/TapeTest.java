@@ -0,0 +1,117 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.parser;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.perfectsearchcorp.generator.XmlGenerator;
+import com.perfectsearchcorp.scanner.Utf8JsonScanner;
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class TapeTest
+{
+  @Test
+  public void testLayout() throws ParserBrokenException
+  {
+    Tape tape = new Tape( new JsonParser( "{ \"a\" : [ \"1\", {} ], \"b\" : { \"c\" : null } }" ) );
+
+    assertEquals( tape.size(), 13 );
+    assertEquals( tape.getEvent( 0 ), JsonEvent.START_OBJECT );
+    assertEquals( tape.getMatch( 0 ), 12 );
+    assertEquals( tape.getMatch( 12 ), 0 );
+    assertEquals( tape.getEvent( 1 ), JsonEvent.KEY );
+    assertEquals( tape.getText( 1 ), "a" );
+    assertEquals( tape.getEvent( 2 ), JsonEvent.START_ARRAY );
+    assertEquals( tape.getMatch( 2 ), 6 );
+    assertEquals( tape.getText( 3 ), "1" );
+    assertEquals( tape.getEvent( 4 ), JsonEvent.START_OBJECT );
+    assertEquals( tape.getMatch( 4 ), 5 );
+    assertEquals( tape.skip( 2 ), 7 );
+    assertEquals( tape.skip( 3 ), 4 );
+    assertEquals( tape.getText( 10 ), "null" );
+    assertNull( tape.getText( 0 ) );
+  }
+
+  @Test
+  public void testFind() throws ParserBrokenException
+  {
+    Tape tape     = new Tape( new JsonParser( JsonToXmlTestFodder.SERIOUS_CONTENT ) );
+    int  glossary = tape.find( 0, "glossary" );
+    int  div      = tape.find( glossary, "GlossDiv" );
+    int  entry    = tape.find( tape.find( div, "GlossList" ), "GlossEntry" );
+
+    assertEquals( tape.getText( tape.find( glossary, "title" ) ), "example glossary" );
+    assertEquals( tape.getText( tape.find( entry, "Abbrev" ) ), "ISO 8879:1986" );
+    assertEquals( tape.getText( tape.find( entry, "GlossSee" ) ), "markup" );
+    assertEquals( tape.find( entry, "GlossSeeAlso" ), -1 );
+    assertEquals( tape.find( div, "title" ), -1 );
+  }
+
+  @Test
+  public void testText() throws ParserBrokenException
+  {
+    String text    = JsonToXmlTestFodder.records( 20000 ).replace( "\"", "'" );
+    String content = "{ \"café\" : \"naïve \\u00e9\\n\\\"q\\\"\", \"long\" : \"" + text + "\" }";
+    Tape   tape    = new Tape( new JsonParser( new Utf8JsonScanner( content.getBytes( StandardCharsets.UTF_8 ) ) ) );
+    Tape   chars   = new Tape( new JsonParser( content ) );
+
+    assertEquals( tape.getText( 1 ), "café" );
+    assertEquals( tape.getText( 2 ), "naïve é\n\"q\"" );
+    assertEquals( tape.getText( 4 ), text );
+    assertEquals( chars.getText( 4 ), text );
+  }
+
+  @Test
+  public void testGenerateLikeElement() throws ParserBrokenException
+  {
+    String[] documents =
+    {
+      JsonToXmlTestFodder.SIMPLE_CONTENT,
+      JsonToXmlTestFodder.ARRAY_CONTENT2,
+      JsonToXmlTestFodder.SERIOUS_CONTENT,
+      JsonToXmlTestFodder.PERFECTSEARCH_CONTENT,
+      JsonToXmlTestFodder.records( 100000 )
+    };
+
+    for( String document : documents )
+    {
+      XmlGenerator generator = new XmlGenerator();
+
+      generator.configurePrettyPrinter( true );
+      generator.setRootName( "root" );
+
+      String expected = generator.generate( new JsonParser( document ).parse() );
+
+      assertEquals( expected, generator.generateFromTape( new Tape( new JsonParser( document ) ) ) );
+    }
+  }
+
+  @Test( expected = ParserBrokenException.class )
+  public void testIllFormed() throws ParserBrokenException
+  {
+    new Tape( new JsonParser( "{ \"a\" : [ 1 }" ) );
+  }
+}
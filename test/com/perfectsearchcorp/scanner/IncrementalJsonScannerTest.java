@@ -0,0 +1,82 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.scanner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * What holds between chunks is bounded as it's set aside, not found out
+ * afterward.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class IncrementalJsonScannerTest
+{
+  @Test
+  public void testMaxPendingKeptWithinChunk() throws IllegalCharacterOutsideOfTokenException
+  {
+    IncrementalJsonScanner scanner = new IncrementalJsonScanner();
+    char[]                 value   = new char[ 1024 * 1024 ];
+
+    Arrays.fill( value, 'a' );
+    scanner.setMaxPending( 16 );
+    scanner.feed( bytes( "{ \"long\" : \"" + new String( value ) ) );
+
+    try
+    {
+      while( scanner.getNextToken() != null )
+        ;
+      fail( "Should have been refused" );
+    }
+    catch( NoMoreTokensException e )
+    {
+      assertEquals( e.getMessage(), "Token longer than 16 bytes" );
+      assertTrue( scanner.getPendingLength() <= 16 );
+    }
+  }
+
+  @Test
+  public void testTokenAsLongAsAllowed() throws NoMoreTokensException, IllegalCharacterOutsideOfTokenException
+  {
+    IncrementalJsonScanner scanner = new IncrementalJsonScanner();
+
+    scanner.setMaxPending( 16 );
+    scanner.feed( bytes( "[ \"abcdefghijkl" ) );
+    assertEquals( scanner.getNextToken().getType(), TokenType.OPEN_BRACKET );
+    assertNull( scanner.getNextToken() );
+    assertEquals( scanner.getPendingLength(), 13 );
+
+    scanner.feed( bytes( "mn\" ]" ) );
+    assertEquals( scanner.getNextToken().getToken(), "abcdefghijklmn" );
+    assertEquals( scanner.getNextToken().getType(), TokenType.CLOSE_BRACKET );
+  }
+
+  private static ByteBuffer bytes( String string )
+  {
+    return ByteBuffer.wrap( string.getBytes( StandardCharsets.UTF_8 ) );
+  }
+}
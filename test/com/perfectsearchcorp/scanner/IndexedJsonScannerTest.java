@@ -0,0 +1,257 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.scanner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * The indexed scanner must find exactly the tokens the plain one does.
+ * Random content, full of backslashes and quoted punctuation, makes sure
+ * the bit tricks hold up across 64-character and block boundaries.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class IndexedJsonScannerTest
+{
+  @Test
+  public void testFodder() throws IllegalCharacterOutsideOfTokenException
+  {
+    assertSameTokens( JsonToXmlTestFodder.SIMPLE_CONTENT );
+    assertSameTokens( JsonToXmlTestFodder.ARRAY_CONTENT2 );
+    assertSameTokens( JsonToXmlTestFodder.SERIOUS_CONTENT );
+    assertSameTokens( JsonToXmlTestFodder.PERFECTSEARCH_CONTENT );
+  }
+
+  @Test
+  public void testMoreThanOneBlock() throws IllegalCharacterOutsideOfTokenException
+  {
+    assertSameTokens( JsonToXmlTestFodder.records( 3 * StructuralIndexer.BLOCK_SIZE ) );
+  }
+
+  @Test
+  public void testEscapes() throws IllegalCharacterOutsideOfTokenException
+  {
+    assertSameTokens( "{ \"a\\\\\" : \"\\\"{,}\\\"\", \"b\" : [ \"\\\\\\\"\", \"\\\\\\\\\" ] }" );
+  }
+
+  @Test
+  public void testRandomContent() throws IllegalCharacterOutsideOfTokenException
+  {
+    Random random = new Random( 42 );
+
+    for( int round = 0; round < 50; round++ )
+    {
+      String content = randomContent( random, 200 + random.nextInt( 2000 ) );
+
+      assertSameTokens( content );
+      assertEquals( naiveIndex( content ), index( content ) );
+    }
+  }
+
+  @Test
+  public void testRandomContentAcrossBlocks() throws IllegalCharacterOutsideOfTokenException
+  {
+    String content = randomContent( new Random( 7 ), 40000 );
+
+    assertSameTokens( content );
+    assertEquals( naiveIndex( content ), index( content ) );
+  }
+
+  /**
+   * Asked again, the scanner comes upon the same error, as
+   * <tt>JsonScanner</tt> does, rather than going on past it.
+   */
+  @Test
+  public void testErrorRepeats()
+  {
+    String[] contents = { "{ \"a\" : \"open", "{ \"a\" : 1x2 }", "{ \"a\" : nul, \"b\" : 1 }", "[ 12" };
+
+    for( String content : contents )
+    {
+      JsonScanner expected = new JsonScanner( content );
+      JsonScanner actual   = new IndexedJsonScanner( content );
+
+      for( int count = 0; count < 6; count++ )
+      {
+        Token want = expected.nextToken();
+        Token got  = actual.nextToken();
+
+        assertEquals( want.getType(), got.getType() );
+        assertEquals( want.start(), got.start() );
+        assertEquals( want.getScanned(), got.getScanned() );
+        assertEquals( want.getProblem(), got.getProblem() );
+        assertEquals( expected.getScanned(), actual.getScanned() );
+      }
+
+      assertEquals( actual.nextToken().getType(), TokenType.ERROR );
+    }
+  }
+
+  private static void assertSameTokens( String content ) throws IllegalCharacterOutsideOfTokenException
+  {
+    JsonScanner expected = new JsonScanner( content );
+    JsonScanner actual   = new IndexedJsonScanner( content );
+
+    while( true )
+    {
+      Token want = next( expected );
+      Token got  = next( actual );
+
+      if( want == null || got == null )
+      {
+        assertEquals( want, got );
+        return;
+      }
+
+      assertEquals( want.getType(), got.getType() );
+      assertEquals( want.start(), got.start() );
+      assertEquals( want.length(), got.length() );
+      assertEquals( want.hasEscapes(), got.hasEscapes() );
+      assertEquals( want.getScanned(), got.getScanned() );
+      assertEquals( want.getToken(), got.getToken() );
+    }
+  }
+
+  private static Token next( JsonScanner scanner ) throws IllegalCharacterOutsideOfTokenException
+  {
+    try
+    {
+      return scanner.getNextToken();
+    }
+    catch( NoMoreTokensException e )
+    {
+      return null;
+    }
+  }
+
+  private static List< Integer > index( String content )
+  {
+    StructuralIndexer indexer   = new StructuralIndexer( content );
+    int[]             positions = new int[ StructuralIndexer.BLOCK_SIZE ];
+    List< Integer >   index     = new ArrayList<>();
+    int               count;
+
+    while( ( count = indexer.indexNextBlock( positions ) ) >= 0 )
+    {
+      for( int position = 0; position < count; position++ )
+        index.add( positions[ position ] );
+    }
+
+    return index;
+  }
+
+  /**
+   * What the indexer should find, looking at one character at a time.
+   */
+  private static List< Integer > naiveIndex( String content )
+  {
+    List< Integer > index    = new ArrayList<>();
+    boolean         inString = false;
+    boolean         scalar   = false;  // previous character part of a number or keyword
+
+    for( int pos = 0; pos < content.length(); pos++ )
+    {
+      char character = content.charAt( pos );
+
+      if( inString )
+      {
+        if( character == '\\' )
+          pos++;
+        else if( character == '"' )
+        {
+          index.add( pos );
+          inString = false;
+        }
+        continue;
+      }
+
+      switch( character )
+      {
+        case '"' :
+          index.add( pos );
+          inString = true;
+          scalar   = false;
+          break;
+
+        case '{' : case '}' : case '[' : case ']' : case ':' : case ',' :
+          index.add( pos );
+          scalar = false;
+          break;
+
+        case ' ' : case '\t' : case '\n' : case '\r' :
+          scalar = false;
+          break;
+
+        default :
+          if( !scalar )
+            index.add( pos );
+          scalar = true;
+          break;
+      }
+    }
+
+    return index;
+  }
+
+  private static final String[] PIECES =
+  {
+    "{", "}", "[", "]", ":", ",", "true", "null", "-12.5e3", "42", "\r\n", "\t"
+  };
+  private static final String STRING_CHARACTERS = "ab{}[]:, \t";
+
+  private static String randomContent( Random random, int size )
+  {
+    StringBuilder sb = new StringBuilder();
+
+    while( sb.length() < size )
+    {
+      if( random.nextInt( 3 ) == 0 )
+      {
+        sb.append( '"' );
+
+        for( int length = random.nextInt( 90 ); length > 0; length-- )
+        {
+          switch( random.nextInt( 6 ) )
+          {
+            case 0  : sb.append( "\\\\" ); break;
+            case 1  : sb.append( "\\\"" ); break;
+            default : sb.append( STRING_CHARACTERS.charAt( random.nextInt( STRING_CHARACTERS.length() ) ) );
+          }
+        }
+
+        sb.append( '"' );
+      }
+      else
+      {
+        sb.append( PIECES[ random.nextInt( PIECES.length ) ] );
+      }
+
+      sb.append( ' ' );
+    }
+
+    return sb.toString();
+  }
+}
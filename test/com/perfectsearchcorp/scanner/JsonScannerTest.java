@@ -16,8 +16,14 @@
  */
 package com.perfectsearchcorp.scanner;
 
+import java.nio.charset.StandardCharsets;
+
 import org.junit.Test;
 
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 
@@ -103,4 +109,175 @@ public class JsonScannerTest
     setup( COMMA );
     assertEquals( token.getType(), TokenType.COMMA );
   }
+
+  @Test
+  public void testNumbersAndKeywords() throws NoMoreTokensException, IllegalCharacterOutsideOfTokenException
+  {
+    setup( "[17,true,-2.5e3\r\n]" );
+    assertEquals( token.getType(), TokenType.OPEN_BRACKET );
+    token = scanner.getNextToken();
+    assertEquals( "17", token.getToken() );
+    scanner.getNextToken();
+    token = scanner.getNextToken();
+    assertEquals( "true", token.getToken() );
+    scanner.getNextToken();
+    token = scanner.getNextToken();
+    assertEquals( "-2.5e3", token.getToken() );
+    token = scanner.getNextToken();
+    assertEquals( token.getType(), TokenType.CLOSE_BRACKET );
+  }
+
+  @Test
+  public void testTokenPointsIntoContent() throws NoMoreTokensException, IllegalCharacterOutsideOfTokenException
+  {
+    setup( "{ \"plain\" : \"es\\\"caped\" }" );
+    Token first = token;
+    token = scanner.getNextToken();
+    assertSame( first, token );
+    assertEquals( token.start(), 3 );
+    assertEquals( token.length(), 5 );
+    assertFalse( token.hasEscapes() );
+    assertEquals( "plain", token.getToken() );
+    scanner.getNextToken();
+    token = scanner.getNextToken();
+    assertEquals( token.start(), 13 );
+    assertEquals( token.length(), 9 );
+    assertTrue( token.hasEscapes() );
+    assertEquals( "es\"caped", token.getToken() );
+  }
+
+  @Test
+  public void testPushedTokenComesBackOnce() throws NoMoreTokensException, IllegalCharacterOutsideOfTokenException
+  {
+    setup( TWO_IDENTS );
+    Token pushed = new Token( "pushed", TokenType.IDENT );
+    scanner.pushToken( pushed );
+    assertSame( pushed, scanner.getNextToken() );
+    assertEquals( scanner.getNextToken().getType(), TokenType.COLON );
+  }
+
+  @Test
+  public void testNextTokenStopsAtEnd()
+  {
+    TokenType[] types = { TokenType.OPEN_BRACE, TokenType.IDENT, TokenType.COLON, TokenType.IDENT, TokenType.CLOSE_BRACE };
+
+    for( JsonScanner scanner : scanners( "{ \"a\" : 1 } \n" ) )
+    {
+      for( TokenType type : types )
+        assertEquals( scanner.nextToken().getType(), type );
+
+      assertEquals( scanner.nextToken().getType(), TokenType.END );
+      assertEquals( scanner.nextToken().getType(), TokenType.END );
+      assertTrue( scanner.isExhausted() );
+    }
+  }
+
+  @Test
+  public void testNextTokenStopsAtError()
+  {
+    assertStops( "{ \"a\" : 1x2 }", "Suspected number is grossly invalid" );
+    assertStops( "{ \"a\" : \"never closed }", "Unterminated string" );
+    assertStops( "{ \"a\" : 12", "Cannot delimit end of suspected number" );
+  }
+
+  @Test
+  public void testStringsThatMayHoldIllegalXml()
+  {
+    String    content = "[ \"clean\", \"raw\u0001\", 12, \"esc\\u0001\", \"\u65e5\u672c\", \"\uFFFF\", \"clean\" ]";
+    boolean[] suspect = { false, true, false, true, false, true, false };
+
+    for( JsonScanner scanner : scanners( content ) )
+    {
+      int   value = 0;
+      Token token;
+
+      while( !( token = scanner.nextToken() ).isStop() )
+      {
+        if( token.getType() == TokenType.IDENT )
+          assertEquals( token.mayHoldIllegalXml(), suspect[ value++ ] );
+      }
+
+      assertEquals( value, suspect.length );
+    }
+  }
+
+  @Test( expected = NoMoreTokensException.class )
+  public void testGetNextTokenStillThrows() throws NoMoreTokensException, IllegalCharacterOutsideOfTokenException
+  {
+    setup( "{ }" );
+    scanner.getNextToken();
+    scanner.getNextToken();
+  }
+
+  private static void assertStops( String content, String problem )
+  {
+    for( JsonScanner scanner : scanners( content ) )
+    {
+      for( int count = 0; count < 3; count++ )
+        assertFalse( scanner.nextToken().isStop() );
+
+      Token token = scanner.nextToken();
+      assertEquals( token.getType(), TokenType.ERROR );
+      assertEquals( token.getProblem(), problem );
+    }
+  }
+
+  private static JsonScanner[] scanners( String content )
+  {
+    return new JsonScanner[]
+    {
+      new JsonScanner( content ),
+      new IndexedJsonScanner( content ),
+      new Utf8JsonScanner( content.getBytes( StandardCharsets.UTF_8 ) )
+    };
+  }
+
+  /**
+   * Scanning used to copy the rest of the document for every token. How
+   * its cost grows with the input is measured by
+   * <tt>ScannerScalingBenchmark</tt>, not here, where timings would make the
+   * test fail on a busy machine. This makes sure instead that every
+   * scanner consumes each character once: tokens come in order, each
+   * beginning where the last one's scanned count left off or after, and
+   * the counts add up to the whole input.
+   */
+  @Test
+  public void testScanningConsumesEachCharacterOnce() throws IllegalCharacterOutsideOfTokenException
+  {
+    for( int size : new int[] { 64 * 1024, 2 * 1024 * 1024 } )
+    {
+      String input = JsonToXmlTestFodder.records( size );
+
+      for( JsonScanner scanner : scanners( input ) )
+        assertEquals( scanAll( scanner ), scanner instanceof Utf8JsonScanner
+                                            ? input.getBytes( StandardCharsets.UTF_8 ).length
+                                            : input.length() );
+    }
+  }
+
+  /**
+   * @return the total of the tokens' scanned counts.
+   */
+  private static long scanAll( JsonScanner scanner ) throws IllegalCharacterOutsideOfTokenException
+  {
+    long scanned = 0;
+
+    try
+    {
+      while( true )
+      {
+        Token token = scanner.getNextToken();
+
+        assertTrue( token.start() >= scanned );
+        scanned += token.getScanned();
+        assertEquals( scanner.getScanned(), scanned );
+      }
+    }
+    catch( NoMoreTokensException e )
+    {
+      ;
+    }
+
+    return scanned;
+  }
 }
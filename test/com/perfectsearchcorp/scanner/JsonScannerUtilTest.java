@@ -16,12 +16,16 @@
  */
 package com.perfectsearchcorp.scanner;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 import org.junit.Test;
 
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * Semantically, these tests pretty well demonstrate what's in mind
@@ -86,6 +90,20 @@ public class JsonScannerUtilTest
     assertEquals( end, 4 );
   }
 
+  @Test
+  public void testFindEndCarriageReturn()
+  {
+    int end = JsonScannerUtil.findEnd( "null\r\n" );
+    assertEquals( end, 4 );
+  }
+
+  @Test
+  public void testFindEndFromPosition()
+  {
+    int end = JsonScannerUtil.findEnd( "{ \"a\" : true, \"b\" : 1 }", 8 );
+    assertEquals( end, 12 );
+  }
+
   @Test( expected = IllegalCharacterOutsideOfTokenException.class )
   public void testIsNullTrueOrFalsePrematureEndOfBuffer() throws IllegalCharacterOutsideOfTokenException
   {
@@ -108,6 +126,42 @@ public class JsonScannerUtilTest
     assertTrue( token.equals( SOME_IDENTIFIER ) );
   }
 
+  @Test
+  public void testToDoubleQuoteControlEscapes()
+  {
+    String token = JsonScannerUtil.eatToDoubleQuote( "\"tab\\there\\nnew\\/line\"", 1 );
+    assertEquals( "tab\there\nnew/line", token );
+  }
+
+  @Test
+  public void testToDoubleQuoteUnicodeEscape()
+  {
+    String token = JsonScannerUtil.eatToDoubleQuote( "\"caf\\u00e9\"", 1 );
+    assertEquals( "caf\u00e9", token );
+  }
+
+  @Test
+  public void testToDoubleQuoteSurrogatePair()
+  {
+    String token = JsonScannerUtil.eatToDoubleQuote( "\"smile \\uD83D\\uDE00!\"", 1 );
+    assertEquals( "smile \uD83D\uDE00!", token );
+  }
+
+  @Test
+  public void testToDoubleQuoteLoneSurrogate()
+  {
+    String token = JsonScannerUtil.eatToDoubleQuote( "\"half \\uD83D!\"", 1 );
+    assertEquals( "half \uFFFD!", token );
+  }
+
+  @Test
+  public void testToDoubleQuoteEscapedQuotesAndBackslashes()
+  {
+    String buffer = "\"say \\\"hi\\\" \\\\\" : 1";
+    assertEquals( 14, JsonScannerUtil.findClosingQuote( buffer, 1 ) );
+    assertEquals( "say \"hi\" \\", JsonScannerUtil.eatToDoubleQuote( buffer, 1 ) );
+  }
+
   private static final String _42     = "42 ";
   private static final String _n_42   = "-42, ";
   private static final String ___42   = "+42\n ";
@@ -188,4 +242,76 @@ public class JsonScannerUtilTest
     String token = JsonScannerUtil.eatToSpaceAfterNumber( BAD2 );
     assertNull( token );
   }
+
+  @Test
+  public void testNumberEndsAtNearestDelimiter() throws IllegalCharacterOutsideOfTokenException
+  {
+    String token = JsonScannerUtil.eatToSpaceAfterNumber( "42,\"next\" : 17 " );
+    assertEquals( "42", token );
+  }
+
+  @Test
+  public void testNumberFromPosition() throws IllegalCharacterOutsideOfTokenException
+  {
+    String token = JsonScannerUtil.eatToSpaceAfterNumber( "{\"a\":-1.5e-3}", 5 );
+    assertEquals( "-1.5e-3", token );
+  }
+
+  @Test
+  public void testNumberEndsAtCarriageReturn() throws IllegalCharacterOutsideOfTokenException
+  {
+    String token = JsonScannerUtil.eatToSpaceAfterNumber( "17\r\n" );
+    assertEquals( "17", token );
+  }
+
+  @Test( expected = IllegalCharacterOutsideOfTokenException.class )
+  public void testNumberWithIncompleteExponent() throws IllegalCharacterOutsideOfTokenException
+  {
+    JsonScannerUtil.eatToSpaceAfterNumber( "1e+}" );
+  }
+
+  @Test( expected = IllegalCharacterOutsideOfTokenException.class )
+  public void testNumberWithNoEnd() throws IllegalCharacterOutsideOfTokenException
+  {
+    JsonScannerUtil.eatToSpaceAfterNumber( "42" );
+  }
+
+  @Test
+  public void testFindMatchingClose()
+  {
+    String content = "{ \"a\" : [ \"}]\\\"\", { } ], \"b\" : \"\\\\\" } tail";
+
+    assertEquals( JsonScannerUtil.findMatchingClose( content, 0 ), content.indexOf( " tail" ) - 1 );
+    assertEquals( JsonScannerUtil.findMatchingClose( content, 8 ), content.indexOf( "]," ) );
+  }
+
+  @Test
+  public void testAsciiView()
+  {
+    ByteBuffer   bytes = ByteBuffer.wrap( "ab\\u0041cd".getBytes( StandardCharsets.UTF_8 ) );
+    CharSequence view  = new JsonScannerUtil.AsciiView( bytes );
+    CharSequence part  = view.subSequence( 2, 8 );
+
+    assertEquals( view.toString(), "ab\\u0041cd" );
+    assertEquals( part.length(), 6 );
+    assertEquals( part.toString(), "\\u0041" );
+    assertEquals( part.subSequence( 2, 6 ).toString(), "0041" );
+    assertEquals( part.charAt( 5 ), '1' );
+
+    try
+    {
+      part.charAt( 6 );
+      fail( "Read past the end of the view" );
+    }
+    catch( IndexOutOfBoundsException e )
+    {
+      ;
+    }
+  }
+
+  @Test( expected = IndexOutOfBoundsException.class )
+  public void testFindMatchingCloseNever()
+  {
+    JsonScannerUtil.findMatchingClose( "{ \"a\" : { \"b\" : \"}\" }", 0 );
+  }
 }
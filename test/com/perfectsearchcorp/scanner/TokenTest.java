@@ -17,6 +17,12 @@
 package com.perfectsearchcorp.scanner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -90,4 +96,83 @@ public class TokenTest
     token = new Token( "This is simply another unknown token", TokenType.UNKNOWN );
     assertEquals( token.type, TokenType.UNKNOWN );
   }
+
+  @Test
+  public void testMatches()
+  {
+    String content = "xx\"café\"\"a\\nb\"\"key\"";
+    byte[] bytes   = content.getBytes( StandardCharsets.UTF_8 );
+
+    token = new Token();
+    token.set( content, TokenType.IDENT, 15, 3, false, 5 );
+    assertTrue( token.matches( "key" ) );
+    assertFalse( token.matches( "kex" ) );
+    assertFalse( token.matches( "keys" ) );
+
+    token.set( content, TokenType.IDENT, 9, 4, true, 6 );
+    assertTrue( token.matches( "a\nb" ) );
+
+    token.set( ByteBuffer.wrap( bytes ), TokenType.IDENT, 3, 5, false, 7 );
+    assertTrue( token.matches( "café" ) );
+    assertFalse( token.matches( "cafe" ) );
+
+    token.set( ByteBuffer.wrap( bytes ), TokenType.IDENT, 16, 3, false, 5 );
+    assertTrue( token.matches( "key" ) );
+    assertFalse( token.matches( "kez" ) );
+  }
+
+  @Test
+  public void testDecodePiece()
+  {
+    String[] pieces = { "a", "bc", "&", "\\n", "\\\"", "\\\\", "\\u00e9", "\\ud83d\\ude00", "\u00e9", "\u65e5", "\ud83d\ude00" };
+    Random   random = new Random( 11 );
+
+    for( int round = 0; round < 20; round++ )
+    {
+      StringBuilder text = new StringBuilder();
+
+      while( text.length() < 3000 )
+        text.append( pieces[ random.nextInt( pieces.length ) ] );
+
+      String content = text.toString();
+      byte[] bytes   = content.getBytes( StandardCharsets.UTF_8 );
+      Token  chars   = new Token();
+      Token  utf8    = new Token();
+
+      chars.set( content, TokenType.IDENT, 0, content.length(), true, content.length() );
+      utf8.set( ByteBuffer.wrap( bytes ), TokenType.IDENT, 0, bytes.length, true, bytes.length );
+
+      for( int size : new int[] { 16, 17, 23, 64, 5000 } )
+      {
+        assertEquals( decodeInPieces( chars, size ), chars.getToken() );
+        assertEquals( decodeInPieces( utf8, size ), utf8.getToken() );
+      }
+    }
+
+    token = new Token( "ab\ud83d\ude00cd", TokenType.IDENT );
+    assertEquals( decodeInPieces( token, 3 ), "ab\ud83d\ude00cd" );
+  }
+
+  /**
+   * No piece may end in the middle of a surrogate pair.
+   */
+  private static String decodeInPieces( Token token, int size )
+  {
+    StringBuilder decoded = new StringBuilder();
+    StringBuilder piece   = new StringBuilder();
+
+    for( int from = 0; from < token.length(); )
+    {
+      piece.setLength( 0 );
+
+      int next = token.decodePiece( from, size, piece );
+
+      assertTrue( next > from );
+      assertFalse( Character.isHighSurrogate( piece.charAt( piece.length()-1 ) ) );
+      decoded.append( piece );
+      from = next;
+    }
+
+    return decoded.toString();
+  }
 }
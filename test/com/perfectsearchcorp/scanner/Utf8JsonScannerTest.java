@@ -0,0 +1,124 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2014 PerfectSearch Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * -------------------------------------------------------------------
+ */
+package com.perfectsearchcorp.scanner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.perfectsearchcorp.testfodder.JsonToXmlTestFodder;
+
+/**
+ * Scanning the UTF-8 bytes must come up with the same tokens as scanning
+ * the decoded string.
+ *
+ * @author Russell Bateman
+ * @since December 2014
+ */
+public class Utf8JsonScannerTest
+{
+  private static final String NON_ASCII =
+      "{ \"café\" : \"naïve 日本 \\u00e9\\n\\\"q\\\"\", \"smile\" : [ \"😀\", \"\\uD83D\\uDE00\", -1.5e3 ] }";
+
+  @Test
+  public void testFodder() throws IllegalCharacterOutsideOfTokenException
+  {
+    assertSameTokens( JsonToXmlTestFodder.SERIOUS_CONTENT, false );
+    assertSameTokens( JsonToXmlTestFodder.PERFECTSEARCH_CONTENT, false );
+    assertSameTokens( JsonToXmlTestFodder.records( 100000 ), false );
+  }
+
+  @Test
+  public void testNonAscii() throws IllegalCharacterOutsideOfTokenException
+  {
+    assertSameTokens( NON_ASCII, false );
+  }
+
+  @Test
+  public void testDirectBuffer() throws IllegalCharacterOutsideOfTokenException
+  {
+    assertSameTokens( NON_ASCII, true );
+  }
+
+  @Test
+  public void testByteOrderMarkSkipped() throws NoMoreTokensException, IllegalCharacterOutsideOfTokenException
+  {
+    JsonScanner scanner = new Utf8JsonScanner( ( "﻿" + JsonToXmlTestFodder.SIMPLE_CONTENT ).getBytes( StandardCharsets.UTF_8 ) );
+    assertEquals( scanner.getNextToken().getType(), TokenType.OPEN_BRACE );
+  }
+
+  @Test
+  public void testBufferPositionRespected() throws NoMoreTokensException, IllegalCharacterOutsideOfTokenException
+  {
+    ByteBuffer buffer = ByteBuffer.wrap( ( "garbage" + JsonToXmlTestFodder.SIMPLE_CONTENT ).getBytes( StandardCharsets.UTF_8 ) );
+    buffer.position( 7 );
+    JsonScanner scanner = new Utf8JsonScanner( buffer );
+    scanner.getNextToken();
+    Token token = scanner.getNextToken();
+    assertEquals( "key", token.getToken() );
+    assertEquals( token.start(), 3 );
+    assertEquals( buffer.position(), 7 );
+  }
+
+  private static void assertSameTokens( String content, boolean direct ) throws IllegalCharacterOutsideOfTokenException
+  {
+    byte[]     bytes  = content.getBytes( StandardCharsets.UTF_8 );
+    ByteBuffer buffer = ( direct ) ? ByteBuffer.allocateDirect( bytes.length ) : ByteBuffer.wrap( bytes );
+
+    if( direct )
+    {
+      buffer.put( bytes );
+      buffer.flip();
+    }
+
+    JsonScanner expected = new JsonScanner( content );
+    JsonScanner actual   = new Utf8JsonScanner( buffer );
+
+    while( true )
+    {
+      Token want = next( expected );
+      Token got  = next( actual );
+
+      if( want == null || got == null )
+      {
+        assertNull( want );
+        assertNull( got );
+        return;
+      }
+
+      assertEquals( want.getType(), got.getType() );
+      assertEquals( want.hasEscapes(), got.hasEscapes() );
+      assertEquals( want.getToken(), got.getToken() );
+    }
+  }
+
+  private static Token next( JsonScanner scanner ) throws IllegalCharacterOutsideOfTokenException
+  {
+    try
+    {
+      return scanner.getNextToken();
+    }
+    catch( NoMoreTokensException e )
+    {
+      return null;
+    }
+  }
+}
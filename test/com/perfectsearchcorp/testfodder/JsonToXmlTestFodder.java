@@ -99,4 +99,21 @@ public class JsonToXmlTestFodder
   public static final String SIMPLE_JSON  = "{ \"name\" : \"I'm a wide-mouthed frog!\" }";
   public static final String SIMPLE_ARRAY = "{ \"name\" : [ \"Princess Buttercup\", \"Westley\" ] }";
   public static final String COMPLEX_JSON = "{ \"monitor\" : { \"size\" : \"2560x1440\", \"brand\" : \"Acer\" } }";
+
+  /**
+   * Builds a document of about <tt>size</tt> characters by repeating
+   * PERFECTSEARCH_CONTENT as the members of one big array, which is what
+   * our request-log dumps look like.
+   */
+  public static String records( int size )
+  {
+    StringBuilder sb = new StringBuilder( size + PERFECTSEARCH_CONTENT.length() + 32 );
+
+    sb.append( "{ \"records\" : [ " ).append( PERFECTSEARCH_CONTENT );
+
+    while( sb.length() < size )
+      sb.append( ",\n" ).append( PERFECTSEARCH_CONTENT );
+
+    return sb.append( " ] }" ).toString();
+  }
 }